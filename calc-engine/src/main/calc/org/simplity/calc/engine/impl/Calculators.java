@@ -1,6 +1,8 @@
 package org.simplity.calc.engine.impl;
 
-import org.simplity.calc.engine.api.ICalcContext;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.IValueType;
 import org.simplity.calc.engine.config.CalcStepsDS;
@@ -11,9 +13,19 @@ import org.simplity.calc.engine.config.CalculatorDS;
  * IRule
  */
 class Calculators {
+	private static final IExpression[][] NO_STEPS = {};
 
+	/**
+	 *
+	 * @param rule
+	 * @param name              of the variable for which this calculator is built
+	 * @param valueType         expected value type
+	 * @param expressionBuilder
+	 * @param compiler          null if the calculator is to be interpreted.
+	 * @return calculator, or null in case of any error
+	 */
 	public static ICalculator buildCalculator(CalculatorDS rule, String name, IValueType valueType,
-			ExpressionBuilder expressionBuilder) {
+			ExpressionBuilder expressionBuilder, RuleCompiler compiler) {
 
 		boolean allOk = true;
 		String expr = rule.defaultExpression;
@@ -25,37 +37,83 @@ class Calculators {
 
 		CalcStepsDS[] scenarios = rule.calcSteps;
 		if (scenarios == null || scenarios.length == 0) {
-			if (allOk) {
-				return new ExpressionCalculator(defaultExpression, valueType);
+			if (!allOk) {
+				return null;
 			}
-			return null;
+			ICalculator calculator = new ExpressionCalculator(defaultExpression, valueType);
+			if (compiler != null) {
+				return compiler.compileCalculator(calculator, new IExpression[0][], defaultExpression);
+			}
+			return calculator;
 		}
 
-		int n = scenarios.length;
-		IExpression[][] ruleCases = new IExpression[n][2];
-		int i = -1;
+		List<IExpression[]> cases = new ArrayList<>();
+		boolean alwaysTrue = false;
 		for (CalcStepsDS exp : scenarios) {
-			i++;
 			IExpression condition = expressionBuilder.parse(exp.when, name, ValueTypes.BOOLEAN);
 			IExpression expression = expressionBuilder.parse(exp.value, name, valueType);
-			if (condition != null && expression != null) {
-				ruleCases[i][0] = condition;
-				ruleCases[i][1] = expression;
-			} else {
+			if (condition == null || expression == null) {
 				allOk = false;
+				continue;
+			}
+			if (alwaysTrue) {
+				// parsed for any errors, but it can never be reached
+				continue;
+			}
+			if (condition instanceof LiteralExpression) {
+				/*
+				 * a case that is always false is dropped, while a case that is always true
+				 * replaces the default expression, and the subsequent cases are dropped
+				 */
+				if (((LiteralExpression) condition).getValue().getBooleanValue()) {
+					defaultExpression = expression;
+					alwaysTrue = true;
+				}
+				continue;
+			}
+			cases.add(new IExpression[] { condition, expression });
+		}
+		if (!allOk) {
+			return null;
+		}
+
+		if (cases.isEmpty()) {
+			ICalculator calculator = new ExpressionCalculator(defaultExpression, valueType);
+			if (compiler != null) {
+				return compiler.compileCalculator(calculator, new IExpression[0][], defaultExpression);
 			}
+			return calculator;
 		}
-		if (allOk) {
-			return new IfElseCalculator(ruleCases, defaultExpression, valueType);
+
+		IExpression[][] ruleCases = cases.toArray(new IExpression[0][]);
+		ICalculator calculator = new IfElseCalculator(ruleCases, defaultExpression, valueType);
+		if (compiler != null) {
+			return compiler.compileCalculator(calculator, ruleCases, defaultExpression);
 		}
-		return null;
+		return calculator;
 
 	}
 
+	/**
+	 * build a calculator that just evaluates an expression that is already parsed
+	 *
+	 * @param expression non-null expression
+	 * @param valueType  value type of the expression
+	 * @param compiler   null if the calculator is to be interpreted.
+	 * @return calculator
+	 */
+	static ICalculator newCalculator(IExpression expression, IValueType valueType, RuleCompiler compiler) {
+		ICalculator calculator = new ExpressionCalculator(expression, valueType);
+		if (compiler != null) {
+			return compiler.compileCalculator(calculator, new IExpression[0][], expression);
+		}
+		return calculator;
+	}
+
 	/**
 	 * Simplest rule. Just an expression
 	 */
-	private static class ExpressionCalculator implements ICalculator {
+	private static class ExpressionCalculator implements ICalculator, ICalcSteps {
 		private final IExpression expression;
 		private final IValueType valueType;
 
@@ -65,7 +123,7 @@ class Calculators {
 		}
 
 		@Override
-		public IValue calculate(ICalcContext ctx) {
+		public IValue calculate(IEvaluationContext ctx) {
 			return this.expression.evaluate(ctx);
 		}
 
@@ -79,6 +137,16 @@ class Calculators {
 
 			return this.expression.dryrun(ctx);
 		}
+
+		@Override
+		public IExpression[][] getSteps() {
+			return NO_STEPS;
+		}
+
+		@Override
+		public IExpression getDefaultExpression() {
+			return this.expression;
+		}
 	}
 
 	/**
@@ -91,6 +159,8 @@ class Calculators {
 		 * [][0] is condition [][1] is value-expression
 		 */
 		private final IExpression[][] cases;
+		// null if the leading cases do not test a variable against constants
+		private final IStepIndex index;
 
 		/**
 		 *
@@ -100,12 +170,28 @@ class Calculators {
 		protected IfElseCalculator(IExpression[][] ruleCases, IExpression defaultExpression, IValueType valueType) {
 			super(defaultExpression, valueType);
 			this.cases = ruleCases;
+			this.index = IStepIndex.newIndex(ruleCases);
 		}
 
 		@Override
-		public IValue calculate(ICalcContext ctx) {
-			// Evaluate each conditional case in that order
-			for (IExpression[] c : this.cases) {
+		public IValue calculate(IEvaluationContext ctx) {
+			int from = 0;
+			if (this.index != null) {
+				final IValue value = ctx.determineValue(this.index.getSlot());
+				if (value == null) {
+					return null;
+				}
+				final int idx = this.index.find(value);
+				if (idx != IStepIndex.NOT_FOUND) {
+					final IValue result = this.index.getValue(idx, value);
+					return result != null ? result : this.cases[idx][1].evaluate(ctx);
+				}
+				from = this.index.getNbrSteps();
+			}
+
+			// Evaluate each remaining conditional case in that order
+			for (int i = from; i < this.cases.length; i++) {
+				final IExpression[] c = this.cases[i];
 				IValue caseIsTrue = c[0].evaluate(ctx);
 				// We stop in case of any error.
 				if (caseIsTrue == null) {
@@ -122,18 +208,34 @@ class Calculators {
 
 		@Override
 		public boolean dryrun(DryrunContext ctx) {
-
-			if (!super.dryrun(ctx)) {
+			/*
+			 * only the first condition is sure to be evaluated. Whether the other steps
+			 * and the default are evaluated depends on the conditions
+			 */
+			if (!this.cases[0][0].dryrun(ctx)) {
 				return false;
 			}
 
-			for (IExpression[] c : this.cases) {
-				if (c[0].dryrun(ctx) && c[1].dryrun(ctx)) {
-					continue;
+			ctx.beginConditional();
+			try {
+				for (int i = 0; i < this.cases.length; i++) {
+					IExpression[] c = this.cases[i];
+					if (i > 0 && !c[0].dryrun(ctx)) {
+						return false;
+					}
+					if (!c[1].dryrun(ctx)) {
+						return false;
+					}
 				}
-				return false;
+				return super.dryrun(ctx);
+			} finally {
+				ctx.endConditional();
 			}
-			return true;
+		}
+
+		@Override
+		public IExpression[][] getSteps() {
+			return this.cases;
 		}
 
 	}
@@ -0,0 +1,111 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * A jump table for the leading steps of a calculator that all compare the same
+ * variable with a constant, as in <code>category = EmpCat.pensioner</code>,
+ * <code>category = EmpCat.other</code>... The value of the variable is looked
+ * up in the table, rather than evaluating the conditions one after the other.
+ * Hence the step is selected in the same time, however long the chain is.
+ * <p>
+ * The steps that follow the first one that is not such a comparison are not in
+ * the table. They are evaluated in their order, only if the value is not found
+ * in the table.
+ *
+ * <h3>Thread Safety</h3> This class is immutable and therefore inherently
+ * thread-safe.
+ */
+final class CaseTable implements IStepIndex {
+	/*
+	 * a shorter chain is evaluated as fast in its order
+	 */
+	private static final int MIN_STEPS = 3;
+	private static final String EQ = "=";
+
+	private final int slot;
+	// index of the first step for each constant
+	private final Map<IValue, Integer> steps;
+	private final int nbrSteps;
+
+	private CaseTable(int slot, Map<IValue, Integer> steps, int nbrSteps) {
+		this.slot = slot;
+		this.steps = steps;
+		this.nbrSteps = nbrSteps;
+	}
+
+	/**
+	 *
+	 * @param cases condition and value of each of the steps
+	 * @return null if the leading steps are not long enough a chain of
+	 *         comparisons of a variable with constants
+	 */
+	static CaseTable newTable(IExpression[][] cases) {
+		int slot = -1;
+		final Map<IValue, Integer> steps = new HashMap<>();
+		int n = 0;
+		for (; n < cases.length; n++) {
+			final FunctionExpression condition = toEquality(cases[n][0]);
+			if (condition == null) {
+				break;
+			}
+			final IExpression[] args = condition.getArguments();
+			final boolean varFirst = args[0] instanceof VariableExpression;
+			final int s = ((VariableExpression) args[varFirst ? 0 : 1]).getSlot();
+			if (slot == -1) {
+				slot = s;
+			} else if (s != slot) {
+				break;
+			}
+			// the first step with a constant is the one that is selected
+			steps.putIfAbsent(((LiteralExpression) args[varFirst ? 1 : 0]).getValue(), n);
+		}
+		if (n < MIN_STEPS) {
+			return null;
+		}
+		return new CaseTable(slot, steps, n);
+	}
+
+	/**
+	 * @return the condition if it compares a variable with a constant
+	 */
+	private static FunctionExpression toEquality(IExpression condition) {
+		if (condition instanceof FunctionExpression == false) {
+			return null;
+		}
+		final FunctionExpression fe = (FunctionExpression) condition;
+		if (!EQ.equals(fe.getFunctionName())) {
+			return null;
+		}
+		final IExpression[] args = fe.getArguments();
+		if ((args[0] instanceof VariableExpression && args[1] instanceof LiteralExpression)
+				|| (args[1] instanceof VariableExpression && args[0] instanceof LiteralExpression)) {
+			return fe;
+		}
+		return null;
+	}
+
+	@Override
+	public int getSlot() {
+		return this.slot;
+	}
+
+	@Override
+	public int getNbrSteps() {
+		return this.nbrSteps;
+	}
+
+	@Override
+	public int find(IValue value) {
+		final Integer idx = this.steps.get(value);
+		return idx == null ? NOT_FOUND : idx;
+	}
+
+	@Override
+	public IValue getValue(int step, IValue value) {
+		return null;
+	}
+}
@@ -0,0 +1,23 @@
+package org.simplity.calc.engine.impl;
+
+/**
+ * A calculator as configured: a sequence of conditional steps, and a default
+ * expression for when none of the conditions is true. This allows a calculator
+ * to be translated into another form of execution, like the
+ * {@link ColumnarEvaluator}.
+ */
+interface ICalcSteps {
+
+	/**
+	 *
+	 * @return [][0] is the condition, and [][1] the value expression. Empty array
+	 *         if there are no conditional steps. Must not be modified.
+	 */
+	IExpression[][] getSteps();
+
+	/**
+	 *
+	 * @return expression that is evaluated when none of the conditions is true
+	 */
+	IExpression getDefaultExpression();
+}
@@ -1,7 +1,6 @@
 package org.simplity.calc.engine.impl;
 
 import org.simplity.calc.engine.api.DataType;
-import org.simplity.calc.engine.api.ICalcContext;
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.IValueType;
 
@@ -41,7 +40,7 @@ public interface ICalculator {
 	 * @return The resulting {@link IValue} of the evaluation. Null in case of any
 	 *         error while evaluting.
 	 */
-	IValue calculate(ICalcContext ctx);
+	IValue calculate(IEvaluationContext ctx);
 
 	/**
 	 * Dryrun this rule to check if it semantically possible to use the rule. More
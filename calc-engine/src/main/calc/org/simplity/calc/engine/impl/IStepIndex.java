@@ -0,0 +1,62 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * An index to select the step of a calculator by the value of a variable,
+ * rather than by evaluating the conditions of the steps one after the other.
+ * It covers the leading steps of the calculator whose conditions all test the
+ * same variable against constants. The steps that follow, if any, are
+ * evaluated in their order, only if none of the steps in the index is
+ * selected.
+ */
+interface IStepIndex {
+	/**
+	 * returned by {@link #find(IValue)} if none of the steps in the index is
+	 * selected
+	 */
+	int NOT_FOUND = -1;
+
+	/**
+	 *
+	 * @param cases condition and value of each of the steps
+	 * @return an index for the leading steps, or null if they are not a long
+	 *         enough chain of tests of a variable against constants
+	 */
+	static IStepIndex newIndex(IExpression[][] cases) {
+		final IStepIndex index = CaseTable.newTable(cases);
+		if (index != null) {
+			return index;
+		}
+		return RangeTable.newTable(cases);
+	}
+
+	/**
+	 *
+	 * @return slot of the variable that the conditions test
+	 */
+	int getSlot();
+
+	/**
+	 *
+	 * @return number of the leading steps that are in this index
+	 */
+	int getNbrSteps();
+
+	/**
+	 *
+	 * @param value non-null value of the variable
+	 * @return index of the step that is selected, or {@link #NOT_FOUND}
+	 */
+	int find(IValue value);
+
+	/**
+	 * value of a step, if it can be calculated directly from the value of the
+	 * variable
+	 *
+	 * @param step  index of the step, as returned by {@link #find(IValue)}
+	 * @param value value of the variable
+	 * @return value of the step, or null if its expression is to be evaluated
+	 */
+	IValue getValue(int step, IValue value);
+}
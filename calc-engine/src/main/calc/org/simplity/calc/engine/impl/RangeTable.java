@@ -0,0 +1,297 @@
+package org.simplity.calc.engine.impl;
+
+import java.math.BigDecimal;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * An index for the leading steps of a calculator that test the same number
+ * against thresholds in order, as in the slabs <code>income &lt;= 250000</code>,
+ * <code>income &lt;= 500000</code>... The first step whose condition is true is
+ * found with a binary search over the thresholds, rather than by testing them
+ * one after the other.
+ * <p>
+ * This works because the thresholds are monotone: once a condition is true, the
+ * conditions of all the steps that follow are true as well. The chain ends at
+ * the first step that breaks this.
+ * <p>
+ * A step whose value is linear in the same number, as in
+ * <code>(income - 250000) * 0.05 + 12500</code>, is reduced to
+ * <code>income * a + b</code> when the index is built. The result has the same
+ * value and the same scale as that of the expression.
+ *
+ * <h3>Thread Safety</h3> This class is immutable and therefore inherently
+ * thread-safe.
+ */
+final class RangeTable implements IStepIndex {
+	/*
+	 * a shorter chain is evaluated as fast in its order
+	 */
+	private static final int MIN_STEPS = 3;
+
+	private final int slot;
+	// true if the conditions are '<' or '<=', false if they are '>' or '>='
+	private final boolean ascending;
+	private final IValue[] thresholds;
+	// whether the condition is true when the number equals the threshold
+	private final boolean[] inclusive;
+	// value of each step, if it is linear in the number. null otherwise
+	private final Linear[] values;
+
+	private RangeTable(int slot, boolean ascending, IValue[] thresholds, boolean[] inclusive, Linear[] values) {
+		this.slot = slot;
+		this.ascending = ascending;
+		this.thresholds = thresholds;
+		this.inclusive = inclusive;
+		this.values = values;
+	}
+
+	/**
+	 *
+	 * @param cases condition and value of each of the steps
+	 * @return null if the leading steps are not long enough a chain of
+	 *         thresholds for a number
+	 */
+	static RangeTable newTable(IExpression[][] cases) {
+		final int n = cases.length;
+		final IValue[] thresholds = new IValue[n];
+		final boolean[] inclusive = new boolean[n];
+		int slot = -1;
+		boolean ascending = true;
+		int nbr = 0;
+		for (; nbr < n; nbr++) {
+			final FunctionExpression condition = toComparison(cases[nbr][0]);
+			if (condition == null) {
+				break;
+			}
+			final IExpression[] args = condition.getArguments();
+			final boolean varFirst = args[0] instanceof VariableExpression;
+			final int s = ((VariableExpression) args[varFirst ? 0 : 1]).getSlot();
+			// c > v is the same as v < c
+			final String op = varFirst ? condition.getFunctionName() : flip(condition.getFunctionName());
+			final boolean asc = op.charAt(0) == '<';
+			if (nbr == 0) {
+				slot = s;
+				ascending = asc;
+			} else if (s != slot || asc != ascending) {
+				break;
+			}
+			thresholds[nbr] = ((LiteralExpression) args[varFirst ? 1 : 0]).getValue();
+			inclusive[nbr] = op.length() == 2;
+			if (nbr > 0 && !follows(thresholds[nbr - 1], inclusive[nbr - 1], thresholds[nbr], inclusive[nbr],
+					ascending)) {
+				break;
+			}
+		}
+		if (nbr < MIN_STEPS) {
+			return null;
+		}
+
+		final IValue[] t = new IValue[nbr];
+		final boolean[] inc = new boolean[nbr];
+		final Linear[] values = new Linear[nbr];
+		System.arraycopy(thresholds, 0, t, 0, nbr);
+		System.arraycopy(inclusive, 0, inc, 0, nbr);
+		for (int i = 0; i < nbr; i++) {
+			values[i] = Linear.toLinear(cases[i][1], slot);
+		}
+		return new RangeTable(slot, ascending, t, inc, values);
+	}
+
+	/**
+	 * @return the condition if it compares a number with a constant
+	 */
+	private static FunctionExpression toComparison(IExpression condition) {
+		if (condition instanceof FunctionExpression == false) {
+			return null;
+		}
+		final FunctionExpression fe = (FunctionExpression) condition;
+		switch (fe.getFunctionName()) {
+		case "<":
+		case "<=":
+		case ">":
+		case ">=":
+			break;
+		default:
+			return null;
+		}
+		final IExpression[] args = fe.getArguments();
+		if (args[0].getValueType().getDataType() != DataType.NUMBER) {
+			return null;
+		}
+		if ((args[0] instanceof VariableExpression && args[1] instanceof LiteralExpression)
+				|| (args[1] instanceof VariableExpression && args[0] instanceof LiteralExpression)) {
+			return fe;
+		}
+		return null;
+	}
+
+	private static String flip(String op) {
+		return (op.charAt(0) == '<' ? ">" : "<") + op.substring(1);
+	}
+
+	/**
+	 * is the condition with the second threshold true whenever the one with the
+	 * first is?
+	 */
+	private static boolean follows(IValue t1, boolean inclusive1, IValue t2, boolean inclusive2, boolean ascending) {
+		final int c = Values.compare(t1, t2);
+		if (c == 0) {
+			return !inclusive1 || inclusive2;
+		}
+		return ascending ? c < 0 : c > 0;
+	}
+
+	@Override
+	public int getSlot() {
+		return this.slot;
+	}
+
+	@Override
+	public int getNbrSteps() {
+		return this.thresholds.length;
+	}
+
+	@Override
+	public int find(IValue value) {
+		// the first step whose condition is true
+		int low = 0;
+		int high = this.thresholds.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (this.isTrue(mid, value)) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low == this.thresholds.length ? NOT_FOUND : low;
+	}
+
+	private boolean isTrue(int step, IValue value) {
+		final int c = Values.compare(value, this.thresholds[step]);
+		if (c == 0) {
+			return this.inclusive[step];
+		}
+		return this.ascending ? c < 0 : c > 0;
+	}
+
+	@Override
+	public IValue getValue(int step, IValue value) {
+		final Linear linear = this.values[step];
+		return linear == null ? null : linear.apply(value);
+	}
+
+	/**
+	 * an expression of the form a * v + b, where v is a variable, and a and b are
+	 * constants. The scales of a and b are those that the same operations on
+	 * the constants of the expression result in. Hence a * v + b has the same
+	 * scale as the expression.
+	 */
+	private static final class Linear {
+		private final IValue a;
+		// null if there is no constant term
+		private final IValue b;
+
+		private Linear(BigDecimal a, BigDecimal b) {
+			this.a = Values.newValue(a);
+			this.b = b == null ? null : Values.newValue(b);
+		}
+
+		/**
+		 *
+		 * @return null if the expression is not linear in the variable, if it does
+		 *         not have the variable, or if it is just the variable
+		 */
+		static Linear toLinear(IExpression expression, int slot) {
+			if (expression instanceof VariableExpression) {
+				// as fast as it can be
+				return null;
+			}
+			final BigDecimal[] terms = reduce(expression, slot);
+			if (terms == null || terms[0] == null) {
+				return null;
+			}
+			return new Linear(terms[0], terms[1]);
+		}
+
+		/**
+		 * @return the multiplier of the variable, and the constant term. Either of
+		 *         them is null if it is absent. null if the expression is not linear
+		 */
+		private static BigDecimal[] reduce(IExpression expression, int slot) {
+			if (expression instanceof VariableExpression) {
+				if (((VariableExpression) expression).getSlot() != slot) {
+					return null;
+				}
+				return new BigDecimal[] { BigDecimal.ONE, null };
+			}
+			if (expression instanceof LiteralExpression) {
+				final IValue value = ((LiteralExpression) expression).getValue();
+				if (value.getValueType().getDataType() != DataType.NUMBER) {
+					return null;
+				}
+				return new BigDecimal[] { null, value.getNumberValue() };
+			}
+			if (expression instanceof FunctionExpression == false) {
+				return null;
+			}
+
+			final FunctionExpression fe = (FunctionExpression) expression;
+			final IExpression[] args = fe.getArguments();
+			final BigDecimal[] x = reduce(args[0], slot);
+			if (x == null) {
+				return null;
+			}
+			if (args.length == 1) {
+				if (!"unary-".equals(fe.getFunctionName())) {
+					return null;
+				}
+				return new BigDecimal[] { negate(x[0]), negate(x[1]) };
+			}
+			final BigDecimal[] y = reduce(args[1], slot);
+			if (y == null) {
+				return null;
+			}
+			switch (fe.getFunctionName()) {
+			case "+":
+				return new BigDecimal[] { add(x[0], y[0]), add(x[1], y[1]) };
+			case "-":
+				return new BigDecimal[] { add(x[0], negate(y[0])), add(x[1], negate(y[1])) };
+			case "*":
+				if (x[0] == null) {
+					return new BigDecimal[] { multiply(y[0], x[1]), multiply(y[1], x[1]) };
+				}
+				if (y[0] == null) {
+					return new BigDecimal[] { multiply(x[0], y[1]), multiply(x[1], y[1]) };
+				}
+				// v * v is not linear
+				return null;
+			default:
+				return null;
+			}
+		}
+
+		private static BigDecimal negate(BigDecimal a) {
+			return a == null ? null : a.negate();
+		}
+
+		private static BigDecimal add(BigDecimal a, BigDecimal b) {
+			if (a == null) {
+				return b;
+			}
+			return b == null ? a : a.add(b);
+		}
+
+		// a term that is absent remains so
+		private static BigDecimal multiply(BigDecimal a, BigDecimal constant) {
+			return a == null ? null : a.multiply(constant);
+		}
+
+		IValue apply(IValue value) {
+			final IValue product = Values.multiply(value, this.a);
+			return this.b == null ? product : Values.add(product, this.b);
+		}
+	}
+}
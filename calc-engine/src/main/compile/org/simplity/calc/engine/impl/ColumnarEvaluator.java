@@ -0,0 +1,905 @@
+package org.simplity.calc.engine.impl;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+
+/**
+ * Evaluates the rules of an engine for a chunk of records at a time. The values
+ * of a variable for all the records of a chunk are held in a column of
+ * primitives:
+ * <ul>
+ * <li>a number as its unscaled value in a long, along with its scale in an
+ * int</li>
+ * <li>a boolean as a boolean</li>
+ * <li>a date as its epoch day in a long</li>
+ * </ul>
+ * Every node of an expression is evaluated for the whole chunk in a tight loop
+ * over the arrays. The conditional steps of a calculator are evaluated for all
+ * the records, and their values are then selected with the conditions as masks.
+ * <p>
+ * The result for a record is always the same as that of a calculation run for
+ * that record. A record is marked to be run on its own whenever this can not be
+ * ensured in the columns:
+ * <ul>
+ * <li>a number that does not fit into a long, or an arithmetic overflow</li>
+ * <li>a validator that fails, so that the errors are reported as usual</li>
+ * <li>a missing optional input that has no rule</li>
+ * </ul>
+ *
+ * <h3>Design Note</h3> Only the rules that use literals and variables of the
+ * types NUMBER, BOOLEAN and DATE, with the built-in operators other than '/'
+ * and '%', are evaluated this way. The scale of a quotient depends on the
+ * values, and custom functions work with {@link IValue}s one record at a time.
+ * An evaluator is not built for an engine with any other rule, and such an
+ * engine runs a batch one record at a time.
+ *
+ * <h3>Thread Safety</h3> An evaluator is immutable after construction. The
+ * columns are held in a {@link Chunk}, which is to be used by one thread at a
+ * time.
+ */
+final class ColumnarEvaluator {
+	/**
+	 * number of records that are evaluated together
+	 */
+	static final int CHUNK_SIZE = 1024;
+
+	/*
+	 * variables in a topological order
+	 */
+	private final Step[] steps;
+	private final Node[] validators;
+	private final int[] outputSlots;
+	private final DataType[] outputTypes;
+	/*
+	 * for creating the chunks
+	 */
+	private final DataType[] slotTypes;
+	private final DataType[] nodeTypes;
+
+	private ColumnarEvaluator(Step[] steps, Node[] validators, int[] outputSlots, DataType[] outputTypes,
+			DataType[] slotTypes, DataType[] nodeTypes) {
+		this.steps = steps;
+		this.validators = validators;
+		this.outputSlots = outputSlots;
+		this.outputTypes = outputTypes;
+		this.slotTypes = slotTypes;
+		this.nodeTypes = nodeTypes;
+	}
+
+	/**
+	 *
+	 * @param slots      all the variables, indexed by their slots
+	 * @param inputs     input variables, in the same order as the columns of the
+	 *                   parsed values
+	 * @param outputs    output variables, in the same order as the output values
+	 * @param validators boolean expressions of the validators
+	 * @param graph      dependencies among the variables
+	 * @return null if any of the rules can not be evaluated in columns
+	 */
+	static ColumnarEvaluator newEvaluator(IVariable[] slots, IVariable[] inputs, IVariable[] outputs,
+			IExpression[] validators, DependencyGraph graph) {
+		final Builder builder = new Builder(slots, inputs, graph);
+		final int[] outputSlots = new int[outputs.length];
+		final DataType[] outputTypes = new DataType[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			outputSlots[i] = outputs[i].getSlot();
+			outputTypes[i] = outputs[i].getValueType().getDataType();
+			if (!builder.addStep(outputSlots[i])) {
+				return null;
+			}
+		}
+
+		final Node[] validatorNodes = new Node[validators.length];
+		for (int i = 0; i < validators.length; i++) {
+			for (int slot : graph.getValidatorDependencies(i)) {
+				if (!builder.addStep(slot)) {
+					return null;
+				}
+			}
+			validatorNodes[i] = builder.compile(validators[i]);
+			if (validatorNodes[i] == null) {
+				return null;
+			}
+		}
+
+		return new ColumnarEvaluator(builder.steps.toArray(new Step[0]), validatorNodes, outputSlots, outputTypes,
+				builder.slotTypes, builder.nodeTypes.toArray(new DataType[0]));
+	}
+
+	/**
+	 *
+	 * @return a chunk to evaluate the records with. To be used by one thread at a
+	 *         time, and may be re-used for any number of chunks.
+	 */
+	Chunk newChunk() {
+		return new Chunk(this.slotTypes, this.nodeTypes);
+	}
+
+	/**
+	 * evaluate the outputs for a chunk of records. The output values are set for
+	 * the records that are evaluated successfully. The others are left as null,
+	 * and they are to be run one at a time.
+	 *
+	 * @param chunk   columns for the evaluation
+	 * @param parsed  parsed values of the inputs. [i][r] is the value of the input
+	 *                i for the record r, null if it is not provided
+	 * @param from    index of the first record of this chunk
+	 * @param n       number of records in this chunk, not more than
+	 *                {@link #CHUNK_SIZE}
+	 * @param outputs output values, indexed by the record
+	 */
+	void evaluate(Chunk chunk, IValue[][] parsed, int from, int n, IValue[][] outputs) {
+		chunk.size = n;
+		final boolean[] fallback = chunk.fallback;
+		Arrays.fill(fallback, 0, n, false);
+
+		for (Step step : this.steps) {
+			step.evaluate(chunk, parsed, from);
+		}
+
+		for (Node validator : this.validators) {
+			final boolean[] ok = validator.evaluate(chunk).booleans;
+			for (int k = 0; k < n; k++) {
+				if (!ok[k]) {
+					fallback[k] = true;
+				}
+			}
+		}
+
+		for (int k = 0; k < n; k++) {
+			if (fallback[k]) {
+				continue;
+			}
+			final IValue[] row = new IValue[this.outputSlots.length];
+			for (int i = 0; i < row.length; i++) {
+				row[i] = toValue(chunk.slots[this.outputSlots[i]], this.outputTypes[i], k);
+			}
+			outputs[from + k] = row;
+		}
+	}
+
+	private static IValue toValue(Column column, DataType type, int k) {
+		switch (type) {
+		case NUMBER:
+			return Values.newValue(column.longs[k], column.scales[k]);
+		case BOOLEAN:
+			return Values.newValue(column.booleans[k]);
+		default:
+			return Values.newValue(LocalDate.ofEpochDay(column.longs[k]));
+		}
+	}
+
+	private static boolean isSupported(IValueType valueType) {
+		if (valueType == null) {
+			return false;
+		}
+		switch (valueType.getDataType()) {
+		case NUMBER:
+		case BOOLEAN:
+		case DATE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * columns of the variables and of the intermediate results for a chunk of
+	 * records
+	 */
+	static final class Chunk {
+		/*
+		 * indexed by slot. null if the variable is not evaluated
+		 */
+		final Column[] slots;
+		/*
+		 * results of the nodes, indexed by the id of the node
+		 */
+		final Column[] nodes;
+		/*
+		 * records that are to be run one at a time
+		 */
+		final boolean[] fallback = new boolean[CHUNK_SIZE];
+		int size;
+
+		Chunk(DataType[] slotTypes, DataType[] nodeTypes) {
+			this.slots = new Column[slotTypes.length];
+			for (int i = 0; i < slotTypes.length; i++) {
+				if (slotTypes[i] != null) {
+					this.slots[i] = new Column(slotTypes[i]);
+				}
+			}
+			this.nodes = new Column[nodeTypes.length];
+			for (int i = 0; i < nodeTypes.length; i++) {
+				this.nodes[i] = new Column(nodeTypes[i]);
+			}
+		}
+	}
+
+	/**
+	 * values of a variable, or of an expression, for the records of a chunk. Only
+	 * the arrays relevant for its type are allocated
+	 */
+	private static final class Column {
+		final long[] longs;
+		final int[] scales;
+		final boolean[] booleans;
+
+		Column(DataType type) {
+			this.longs = type == DataType.BOOLEAN ? null : new long[CHUNK_SIZE];
+			this.scales = type == DataType.NUMBER ? new int[CHUNK_SIZE] : null;
+			this.booleans = type == DataType.BOOLEAN ? new boolean[CHUNK_SIZE] : null;
+		}
+
+		void copyFrom(Column from, int n) {
+			if (this.longs != null) {
+				System.arraycopy(from.longs, 0, this.longs, 0, n);
+			}
+			if (this.scales != null) {
+				System.arraycopy(from.scales, 0, this.scales, 0, n);
+			}
+			if (this.booleans != null) {
+				System.arraycopy(from.booleans, 0, this.booleans, 0, n);
+			}
+		}
+
+		/**
+		 * copy the values from the other column where the mask is set
+		 */
+		void select(boolean[] mask, Column from, int n) {
+			if (this.booleans != null) {
+				final boolean[] to = this.booleans;
+				final boolean[] values = from.booleans;
+				for (int k = 0; k < n; k++) {
+					to[k] = mask[k] ? values[k] : to[k];
+				}
+				return;
+			}
+			final long[] to = this.longs;
+			final long[] values = from.longs;
+			for (int k = 0; k < n; k++) {
+				to[k] = mask[k] ? values[k] : to[k];
+			}
+			if (this.scales != null) {
+				final int[] toScales = this.scales;
+				final int[] scales = from.scales;
+				for (int k = 0; k < n; k++) {
+					toScales[k] = mask[k] ? scales[k] : toScales[k];
+				}
+			}
+		}
+	}
+
+	/**
+	 * evaluates a variable into its column
+	 */
+	private static final class Step {
+		private final int slot;
+		private final DataType type;
+		// index into the parsed values. -1 if this is not an input
+		private final int inputIdx;
+		// null if the variable has no rule, or if it is a required input
+		private final Node[] conditions;
+		private final Node[] values;
+		private final Node defaultValue;
+
+		Step(int slot, DataType type, int inputIdx, Node[] conditions, Node[] values, Node defaultValue) {
+			this.slot = slot;
+			this.type = type;
+			this.inputIdx = inputIdx;
+			this.conditions = conditions;
+			this.values = values;
+			this.defaultValue = defaultValue;
+		}
+
+		void evaluate(Chunk chunk, IValue[][] parsed, int from) {
+			final int n = chunk.size;
+			final Column column = chunk.slots[this.slot];
+			final boolean[] fallback = chunk.fallback;
+
+			if (this.defaultValue != null) {
+				/*
+				 * the first step that is true wins. Hence the steps are applied in the
+				 * reverse order over the default value
+				 */
+				column.copyFrom(this.defaultValue.evaluate(chunk), n);
+				for (int i = this.conditions.length - 1; i >= 0; i--) {
+					final boolean[] mask = this.conditions[i].evaluate(chunk).booleans;
+					column.select(mask, this.values[i].evaluate(chunk), n);
+				}
+			}
+
+			if (this.inputIdx == -1) {
+				return;
+			}
+
+			// input values override the rule
+			final IValue[] inputs = parsed[this.inputIdx];
+			for (int k = 0; k < n; k++) {
+				final IValue value = inputs[from + k];
+				if (value == null) {
+					if (this.defaultValue == null) {
+						fallback[k] = true;
+					}
+					continue;
+				}
+				switch (this.type) {
+				case NUMBER:
+					final long unscaled = Values.unscaledValue(value);
+					if (unscaled == Values.NOT_COMPACT) {
+						fallback[k] = true;
+					} else {
+						column.longs[k] = unscaled;
+						column.scales[k] = Values.scale(value);
+					}
+					break;
+				case BOOLEAN:
+					column.booleans[k] = value.getBooleanValue();
+					break;
+				default:
+					column.longs[k] = value.getDateValue().toEpochDay();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * translates the variables and expressions into steps and nodes
+	 */
+	private static final class Builder {
+		private static final int VISITING = 1;
+		private static final int DONE = 2;
+
+		private final IVariable[] variables;
+		private final DependencyGraph graph;
+		private final int[] inputIndexes;
+		private final int[] states;
+		final List<Step> steps = new ArrayList<>();
+		final DataType[] slotTypes;
+		final List<DataType> nodeTypes = new ArrayList<>();
+
+		Builder(IVariable[] variables, IVariable[] inputs, DependencyGraph graph) {
+			this.variables = variables;
+			this.graph = graph;
+			this.states = new int[variables.length];
+			this.slotTypes = new DataType[variables.length];
+			this.inputIndexes = new int[variables.length];
+			Arrays.fill(this.inputIndexes, -1);
+			for (int i = 0; i < inputs.length; i++) {
+				this.inputIndexes[inputs[i].getSlot()] = i;
+			}
+		}
+
+		/**
+		 * add the step for this variable, after the steps for the variables it
+		 * depends on
+		 *
+		 * @return false if the variable can not be evaluated in columns
+		 */
+		boolean addStep(int slot) {
+			if (this.states[slot] == DONE) {
+				return true;
+			}
+			if (this.states[slot] == VISITING) {
+				// the dry-run does not allow this. Just being defensive
+				return false;
+			}
+			this.states[slot] = VISITING;
+
+			final IVariable variable = this.variables[slot];
+			if (!isSupported(variable.getValueType())) {
+				return false;
+			}
+			for (int dep : this.graph.getDependencies(slot)) {
+				if (!this.addStep(dep)) {
+					return false;
+				}
+			}
+
+			final DataType type = variable.getValueType().getDataType();
+			final ICalculator rule = variable.getRule();
+			Node[] conditions = null;
+			Node[] values = null;
+			Node defaultValue = null;
+			if (!variable.isRequiredInput() && rule != null) {
+				if (rule instanceof ICalcSteps == false) {
+					return false;
+				}
+				final ICalcSteps calcSteps = (ICalcSteps) rule;
+				final IExpression[][] cases = calcSteps.getSteps();
+				conditions = new Node[cases.length];
+				values = new Node[cases.length];
+				for (int i = 0; i < cases.length; i++) {
+					conditions[i] = this.compile(cases[i][0]);
+					values[i] = this.compile(cases[i][1]);
+					if (conditions[i] == null || values[i] == null || values[i].type != type) {
+						return false;
+					}
+				}
+				defaultValue = this.compile(calcSteps.getDefaultExpression());
+				if (defaultValue == null || defaultValue.type != type) {
+					return false;
+				}
+			} else if (!variable.isInput()) {
+				return false;
+			}
+
+			this.steps.add(new Step(slot, type, this.inputIndexes[slot], conditions, values, defaultValue));
+			this.slotTypes[slot] = type;
+			this.states[slot] = DONE;
+			return true;
+		}
+
+		/**
+		 *
+		 * @return null if the expression can not be evaluated in columns
+		 */
+		Node compile(IExpression expression) {
+			if (!isSupported(expression.getValueType())) {
+				return null;
+			}
+			final DataType type = expression.getValueType().getDataType();
+
+			if (expression instanceof LiteralExpression) {
+				final IValue value = ((LiteralExpression) expression).getValue();
+				if (type == DataType.NUMBER && Values.unscaledValue(value) == Values.NOT_COMPACT) {
+					return null;
+				}
+				return new Literal(this.newId(type), type, value);
+			}
+
+			if (expression instanceof VariableExpression) {
+				final int slot = ((VariableExpression) expression).getSlot();
+				// variables of a rule are added before the rule is compiled
+				if (this.states[slot] != DONE) {
+					return null;
+				}
+				return new Variable(type, slot);
+			}
+
+			if (expression instanceof LogicalExpression) {
+				final LogicalExpression le = (LogicalExpression) expression;
+				final Node left = this.compile(le.getLeft());
+				final Node right = this.compile(le.getRight());
+				if (left == null || right == null) {
+					return null;
+				}
+				return new Logical(this.newId(type), le.isAnd(), left, right);
+			}
+
+			if (expression instanceof FunctionExpression) {
+				return this.compileFunction((FunctionExpression) expression, type);
+			}
+			return null;
+		}
+
+		private Node compileFunction(FunctionExpression expression, DataType type) {
+			if (!BuiltinFunctions.isBuiltin(expression.getFunction())) {
+				return null;
+			}
+			final IExpression[] arguments = expression.getArguments();
+			final Node[] args = new Node[arguments.length];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = this.compile(arguments[i]);
+				if (args[i] == null) {
+					return null;
+				}
+			}
+
+			final String name = expression.getFunctionName();
+			switch (name) {
+			case "unary-":
+				return new Negate(this.newId(type), args[0]);
+			case "!":
+				return new Not(this.newId(type), args[0]);
+			case "+":
+			case "-":
+			case "*":
+				return new Arithmetic(this.newId(type), name.charAt(0), args[0], args[1]);
+			case "=":
+			case "!=":
+			case ">":
+			case "<":
+			case ">=":
+			case "<=":
+				final int operator = Comparison.toOperator(name);
+				if (args[0].type != args[1].type
+						|| (args[0].type == DataType.BOOLEAN && operator != Comparison.EQ && operator != Comparison.NE)) {
+					// booleans can not be compared for their order
+					return null;
+				}
+				return new Comparison(this.newId(type), operator, args[0], args[1]);
+			default:
+				// division and remainder
+				return null;
+			}
+		}
+
+		private int newId(DataType type) {
+			this.nodeTypes.add(type);
+			return this.nodeTypes.size() - 1;
+		}
+	}
+
+	/**
+	 * A node of an expression that evaluates to a column
+	 */
+	private abstract static class Node {
+		final DataType type;
+
+		Node(DataType type) {
+			this.type = type;
+		}
+
+		/**
+		 *
+		 * @param chunk
+		 * @return column with the values for the records of the chunk. To be used
+		 *         before this node is evaluated again.
+		 */
+		abstract Column evaluate(Chunk chunk);
+	}
+
+	private static final class Literal extends Node {
+		private final int id;
+		private final long longValue;
+		private final int scale;
+		private final boolean booleanValue;
+
+		Literal(int id, DataType type, IValue value) {
+			super(type);
+			this.id = id;
+			switch (type) {
+			case NUMBER:
+				this.longValue = Values.unscaledValue(value);
+				this.scale = Values.scale(value);
+				this.booleanValue = false;
+				break;
+			case BOOLEAN:
+				this.longValue = 0;
+				this.scale = 0;
+				this.booleanValue = value.getBooleanValue();
+				break;
+			default:
+				this.longValue = value.getDateValue().toEpochDay();
+				this.scale = 0;
+				this.booleanValue = false;
+				break;
+			}
+		}
+
+		@Override
+		Column evaluate(Chunk chunk) {
+			final Column column = chunk.nodes[this.id];
+			final int n = chunk.size;
+			if (column.booleans != null) {
+				Arrays.fill(column.booleans, 0, n, this.booleanValue);
+				return column;
+			}
+			Arrays.fill(column.longs, 0, n, this.longValue);
+			if (column.scales != null) {
+				Arrays.fill(column.scales, 0, n, this.scale);
+			}
+			return column;
+		}
+	}
+
+	private static final class Variable extends Node {
+		private final int slot;
+
+		Variable(DataType type, int slot) {
+			super(type);
+			this.slot = slot;
+		}
+
+		@Override
+		Column evaluate(Chunk chunk) {
+			return chunk.slots[this.slot];
+		}
+	}
+
+	private static final class Negate extends Node {
+		private final int id;
+		private final Node operand;
+
+		Negate(int id, Node operand) {
+			super(DataType.NUMBER);
+			this.id = id;
+			this.operand = operand;
+		}
+
+		@Override
+		Column evaluate(Chunk chunk) {
+			final Column x = this.operand.evaluate(chunk);
+			final Column r = chunk.nodes[this.id];
+			final int n = chunk.size;
+			final long[] a = x.longs;
+			final long[] result = r.longs;
+			final boolean[] fallback = chunk.fallback;
+			for (int k = 0; k < n; k++) {
+				final long u = a[k];
+				if (u == Long.MIN_VALUE) {
+					fallback[k] = true;
+				}
+				result[k] = -u;
+			}
+			System.arraycopy(x.scales, 0, r.scales, 0, n);
+			return r;
+		}
+	}
+
+	/**
+	 * +, - and *. The results, including their scales, are the same as that of
+	 * the corresponding operations on {@link Values}. A result that is not
+	 * compact is marked as an overflow.
+	 */
+	private static final class Arithmetic extends Node {
+		private final int id;
+		private final char operator;
+		private final Node left;
+		private final Node right;
+
+		Arithmetic(int id, char operator, Node left, Node right) {
+			super(DataType.NUMBER);
+			this.id = id;
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Column evaluate(Chunk chunk) {
+			final Column x = this.left.evaluate(chunk);
+			final Column y = this.right.evaluate(chunk);
+			final Column r = chunk.nodes[this.id];
+			if (this.operator == '*') {
+				multiply(x, y, r, chunk.size, chunk.fallback);
+			} else {
+				add(x, y, this.operator == '-', r, chunk.size, chunk.fallback);
+			}
+			return r;
+		}
+
+		private static void add(Column x, Column y, boolean subtract, Column r, int n, boolean[] fallback) {
+			final long[] a = x.longs;
+			final long[] b = y.longs;
+			final int[] sa = x.scales;
+			final int[] sb = y.scales;
+			final long[] result = r.longs;
+			final int[] scales = r.scales;
+			for (int k = 0; k < n; k++) {
+				long u = a[k];
+				long v = subtract ? -b[k] : b[k];
+				int scale = sa[k];
+				if (scale != sb[k] || v == Long.MIN_VALUE) {
+					try {
+						if (scale < sb[k]) {
+							u = Values.rescale(u, sb[k] - scale);
+							scale = sb[k];
+						} else if (scale > sb[k]) {
+							v = Values.rescale(v, scale - sb[k]);
+						}
+					} catch (ArithmeticException e) {
+						fallback[k] = true;
+						continue;
+					}
+					if (v == Long.MIN_VALUE) {
+						fallback[k] = true;
+						continue;
+					}
+				}
+				final long sum = u + v;
+				if (((u ^ sum) & (v ^ sum)) < 0 || sum == Long.MIN_VALUE) {
+					fallback[k] = true;
+				}
+				result[k] = sum;
+				scales[k] = scale;
+			}
+		}
+
+		private static void multiply(Column x, Column y, Column r, int n, boolean[] fallback) {
+			final long[] a = x.longs;
+			final long[] b = y.longs;
+			final int[] sa = x.scales;
+			final int[] sb = y.scales;
+			final long[] result = r.longs;
+			final int[] scales = r.scales;
+			for (int k = 0; k < n; k++) {
+				final long u = a[k];
+				final long v = b[k];
+				final long product = u * v;
+				// as in Math.multiplyExact()
+				if (((Math.abs(u) | Math.abs(v)) >>> 31 != 0)
+						&& ((v != 0 && product / v != u) || (u == Long.MIN_VALUE && v == -1))) {
+					fallback[k] = true;
+				} else if (product == Long.MIN_VALUE) {
+					fallback[k] = true;
+				}
+				result[k] = product;
+				scales[k] = sa[k] + sb[k];
+			}
+		}
+	}
+
+	private static final class Not extends Node {
+		private final int id;
+		private final Node operand;
+
+		Not(int id, Node operand) {
+			super(DataType.BOOLEAN);
+			this.id = id;
+			this.operand = operand;
+		}
+
+		@Override
+		Column evaluate(Chunk chunk) {
+			final boolean[] a = this.operand.evaluate(chunk).booleans;
+			final Column r = chunk.nodes[this.id];
+			final boolean[] result = r.booleans;
+			final int n = chunk.size;
+			for (int k = 0; k < n; k++) {
+				result[k] = !a[k];
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * '&amp;' and '|'. Both the operands are evaluated for all the records, as they
+	 * are free of side effects.
+	 */
+	private static final class Logical extends Node {
+		private final int id;
+		private final boolean isAnd;
+		private final Node left;
+		private final Node right;
+
+		Logical(int id, boolean isAnd, Node left, Node right) {
+			super(DataType.BOOLEAN);
+			this.id = id;
+			this.isAnd = isAnd;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Column evaluate(Chunk chunk) {
+			final boolean[] a = this.left.evaluate(chunk).booleans;
+			final boolean[] b = this.right.evaluate(chunk).booleans;
+			final Column r = chunk.nodes[this.id];
+			final boolean[] result = r.booleans;
+			final int n = chunk.size;
+			if (this.isAnd) {
+				for (int k = 0; k < n; k++) {
+					result[k] = a[k] & b[k];
+				}
+			} else {
+				for (int k = 0; k < n; k++) {
+					result[k] = a[k] | b[k];
+				}
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * equality, as per {@link IValue#equals(Object)}, and the relational
+	 * operators
+	 */
+	private static final class Comparison extends Node {
+		static final int EQ = 0;
+		static final int NE = 1;
+		static final int GT = 2;
+		static final int LT = 3;
+		static final int GE = 4;
+		static final int LE = 5;
+
+		private final int id;
+		private final int operator;
+		private final Node left;
+		private final Node right;
+
+		static int toOperator(String name) {
+			switch (name) {
+			case "=":
+				return EQ;
+			case "!=":
+				return NE;
+			case ">":
+				return GT;
+			case "<":
+				return LT;
+			case ">=":
+				return GE;
+			default:
+				return LE;
+			}
+		}
+
+		Comparison(int id, int operator, Node left, Node right) {
+			super(DataType.BOOLEAN);
+			this.id = id;
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Column evaluate(Chunk chunk) {
+			final Column x = this.left.evaluate(chunk);
+			final Column y = this.right.evaluate(chunk);
+			final Column r = chunk.nodes[this.id];
+			final boolean[] result = r.booleans;
+			final int n = chunk.size;
+
+			if (x.booleans != null) {
+				final boolean[] a = x.booleans;
+				final boolean[] b = y.booleans;
+				for (int k = 0; k < n; k++) {
+					result[k] = this.isTrue(Boolean.compare(a[k], b[k]));
+				}
+				return r;
+			}
+
+			final long[] a = x.longs;
+			final long[] b = y.longs;
+			if (x.scales == null) {
+				// dates
+				for (int k = 0; k < n; k++) {
+					result[k] = this.isTrue(Long.compare(a[k], b[k]));
+				}
+				return r;
+			}
+
+			final int[] sa = x.scales;
+			final int[] sb = y.scales;
+			final boolean isEquality = this.operator == EQ || this.operator == NE;
+			final boolean[] fallback = chunk.fallback;
+			for (int k = 0; k < n; k++) {
+				if (sa[k] == sb[k]) {
+					result[k] = this.isTrue(Long.compare(a[k], b[k]));
+					continue;
+				}
+				if (isEquality) {
+					// numbers with different scales are not equal, as per IValue.equals()
+					result[k] = this.operator == NE;
+					continue;
+				}
+				try {
+					if (sa[k] < sb[k]) {
+						result[k] = this.isTrue(Long.compare(Values.rescale(a[k], sb[k] - sa[k]), b[k]));
+					} else {
+						result[k] = this.isTrue(Long.compare(a[k], Values.rescale(b[k], sa[k] - sb[k])));
+					}
+				} catch (ArithmeticException e) {
+					fallback[k] = true;
+				}
+			}
+			return r;
+		}
+
+		private boolean isTrue(int result) {
+			switch (this.operator) {
+			case EQ:
+				return result == 0;
+			case NE:
+				return result != 0;
+			case GT:
+				return result > 0;
+			case LT:
+				return result < 0;
+			case GE:
+				return result >= 0;
+			default:
+				return result <= 0;
+			}
+		}
+	}
+}
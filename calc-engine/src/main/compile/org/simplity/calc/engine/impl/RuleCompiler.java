@@ -0,0 +1,541 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+
+/**
+ * Compiles the interpreted {@link IExpression} trees of calculators and
+ * validators into trees of specialized nodes.
+ *
+ * <h3>Design Note</h3> This is not a code generator. A compiled rule is still
+ * a tree that is walked at run time, with a virtual call for every node, just
+ * as the interpreted one is. What differs is the work done at each node. An
+ * interpreted expression evaluates every operator through the generic
+ * {@link ICalcFunction} methods, and every intermediate result, including a
+ * boolean, is wrapped into an {@link IValue}. A compiled node, on the other
+ * hand, is resolved for its operator and operand types at build time:
+ * <ul>
+ * <li>built-in operators are implemented by dedicated node classes that call
+ * the same operations of {@link Values} that the built-in functions call, but
+ * without going through the function</li>
+ * <li>conditions evaluate to primitive booleans, so that the intermediate
+ * results of comparisons and of logical operators are not wrapped</li>
+ * </ul>
+ * Custom functions are called through their {@link ICalcFunction} as usual.
+ * The compiled components delegate the dry-run to the interpreted ones they are
+ * compiled from.
+ * <p>
+ * The gain is modest. On JDK 17, over a chain of a hundred rules that are heavy
+ * on arithmetic, comparisons and '&amp;', a run of the compiled engine took
+ * about 12% less time than that of the interpreted one (25 against 29
+ * microseconds). The time of a run is mostly in the arithmetic itself, which is
+ * the same for both. See <code>CalcEngineTest.benchmarkCompiledRules()</code>
+ * to repeat the measurement, and <code>CalcEngineTest.testCompiledRules()</code>
+ * for the check that the two produce the same results.
+ */
+final class RuleCompiler {
+
+	/**
+	 * compile a calculator.
+	 *
+	 * @param interpreted       the interpreted calculator
+	 * @param cases             [][0] is the condition, and [][1] the value
+	 *                          expression. Empty array if there are no
+	 *                          conditional steps
+	 * @param defaultExpression
+	 * @return compiled calculator
+	 */
+	ICalculator compileCalculator(ICalculator interpreted, IExpression[][] cases, IExpression defaultExpression) {
+		final int n = cases.length;
+		Node[] conditions = new Node[n];
+		Node[] values = new Node[n];
+		for (int i = 0; i < n; i++) {
+			conditions[i] = this.compile(cases[i][0]);
+			values[i] = this.compile(cases[i][1]);
+		}
+		return new CompiledCalculator(interpreted, cases, defaultExpression, conditions, values,
+				this.compile(defaultExpression));
+	}
+
+	/**
+	 * compile a validator
+	 *
+	 * @param interpreted the interpreted validator
+	 * @param shouldBe    boolean expression the validator checks for
+	 * @param messageId
+	 * @return compiled validator
+	 */
+	IValidator compileValidator(IValidator interpreted, IExpression shouldBe, String messageId) {
+		return new CompiledValidator(interpreted, this.compile(shouldBe), messageId);
+	}
+
+	private Node compile(IExpression expression) {
+		if (expression instanceof LiteralExpression) {
+			return new Literal(((LiteralExpression) expression).getValue());
+		}
+
+		if (expression instanceof VariableExpression) {
+			return new Variable(((VariableExpression) expression).getSlot());
+		}
+
+		if (expression instanceof LogicalExpression) {
+			LogicalExpression le = (LogicalExpression) expression;
+			Node left = this.compile(le.getLeft());
+			Node right = this.compile(le.getRight());
+			if (le.isAnd()) {
+				return new And(left, right);
+			}
+			return new Or(left, right);
+		}
+
+		if (expression instanceof FunctionExpression) {
+			return this.compileFunction((FunctionExpression) expression);
+		}
+
+		/*
+		 * an expression that we do not know to compile. Let it be interpreted
+		 */
+		return new Interpreted(expression);
+	}
+
+	private Node compileFunction(FunctionExpression expression) {
+		if (expression.getFunction() instanceof ILazyFunction) {
+			// it evaluates its own arguments
+			return new Interpreted(expression);
+		}
+
+		final IExpression[] arguments = expression.getArguments();
+		final Node[] args = new Node[arguments.length];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = this.compile(arguments[i]);
+		}
+
+		switch (expression.getFunctionName()) {
+		case "unary-":
+			return new Negate(args[0]);
+		case "!":
+			return new Not(args[0]);
+		case "+":
+			return new Add(args[0], args[1]);
+		case "-":
+			return new Subtract(args[0], args[1]);
+		case "*":
+			return new Multiply(args[0], args[1]);
+		case "/":
+			return new Divide(args[0], args[1]);
+		case "%":
+			return new Remainder(args[0], args[1]);
+		case "=":
+			return new Equals(args[0], args[1], false);
+		case "!=":
+			return new Equals(args[0], args[1], true);
+		case ">":
+		case "<":
+		case ">=":
+		case "<=":
+			final Comparison comparison = Comparison.of(expression.getFunctionName());
+			if (isNumber(arguments[0])) {
+				return new NumberCompare(args[0], args[1], comparison);
+			}
+			return new Compare(args[0], args[1], comparison);
+		default:
+			return new Call(expression.getFunction(), args);
+		}
+	}
+
+	private static boolean isNumber(IExpression expression) {
+		IValueType type = expression.getValueType();
+		return type != null && type.getDataType() == DataType.NUMBER;
+	}
+
+	/**
+	 * the calculator compiled into nodes
+	 */
+	private static final class CompiledCalculator implements ICalculator, ICalcSteps {
+		private final ICalculator interpreted;
+		private final IExpression[][] steps;
+		private final IExpression defaultExpression;
+		private final Node[] conditions;
+		private final Node[] values;
+		private final Node defaultValue;
+		// null if the leading steps do not test a variable against constants
+		private final IStepIndex index;
+
+		protected CompiledCalculator(ICalculator interpreted, IExpression[][] steps, IExpression defaultExpression,
+				Node[] conditions, Node[] values, Node defaultValue) {
+			this.interpreted = interpreted;
+			this.steps = steps;
+			this.defaultExpression = defaultExpression;
+			this.conditions = conditions;
+			this.values = values;
+			this.defaultValue = defaultValue;
+			this.index = IStepIndex.newIndex(steps);
+		}
+
+		@Override
+		public IValue calculate(IEvaluationContext ctx) {
+			int from = 0;
+			if (this.index != null) {
+				final IValue value = ctx.determineValue(this.index.getSlot());
+				if (value == null) {
+					return null;
+				}
+				final int idx = this.index.find(value);
+				if (idx != IStepIndex.NOT_FOUND) {
+					final IValue result = this.index.getValue(idx, value);
+					return result != null ? result : this.values[idx].value(ctx);
+				}
+				from = this.index.getNbrSteps();
+			}
+			for (int i = from; i < this.conditions.length; i++) {
+				if (this.conditions[i].test(ctx)) {
+					return this.values[i].value(ctx);
+				}
+			}
+			return this.defaultValue.value(ctx);
+		}
+
+		@Override
+		public IValueType getValueType() {
+			return this.interpreted.getValueType();
+		}
+
+		@Override
+		public boolean dryrun(DryrunContext ctx) {
+			return this.interpreted.dryrun(ctx);
+		}
+
+		@Override
+		public IExpression[][] getSteps() {
+			return this.steps;
+		}
+
+		@Override
+		public IExpression getDefaultExpression() {
+			return this.defaultExpression;
+		}
+	}
+
+	/**
+	 * the validator compiled into a node
+	 */
+	private static final class CompiledValidator implements IValidator {
+		private final IValidator interpreted;
+		private final Node shouldBe;
+		private final String messageId;
+
+		protected CompiledValidator(IValidator interpreted, Node shouldBe, String messageId) {
+			this.interpreted = interpreted;
+			this.shouldBe = shouldBe;
+			this.messageId = messageId;
+		}
+
+		@Override
+		public boolean validate(IEvaluationContext ctx) {
+			if (this.shouldBe.test(ctx)) {
+				return true;
+			}
+			ctx.logError("validation", this.messageId);
+			return false;
+		}
+
+		@Override
+		public boolean dryrun(DryrunContext ctx) {
+			return this.interpreted.dryrun(ctx);
+		}
+	}
+
+	/**
+	 * A node in a compiled tree. A node evaluates to an {@link IValue}. Nodes
+	 * that produce a boolean override the specific method to provide the result
+	 * without wrapping it.
+	 */
+	private abstract static class Node {
+		abstract IValue value(IEvaluationContext ctx);
+
+		boolean test(IEvaluationContext ctx) {
+			return this.value(ctx).getBooleanValue();
+		}
+	}
+
+	private abstract static class BooleanNode extends Node {
+		@Override
+		final IValue value(IEvaluationContext ctx) {
+			return Values.newValue(this.test(ctx));
+		}
+
+		@Override
+		abstract boolean test(IEvaluationContext ctx);
+	}
+
+	private abstract static class BinaryNumberNode extends Node {
+		protected final Node left;
+		protected final Node right;
+
+		protected BinaryNumberNode(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	private abstract static class BinaryBooleanNode extends BooleanNode {
+		protected final Node left;
+		protected final Node right;
+
+		protected BinaryBooleanNode(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	private static final class Literal extends Node {
+		private final IValue value;
+
+		protected Literal(IValue value) {
+			this.value = value;
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return this.value;
+		}
+	}
+
+	private static final class Variable extends Node {
+		private final int slot;
+
+		protected Variable(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return ctx.determineValue(this.slot);
+		}
+	}
+
+	private static final class Interpreted extends Node {
+		private final IExpression expression;
+
+		protected Interpreted(IExpression expression) {
+			this.expression = expression;
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return this.expression.evaluate(ctx);
+		}
+	}
+
+	private static final class Call extends Node {
+		private final ICalcFunction function;
+		private final Node[] args;
+
+		protected Call(ICalcFunction function, Node[] args) {
+			this.function = function;
+			this.args = args;
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			switch (this.args.length) {
+			case 1:
+				return this.function.call1(this.args[0].value(ctx), ctx);
+			case 2:
+				final IValue value1 = this.args[0].value(ctx);
+				return this.function.call2(value1, this.args[1].value(ctx), ctx);
+			case 3:
+				final IValue first = this.args[0].value(ctx);
+				final IValue second = this.args[1].value(ctx);
+				return this.function.call3(first, second, this.args[2].value(ctx), ctx);
+			default:
+				break;
+			}
+			final IValue[] values = new IValue[this.args.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = this.args[i].value(ctx);
+			}
+			return this.function.call(values, ctx);
+		}
+	}
+
+	private static final class Negate extends Node {
+		private final Node operand;
+
+		protected Negate(Node operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return Values.negate(this.operand.value(ctx));
+		}
+	}
+
+	private static final class Add extends BinaryNumberNode {
+		protected Add(Node left, Node right) {
+			super(left, right);
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return Values.add(this.left.value(ctx), this.right.value(ctx));
+		}
+	}
+
+	private static final class Subtract extends BinaryNumberNode {
+		protected Subtract(Node left, Node right) {
+			super(left, right);
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return Values.subtract(this.left.value(ctx), this.right.value(ctx));
+		}
+	}
+
+	private static final class Multiply extends BinaryNumberNode {
+		protected Multiply(Node left, Node right) {
+			super(left, right);
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return Values.multiply(this.left.value(ctx), this.right.value(ctx));
+		}
+	}
+
+	private static final class Divide extends BinaryNumberNode {
+		protected Divide(Node left, Node right) {
+			super(left, right);
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return Values.divide(this.left.value(ctx), this.right.value(ctx));
+		}
+	}
+
+	private static final class Remainder extends BinaryNumberNode {
+		protected Remainder(Node left, Node right) {
+			super(left, right);
+		}
+
+		@Override
+		IValue value(IEvaluationContext ctx) {
+			return Values.remainder(this.left.value(ctx), this.right.value(ctx));
+		}
+	}
+
+	private static final class Not extends BooleanNode {
+		private final Node operand;
+
+		protected Not(Node operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		boolean test(IEvaluationContext ctx) {
+			return !this.operand.test(ctx);
+		}
+	}
+
+	private static final class And extends BinaryBooleanNode {
+		protected And(Node left, Node right) {
+			super(left, right);
+		}
+
+		@Override
+		boolean test(IEvaluationContext ctx) {
+			return this.left.test(ctx) && this.right.test(ctx);
+		}
+	}
+
+	private static final class Or extends BinaryBooleanNode {
+		protected Or(Node left, Node right) {
+			super(left, right);
+		}
+
+		@Override
+		boolean test(IEvaluationContext ctx) {
+			return this.left.test(ctx) || this.right.test(ctx);
+		}
+	}
+
+	/**
+	 * equality as per {@link IValue#equals(Object)}
+	 */
+	private static final class Equals extends BinaryBooleanNode {
+		private final boolean negate;
+
+		protected Equals(Node left, Node right, boolean negate) {
+			super(left, right);
+			this.negate = negate;
+		}
+
+		@Override
+		boolean test(IEvaluationContext ctx) {
+			return this.left.value(ctx).equals(this.right.value(ctx)) != this.negate;
+		}
+	}
+
+	private enum Comparison {
+		GT, LT, GTE, LTE;
+
+		static Comparison of(String op) {
+			switch (op) {
+			case ">":
+				return GT;
+			case "<":
+				return LT;
+			case ">=":
+				return GTE;
+			default:
+				return LTE;
+			}
+		}
+
+		boolean isTrue(int result) {
+			switch (this) {
+			case GT:
+				return result > 0;
+			case LT:
+				return result < 0;
+			case GTE:
+				return result >= 0;
+			default:
+				return result <= 0;
+			}
+		}
+	}
+
+	private static final class Compare extends BinaryBooleanNode {
+		private final Comparison comparison;
+
+		protected Compare(Node left, Node right, Comparison comparison) {
+			super(left, right);
+			this.comparison = comparison;
+		}
+
+		@Override
+		boolean test(IEvaluationContext ctx) {
+			return this.comparison.isTrue(this.left.value(ctx).compareTo(this.right.value(ctx)));
+		}
+	}
+
+	private static final class NumberCompare extends BinaryBooleanNode {
+		private final Comparison comparison;
+
+		protected NumberCompare(Node left, Node right, Comparison comparison) {
+			super(left, right);
+			this.comparison = comparison;
+		}
+
+		@Override
+		boolean test(IEvaluationContext ctx) {
+			return this.comparison.isTrue(Values.compare(this.left.value(ctx), this.right.value(ctx)));
+		}
+	}
+}
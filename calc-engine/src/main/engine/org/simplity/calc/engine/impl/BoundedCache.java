@@ -0,0 +1,153 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.simplity.calc.engine.api.CacheStatsDS;
+
+/**
+ * A cache with a maximum size, and an optional expiry, that keeps the
+ * statistics of its use.
+ * <p>
+ * The cache is divided into segments by the hash of the key, each with its own
+ * lock, and the least recently used value of a segment is evicted when the
+ * segment is full. This keeps the contention low, at the cost of the eviction
+ * being only approximately in the order of use across the cache.
+ *
+ * <h3>Thread Safety</h3> This class is thread-safe.
+ *
+ * @param <K> key, with a well distributed hash code
+ * @param <V> value
+ */
+final class BoundedCache<K, V> {
+	private static final int NBR_SEGMENTS = 16;
+
+	// 0 if the values do not expire
+	private final long ttlNanos;
+	private final Segment[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+
+	/**
+	 *
+	 * @param maxSize   maximum number of values to be cached. It is rounded up to
+	 *                  a multiple of the number of segments
+	 * @param ttlMillis milliseconds after which a value expires. 0 if it does not
+	 *                  expire.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	BoundedCache(int maxSize, long ttlMillis) {
+		this.ttlNanos = ttlMillis * 1_000_000L;
+		this.segments = new BoundedCache.Segment[NBR_SEGMENTS];
+		final int segmentSize = Math.max(1, (maxSize + NBR_SEGMENTS - 1) / NBR_SEGMENTS);
+		for (int i = 0; i < NBR_SEGMENTS; i++) {
+			this.segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 *
+	 * @param key non-null key
+	 * @return cached value, or null if it is not in the cache, or it has expired
+	 */
+	V get(K key) {
+		final Segment segment = this.getSegment(key);
+		synchronized (segment) {
+			final Entry<V> entry = segment.get(key);
+			if (entry != null) {
+				if (this.ttlNanos == 0 || System.nanoTime() - entry.createdAt < this.ttlNanos) {
+					this.hits.increment();
+					return entry.value;
+				}
+				segment.remove(key);
+				this.expired.increment();
+			}
+		}
+		this.misses.increment();
+		return null;
+	}
+
+	/**
+	 *
+	 * @param key   non-null key. Must not be modified once it is cached.
+	 * @param value non-null value
+	 */
+	void put(K key, V value) {
+		final Entry<V> entry = new Entry<>(value, this.ttlNanos == 0 ? 0 : System.nanoTime());
+		final Segment segment = this.getSegment(key);
+		synchronized (segment) {
+			segment.put(key, entry);
+		}
+	}
+
+	/**
+	 * remove all the values. The statistics are retained.
+	 */
+	void clear() {
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return a snapshot of the statistics
+	 */
+	CacheStatsDS getStats() {
+		final CacheStatsDS stats = new CacheStatsDS();
+		stats.hits = this.hits.sum();
+		stats.misses = this.misses.sum();
+		stats.expired = this.expired.sum();
+		stats.evicted = this.evicted.sum();
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				stats.size += segment.size();
+			}
+		}
+		return stats;
+	}
+
+	private Segment getSegment(K key) {
+		final int hash = key.hashCode();
+		return this.segments[(hash ^ (hash >>> 16)) & (NBR_SEGMENTS - 1)];
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		// System.nanoTime() when it was cached. 0 if it does not expire
+		final long createdAt;
+
+		Entry(V value, long createdAt) {
+			this.value = value;
+			this.createdAt = createdAt;
+		}
+	}
+
+	/**
+	 * a part of the cache, in the order of access. Guarded by its own monitor
+	 */
+	private final class Segment extends LinkedHashMap<K, Entry<V>> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+			if (this.size() > this.maxSize) {
+				BoundedCache.this.evicted.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
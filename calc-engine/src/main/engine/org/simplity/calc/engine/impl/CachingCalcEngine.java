@@ -0,0 +1,155 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.simplity.calc.engine.api.CacheStatsDS;
+import org.simplity.calc.engine.api.CalcBatchResultDS;
+import org.simplity.calc.engine.api.CalcResultDS;
+import org.simplity.calc.engine.api.ICalcEngine;
+import org.simplity.calc.engine.api.ICalcState;
+
+/**
+ * An engine that caches the results of another engine, so that a calculation
+ * that is repeated with the same inputs is not run again.
+ * <p>
+ * The key is the text value of each of the declared inputs, in a fixed order,
+ * after trimming it as the parser would. An empty value is the same as a
+ * missing one. Any other entries in the inputs are ignored. Only the successful
+ * results are cached, as a failure may be due to an internal error that is not
+ * repeated on a retry. A cached result is shared by all the callers that get it,
+ * and hence it must not be modified. Its outputs are cached as an unmodifiable
+ * map.
+ * <p>
+ * Only {@link #calculate(Map)} and {@link #calculate(Map, Set)} use the cache.
+ * The other methods are passed on to the engine.
+ *
+ * <h3>Thread Safety</h3> This class is thread-safe.
+ */
+final class CachingCalcEngine implements ICalcEngine {
+	private final ICalcEngine engine;
+	// names of the declared inputs, in the order of their values in the key
+	private final String[] inputNames;
+	private final BoundedCache<Key, CalcResultDS> cache;
+
+	/**
+	 *
+	 * @param engine     engine whose results are to be cached
+	 * @param inputNames names of the input variables of the engine
+	 * @param maxSize    maximum number of results to be cached
+	 * @param ttlMillis  milliseconds after which a result expires. 0 if it does
+	 *                   not expire.
+	 */
+	CachingCalcEngine(ICalcEngine engine, String[] inputNames, int maxSize, long ttlMillis) {
+		this.engine = engine;
+		this.inputNames = inputNames;
+		this.cache = new BoundedCache<>(maxSize, ttlMillis);
+	}
+
+	@Override
+	public CalcResultDS calculate(Map<String, String> inputs) {
+		return this.calculate(inputs, null, false);
+	}
+
+	@Override
+	public CalcResultDS calculate(Map<String, String> inputs, Set<String> requestedOutputs) {
+		return this.calculate(inputs, requestedOutputs, true);
+	}
+
+	private CalcResultDS calculate(Map<String, String> inputs, Set<String> requestedOutputs, boolean projected) {
+		final Key key = this.toKey(inputs, requestedOutputs);
+		CalcResultDS result = this.cache.get(key);
+		if (result != null) {
+			return result;
+		}
+
+		result = projected ? this.engine.calculate(inputs, requestedOutputs) : this.engine.calculate(inputs);
+		if (result.allOk) {
+			result.outputs = Collections.unmodifiableMap(result.outputs);
+			this.cache.put(requestedOutputs == null ? key
+					: new Key(key.values, Collections.unmodifiableSet(new HashSet<>(requestedOutputs)), key.hash),
+					result);
+		}
+		return result;
+	}
+
+	private Key toKey(Map<String, String> inputs, Set<String> requestedOutputs) {
+		final String[] values = new String[this.inputNames.length];
+		for (int i = 0; i < values.length; i++) {
+			final String value = inputs.get(this.inputNames[i]);
+			if (value != null && !value.isEmpty()) {
+				values[i] = value.trim();
+			}
+		}
+		return new Key(values, requestedOutputs, 31 * Arrays.hashCode(values) + Objects.hashCode(requestedOutputs));
+	}
+
+	@Override
+	public CalcBatchResultDS calculateBatch(List<Map<String, String>> inputs) {
+		return this.engine.calculateBatch(inputs);
+	}
+
+	@Override
+	public ICalcState calculateWithState(Map<String, String> inputs) {
+		return this.engine.calculateWithState(inputs);
+	}
+
+	@Override
+	public ICalcState recalculate(ICalcState previous, Map<String, String> changedInputs) {
+		return this.engine.recalculate(previous, changedInputs);
+	}
+
+	@Override
+	public CacheStatsDS getCacheStats() {
+		return this.cache.getStats();
+	}
+
+	@Override
+	public Map<String, CacheStatsDS> getFunctionCacheStats() {
+		return this.engine.getFunctionCacheStats();
+	}
+
+	@Override
+	public void shutdown() {
+		this.cache.clear();
+		this.engine.shutdown();
+	}
+
+	/**
+	 * values of the declared inputs, and the requested outputs, if any
+	 */
+	private static final class Key {
+		final String[] values;
+		final Set<String> outputs;
+		final int hash;
+
+		Key(String[] values, Set<String> outputs, int hash) {
+			this.values = values;
+			this.outputs = outputs;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (obj instanceof Key == false) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return this.hash == other.hash && Arrays.equals(this.values, other.values)
+					&& Objects.equals(this.outputs, other.outputs);
+		}
+	}
+}
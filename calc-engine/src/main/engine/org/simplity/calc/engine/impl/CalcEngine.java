@@ -1,61 +1,353 @@
 package org.simplity.calc.engine.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+import org.simplity.calc.engine.api.CacheStatsDS;
+import org.simplity.calc.engine.api.CalcBatchResultDS;
 import org.simplity.calc.engine.api.CalcErrorDS;
 import org.simplity.calc.engine.api.CalcResultDS;
-import org.simplity.calc.engine.api.ICalcContext;
 import org.simplity.calc.engine.api.ICalcEngine;
+import org.simplity.calc.engine.api.ICalcState;
 import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.config.EngineOptionsDS;
 
 /**
  * The concrete implementation of the calculation engine.
+ * <p>
+ * The engine is built with a static evaluation plan: variables in a
+ * topological order of the dependency graph, as determined by the dry-run at
+ * build time. A calculation run is a flat loop over this plan, and every
+ * variable is guaranteed to find the values of its dependencies ready in the
+ * context. Variables that are required only under some conditions, like the
+ * ones referred to by the right operand of '&amp;' or by a conditional
+ * calculation step, are not part of the plan. They are evaluated on demand.
+ * <p>
+ * Optionally, the independent parts of the plan are evaluated concurrently,
+ * each with its own copy of the context. See {@link ParallelPlan}. And the
+ * values of the variables that depend only on a few boolean and enumerated
+ * inputs are remembered across runs. See {@link SubgraphMemo}. And the rules
+ * that need not be run, when only some of the optional inputs are provided, are
+ * remembered for each such set of inputs. See {@link PresencePlans}.
  */
 class CalcEngine implements ICalcEngine {
 	protected static final CalcErrorDS[] ARR = {};
+	private static final String INTERNAL_ERROR = "Calculation Engine encountered an internal error. "
+			+ "Our support team is looking at it. Please retry after some time";
+	/*
+	 * distinct sets of requested outputs that are cached. Any more are projected
+	 * afresh for every request
+	 */
+	private static final int MAX_PROJECTIONS = 256;
 
 	protected final Map<String, IVariable> variables;
-	private final String[] inputs;
-	private final String[] outputs;
+	/*
+	 * variables indexed by their slots
+	 */
+	protected final IVariable[] slots;
+	private final IVariable[] inputs;
 	private final IValidator[] validators;
+	/*
+	 * variables to be evaluated before the validators, in that order
+	 */
+	private final IVariable[] validatorPlan;
+	/*
+	 * variables to be evaluated after the validators, in that order
+	 */
+	private final IVariable[] outputPlan;
+	protected final DependencyGraph graph;
+	// null if a batch can not be evaluated in columns
+	protected final ColumnarEvaluator columnar;
+	// null unless the parts are to be evaluated concurrently
+	protected final ParallelPlan parallelPlan;
+	private final boolean skipUnrelatedValidators;
+	// pure custom functions whose results are cached
+	private final Map<String, MemoizedFunction> memoizedFunctions;
+	// memoized values of variables, indexed by their slots. null if none
+	protected final SubgraphMemo[] memos;
+	// rules to be run by the optional inputs that are provided. null if not used
+	protected final PresencePlans presencePlans;
+	// a context per thread that is reused across runs. null if not to be pooled
+	private final ThreadLocal<CalcContext> pooledContexts;
 	// shared by the context
 	protected final Map<String, String> messages;
 
+	/*
+	 * to calculate all the outputs
+	 */
+	private final Projection fullProjection;
+	/*
+	 * projections for the distinct sets of requested outputs
+	 */
+	private final Map<Set<String>, Projection> projections = new ConcurrentHashMap<>();
+
 	/**
 	 *
 	 * @param variables
-	 * @param functions
-	 * @param outputNames
+	 * @param validators
+	 * @param messages
+	 * @param inputs
+	 * @param outputs
+	 * @param validatorPlan     variables required by the validators, in a
+	 *                          topological order
+	 * @param outputPlan        remaining variables required by the outputs, in a
+	 *                          topological order
+	 * @param graph             dependencies among the variables and validators
+	 * @param columnar          to evaluate a batch in columns. null if the batch
+	 *                          is to be run one record at a time
+	 * @param memoizedFunctions pure custom functions whose results are cached, by
+	 *                          their names
+	 * @param memos             memoized values of the variables, indexed by their
+	 *                          slots. null if none of them is memoized
+	 * @param presencePlans     rules to be run by the optional inputs that are
+	 *                          provided. null if all the rules are always run
+	 * @param options
 	 */
-	CalcEngine(Map<String, IVariable> variables, IValidator[] validators, Map<String, String> messages, String[] inputs,
-			String[] outputs) {
+	CalcEngine(Map<String, IVariable> variables, IValidator[] validators, Map<String, String> messages,
+			IVariable[] inputs, IVariable[] outputs, IVariable[] validatorPlan, IVariable[] outputPlan,
+			DependencyGraph graph, ColumnarEvaluator columnar, Map<String, MemoizedFunction> memoizedFunctions,
+			SubgraphMemo[] memos, PresencePlans presencePlans, EngineOptionsDS options) {
 		this.variables = variables;
 		this.inputs = inputs;
-		this.outputs = outputs;
 		this.validators = validators;
 		this.messages = messages;
+		this.validatorPlan = validatorPlan;
+		this.outputPlan = outputPlan;
+		this.graph = graph;
+		this.columnar = columnar;
+		this.memoizedFunctions = memoizedFunctions;
+		this.memos = memos;
+		this.presencePlans = presencePlans;
+		this.skipUnrelatedValidators = options.skipUnrelatedValidators;
+		this.slots = new IVariable[variables.size()];
+		for (IVariable variable : variables.values()) {
+			this.slots[variable.getSlot()] = variable;
+		}
+		this.fullProjection = new Projection(validatorPlan, validators, outputPlan, outputs);
+		this.parallelPlan = options.evaluateInParallel ? ParallelPlan.newPlan(this.slots, validatorPlan,
+				validators.length, outputPlan, graph, options.minParallelPartSize) : null;
+		this.pooledContexts = options.poolContexts ? ThreadLocal.withInitial(() -> new CalcContext()) : null;
 	}
 
 	@Override
 	public CalcResultDS calculate(Map<String, String> inputValues) {
-		CalcContext ctx = new CalcContext();
+		return this.calculate(inputValues, this.fullProjection);
+	}
+
+	@Override
+	public CalcResultDS calculate(Map<String, String> inputValues, Set<String> requestedOutputs) {
+		if (requestedOutputs == null) {
+			return this.calculate(inputValues);
+		}
+		Projection projection = this.projections.get(requestedOutputs);
+		if (projection == null) {
+			for (String name : requestedOutputs) {
+				IVariable variable = this.variables.get(name);
+				if (variable == null || !variable.isOutput()) {
+					return new CalcResultDS(new CalcErrorDS[] { new CalcErrorDS(name, "Not a valid output") });
+				}
+			}
+			projection = this.project(requestedOutputs);
+			if (this.projections.size() < MAX_PROJECTIONS) {
+				this.projections.put(Collections.unmodifiableSet(new HashSet<>(requestedOutputs)), projection);
+			}
+		}
+		return this.calculate(inputValues, projection);
+	}
+
+	/**
+	 * the plans and validators for calculating only the requested outputs
+	 */
+	private Projection project(Set<String> requestedOutputs) {
+		final int n = requestedOutputs.size();
+		final IVariable[] outputs = new IVariable[n];
+		final int[] roots = new int[n];
+		int i = 0;
+		for (String name : requestedOutputs) {
+			outputs[i] = this.variables.get(name);
+			roots[i] = outputs[i].getSlot();
+			i++;
+		}
+		final BitSet cone = new BitSet(this.slots.length);
+		this.graph.addCone(roots, cone);
+
+		/*
+		 * validators. Unless asked for, all of them are to be run
+		 */
+		final List<IValidator> validatorList = new ArrayList<>();
+		final BitSet validatorCone = new BitSet(this.slots.length);
+		for (int j = 0; j < this.validators.length; j++) {
+			final BitSet c = this.graph.getValidatorCone(j);
+			if (this.skipUnrelatedValidators && !this.sharesInputs(c, cone)) {
+				continue;
+			}
+			validatorList.add(this.validators[j]);
+			validatorCone.or(c);
+		}
+
+		/*
+		 * filtering a topological order retains the order
+		 */
+		final List<IVariable> vPlan = new ArrayList<>();
+		final BitSet planned = new BitSet(this.slots.length);
+		for (IVariable variable : this.validatorPlan) {
+			if (validatorCone.get(variable.getSlot())) {
+				vPlan.add(variable);
+				planned.set(variable.getSlot());
+			}
+		}
+		final List<IVariable> oPlan = new ArrayList<>();
+		for (IVariable[] plan : new IVariable[][] { this.validatorPlan, this.outputPlan }) {
+			for (IVariable variable : plan) {
+				final int slot = variable.getSlot();
+				if (cone.get(slot) && !planned.get(slot)) {
+					oPlan.add(variable);
+				}
+			}
+		}
+		return new Projection(vPlan.toArray(new IVariable[0]), validatorList.toArray(new IValidator[0]),
+				oPlan.toArray(new IVariable[0]), outputs);
+	}
+
+	/**
+	 * do the two cones have an input variable in common?
+	 */
+	private boolean sharesInputs(BitSet cone1, BitSet cone2) {
+		final BitSet common = (BitSet) cone1.clone();
+		common.and(cone2);
+		for (int slot = common.nextSetBit(0); slot >= 0; slot = common.nextSetBit(slot + 1)) {
+			if (this.slots[slot].isInput()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private CalcResultDS calculate(Map<String, String> inputValues, Projection projection) {
+		final CalcContext ctx = this.borrowContext();
+		try {
+			return this.run(ctx, inputValues, this.inputs, projection.validators, projection);
+		} finally {
+			ctx.inUse = false;
+		}
+	}
+
+	/**
+	 * a context for a run whose values are not retained after the run. It is the
+	 * pooled context of this thread, if it is not in use already by a run that
+	 * has called this engine again, like from a custom function.
+	 */
+	private CalcContext borrowContext() {
+		if (this.pooledContexts == null) {
+			return new CalcContext();
+		}
+		final CalcContext ctx = this.pooledContexts.get();
+		if (ctx.inUse) {
+			return new CalcContext();
+		}
+		ctx.inUse = true;
+		ctx.reset();
+		return ctx;
+	}
+
+	@Override
+	public ICalcState calculateWithState(Map<String, String> inputValues) {
+		final CalcContext ctx = new CalcContext();
+		final CalcResultDS result = this.run(ctx, inputValues, this.inputs, this.validators, this.fullProjection);
+		return new CalcState(this, new HashMap<>(inputValues), ctx, result);
+	}
+
+	@Override
+	public ICalcState recalculate(ICalcState previous, Map<String, String> changedInputs) {
+		final Map<String, String> inputValues = new HashMap<>(previous.getInputs());
+		for (Map.Entry<String, String> entry : changedInputs.entrySet()) {
+			if (entry.getValue() == null) {
+				inputValues.remove(entry.getKey());
+			} else {
+				inputValues.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		/*
+		 * values from a failed run may be incomplete
+		 */
+		if (previous instanceof CalcState == false || ((CalcState) previous).engine != this
+				|| !previous.getResult().allOk) {
+			return this.calculateWithState(inputValues);
+		}
+		final CalcState prev = (CalcState) previous;
+
+		final List<IVariable> changed = new ArrayList<>();
+		for (String name : changedInputs.keySet()) {
+			IVariable variable = this.variables.get(name);
+			if (variable != null && variable.isInput()
+					&& !Objects.equals(prev.inputs.get(name), inputValues.get(name))) {
+				changed.add(variable);
+			}
+		}
+		if (changed.isEmpty()) {
+			return new CalcState(this, inputValues, prev.values, prev.present, prev.result);
+		}
+
+		/*
+		 * the changed inputs, and everything that depends on them, are to be evaluated
+		 * again
+		 */
+		final int[] roots = new int[changed.size()];
+		for (int i = 0; i < roots.length; i++) {
+			roots[i] = changed.get(i).getSlot();
+		}
+		final BitSet dirty = new BitSet(this.slots.length);
+		this.graph.addDependents(roots, dirty);
+
+		final List<IValidator> affected = new ArrayList<>();
+		for (int i = 0; i < this.validators.length; i++) {
+			if (this.graph.getValidatorCone(i).intersects(dirty)) {
+				affected.add(this.validators[i]);
+			}
+		}
+
+		final CalcContext ctx = new CalcContext(prev.values, prev.present, dirty);
+		final CalcResultDS result = this.run(ctx, inputValues, changed.toArray(new IVariable[0]),
+				affected.toArray(new IValidator[0]), this.fullProjection);
+		return new CalcState(this, inputValues, ctx, result);
+	}
+
+	/**
+	 * run a calculation with a context. Variables that already have their values
+	 * in the context are not evaluated again.
+	 *
+	 * @param ctx           context for this run
+	 * @param inputValues   input values
+	 * @param inputsToParse input variables to be parsed from the input values
+	 * @param validators    validators to be run
+	 * @param projection    plans to be executed, and the outputs to be returned
+	 * @return result
+	 */
+	private CalcResultDS run(CalcContext ctx, Map<String, String> inputValues, IVariable[] inputsToParse,
+			IValidator[] validators, Projection projection) {
 		Map<String, IValue> results = new HashMap<>();
 
 		try {
 			/**
 			 * parse and cache all inputs
 			 */
-			for (String name : this.inputs) {
-				IVariable variable = this.variables.get(name);
-				String inputValue = inputValues.get(name);
+			for (IVariable variable : inputsToParse) {
+				String inputValue = inputValues.get(variable.getName());
 				IValue v = variable.parse(inputValue, ctx);
 				if (v != null) {
-					ctx.cacheValue(name, v);
+					ctx.cacheValue(variable.getSlot(), v);
 				}
 			}
 
@@ -63,30 +355,24 @@ class CalcEngine implements ICalcEngine {
 				return new CalcResultDS(ctx.getErrors());
 			}
 
-			/**
-			 * inter-field validations?
-			 */
-			for (IValidator v : this.validators) {
-				v.validate(ctx);
+			final boolean allOk;
+			final boolean isFull = projection == this.fullProjection && validators == this.validators;
+			if (this.parallelPlan != null && isFull) {
+				allOk = this.evaluateInParallel(ctx);
+			} else if (this.presencePlans != null && isFull) {
+				allOk = this.evaluateByPresence(ctx);
+			} else {
+				allOk = this.evaluate(ctx, validators, projection);
 			}
-
-			if (ctx.hasErrors()) {
+			if (!allOk) {
 				return new CalcResultDS(ctx.getErrors());
 			}
-
-			/**
-			 * calculate each value
-			 */
-			for (String name : this.outputs) {
-				IValue value = ctx.determineValue(name);
-				if (value != null) {
-					results.put(name, value);
-				}
+			for (IVariable variable : projection.outputs) {
+				results.put(variable.getName(), ctx.values[variable.getSlot()]);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
-			ctx.logError("",
-					"Calculation Engine encountered an internal error. Our support team is looking at it. Please retry after some time");
+			ctx.logError("", INTERNAL_ERROR);
 		}
 
 		if (ctx.hasErrors()) {
@@ -95,35 +381,478 @@ class CalcEngine implements ICalcEngine {
 		return new CalcResultDS(results);
 	}
 
+	/**
+	 * run the validators, and evaluate the variables, once the inputs are parsed
+	 * and cached in the context
+	 *
+	 * @return true if all ok. false if any error is logged to the context
+	 */
+	private boolean evaluate(CalcContext ctx, IValidator[] validators, Projection projection) {
+		return this.evaluate(ctx, projection.validatorPlan, validators, projection.outputPlan);
+	}
+
+	private boolean evaluate(CalcContext ctx, IVariable[] validatorPlan, IValidator[] validators,
+			IVariable[] outputPlan) {
+		/**
+		 * inter-field validations?
+		 */
+		if (!ctx.execute(validatorPlan)) {
+			return false;
+		}
+		for (IValidator v : validators) {
+			v.validate(ctx);
+		}
+
+		if (ctx.hasErrors()) {
+			return false;
+		}
+
+		/**
+		 * calculate each value
+		 */
+		return ctx.execute(outputPlan);
+	}
+
+	/**
+	 * run only the rules that are known to be required for the optional inputs
+	 * that are provided. All of them are run if this set of inputs is not seen
+	 * before, and the ones that are required are learnt from that run.
+	 *
+	 * @return true if all ok. false if any error is logged to the context
+	 */
+	private boolean evaluateByPresence(CalcContext ctx) {
+		final BitSet signature = this.presencePlans.getSignature(ctx);
+		final PresencePlans.ActiveRules active = this.presencePlans.get(signature);
+		if (active != null) {
+			active.seed(ctx);
+			return this.evaluate(ctx, active.validatorPlan, active.validators, active.outputPlan);
+		}
+
+		if (!this.evaluate(ctx, this.validatorPlan, this.validators, this.outputPlan)) {
+			return false;
+		}
+		this.presencePlans.learn(signature, ctx, this.validatorPlan, this.validators, this.outputPlan);
+		return true;
+	}
+
+	/**
+	 * evaluate the parts of the parallel plan concurrently, each with a copy of the
+	 * context. The values are merged into the context, and the errors are reported
+	 * in the same order as that of a sequential run.
+	 *
+	 * @return true if all ok. false if any error is logged to the context
+	 */
+	private boolean evaluateInParallel(CalcContext ctx) {
+		final ParallelPlan.Part[] parts = this.parallelPlan.getParts();
+		final PartTask[] tasks = new PartTask[parts.length];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new PartTask(parts[i], new CalcContext(ctx));
+		}
+		// the current thread runs one of the tasks, while the pool runs the others
+		ForkJoinTask.invokeAll(tasks);
+
+		/*
+		 * inter-field validations
+		 */
+		for (PartTask task : tasks) {
+			if (task.validationException != null) {
+				throw task.validationException;
+			}
+			if (task.validatorPlanFailed) {
+				ctx.errors.addAll(task.ctx.errors);
+				return false;
+			}
+		}
+		final CalcErrorDS[][] validatorErrors = new CalcErrorDS[this.validators.length][];
+		for (PartTask task : tasks) {
+			for (int i = 0; i < task.part.validators.length; i++) {
+				validatorErrors[task.part.validators[i]] = task.validatorErrors[i];
+			}
+		}
+		for (CalcErrorDS[] errors : validatorErrors) {
+			if (errors != null) {
+				ctx.errors.addAll(Arrays.asList(errors));
+			}
+		}
+		if (ctx.hasErrors()) {
+			return false;
+		}
+
+		/*
+		 * outputs
+		 */
+		for (PartTask task : tasks) {
+			if (task.outputException != null) {
+				throw task.outputException;
+			}
+			if (!task.outputsOk) {
+				ctx.errors.addAll(task.ctx.errors.subList(task.outputErrorsFrom, task.ctx.errors.size()));
+				return false;
+			}
+		}
+		for (PartTask task : tasks) {
+			for (int slot = 0; slot < this.slots.length; slot++) {
+				if (task.ctx.hasValue(slot) && !ctx.hasValue(slot)) {
+					ctx.cacheValue(slot, task.ctx.values[slot]);
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public CalcBatchResultDS calculateBatch(List<Map<String, String>> inputValues) {
+		final int nbrRecords = inputValues.size();
+		final IVariable[] outputs = this.fullProjection.outputs;
+		final String[] outputNames = new String[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			outputNames[i] = outputs[i].getName();
+		}
+		final CalcBatchResultDS result = new CalcBatchResultDS(outputNames, nbrRecords);
+		// one context for all the records. It is reset for every record
+		final CalcContext ctx = this.borrowContext();
+		try {
+			this.calculateBatch(ctx, inputValues, result);
+		} finally {
+			ctx.inUse = false;
+		}
+		return result;
+	}
+
+	private void calculateBatch(CalcContext ctx, List<Map<String, String>> inputValues, CalcBatchResultDS result) {
+		final int nbrRecords = inputValues.size();
+		final IVariable[] outputs = this.fullProjection.outputs;
+
+		/*
+		 * parse the inputs column by column, so that each parser runs over all the
+		 * records in one go
+		 */
+		final IValue[][] parsed = new IValue[this.inputs.length][nbrRecords];
+		for (int i = 0; i < this.inputs.length; i++) {
+			final IVariable variable = this.inputs[i];
+			final String name = variable.getName();
+			final IValue[] column = parsed[i];
+			int r = 0;
+			for (Map<String, String> record : inputValues) {
+				column[r] = variable.parse(record.get(name), ctx);
+				if (ctx.hasErrors()) {
+					result.errors[r] = append(result.errors[r], ctx.getErrors());
+					ctx.reset();
+				}
+				r++;
+			}
+		}
+
+		/*
+		 * and then evaluate chunk by chunk, in columns if possible. Records that are
+		 * not evaluated in columns are run one at a time
+		 */
+		final ColumnarEvaluator.Chunk chunk = this.columnar == null ? null : this.columnar.newChunk();
+		for (int from = 0; from < nbrRecords; from += ColumnarEvaluator.CHUNK_SIZE) {
+			final int to = Math.min(from + ColumnarEvaluator.CHUNK_SIZE, nbrRecords);
+			if (chunk != null) {
+				this.columnar.evaluate(chunk, parsed, from, to - from, result.outputs);
+			}
+
+			for (int r = from; r < to; r++) {
+				if (result.errors[r] != null) {
+					result.outputs[r] = null;
+					result.nbrFailed++;
+					continue;
+				}
+				if (result.outputs[r] != null) {
+					continue;
+				}
+				ctx.reset();
+				for (int i = 0; i < this.inputs.length; i++) {
+					if (parsed[i][r] != null) {
+						ctx.cacheValue(this.inputs[i].getSlot(), parsed[i][r]);
+					}
+				}
+
+				try {
+					if (this.evaluate(ctx, this.validators, this.fullProjection)) {
+						final IValue[] row = new IValue[outputs.length];
+						for (int i = 0; i < outputs.length; i++) {
+							row[i] = ctx.values[outputs[i].getSlot()];
+						}
+						result.outputs[r] = row;
+						continue;
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+					ctx.logError("", INTERNAL_ERROR);
+				}
+				result.errors[r] = ctx.getErrors();
+				result.nbrFailed++;
+			}
+		}
+	}
+
+	private static CalcErrorDS[] append(CalcErrorDS[] errors, CalcErrorDS[] more) {
+		if (errors == null) {
+			return more;
+		}
+		final CalcErrorDS[] all = Arrays.copyOf(errors, errors.length + more.length);
+		System.arraycopy(more, 0, all, errors.length, more.length);
+		return all;
+	}
+
+	@Override
+	public Map<String, CacheStatsDS> getFunctionCacheStats() {
+		final Map<String, CacheStatsDS> stats = new HashMap<>();
+		for (Map.Entry<String, MemoizedFunction> entry : this.memoizedFunctions.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().getStats());
+		}
+		return stats;
+	}
+
 	@Override
 	public void shutdown() {
 		/* No-op */ }
 
+	/**
+	 * evaluates a part of the parallel plan with its own context. The outcome of
+	 * each phase is recorded, rather than acted upon, so that the caller can
+	 * report the errors just as a sequential run would. The outputs are evaluated
+	 * even if a validator fails, as the failure of a validator in another part is
+	 * not known here.
+	 */
+	private final class PartTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final ParallelPlan.Part part;
+		final CalcContext ctx;
+		boolean validatorPlanFailed;
+		// errors of each validator of this part. null if it passes
+		final CalcErrorDS[][] validatorErrors;
+		RuntimeException validationException;
+		boolean outputsOk;
+		// errors logged while evaluating the outputs start here
+		int outputErrorsFrom;
+		RuntimeException outputException;
+
+		PartTask(ParallelPlan.Part part, CalcContext ctx) {
+			this.part = part;
+			this.ctx = ctx;
+			this.validatorErrors = new CalcErrorDS[part.validators.length][];
+		}
+
+		@Override
+		protected void compute() {
+			final List<CalcErrorDS> errors = this.ctx.errors;
+			try {
+				if (!this.ctx.execute(this.part.validatorPlan)) {
+					this.validatorPlanFailed = true;
+					return;
+				}
+				for (int i = 0; i < this.part.validators.length; i++) {
+					final int from = errors.size();
+					CalcEngine.this.validators[this.part.validators[i]].validate(this.ctx);
+					if (errors.size() > from) {
+						this.validatorErrors[i] = errors.subList(from, errors.size()).toArray(ARR);
+					}
+				}
+			} catch (RuntimeException e) {
+				this.validationException = e;
+				return;
+			}
+
+			try {
+				this.outputErrorsFrom = errors.size();
+				this.outputsOk = this.ctx.execute(this.part.outputPlan);
+			} catch (RuntimeException e) {
+				this.outputException = e;
+			}
+		}
+	}
+
+	/**
+	 * state of a run, to be used for a subsequent recalculation. The arrays are
+	 * not modified once the state is created.
+	 */
+	private static final class CalcState implements ICalcState {
+		final CalcEngine engine;
+		final Map<String, String> inputs;
+		final IValue[] values;
+		final BitSet present;
+		final CalcResultDS result;
+
+		CalcState(CalcEngine engine, Map<String, String> inputs, CalcContext ctx, CalcResultDS result) {
+			this(engine, inputs, ctx.values, ctx.getPresent(), result);
+		}
+
+		CalcState(CalcEngine engine, Map<String, String> inputs, IValue[] values, BitSet present,
+				CalcResultDS result) {
+			this.engine = engine;
+			this.inputs = Collections.unmodifiableMap(inputs);
+			this.values = values;
+			this.present = present;
+			this.result = result;
+		}
+
+		@Override
+		public CalcResultDS getResult() {
+			return this.result;
+		}
+
+		@Override
+		public Map<String, String> getInputs() {
+			return this.inputs;
+		}
+	}
+
+	/**
+	 * What is to be evaluated for a set of outputs: the plans, in that order, and
+	 * the validators to be run.
+	 */
+	private static final class Projection {
+		final IVariable[] validatorPlan;
+		final IValidator[] validators;
+		final IVariable[] outputPlan;
+		final IVariable[] outputs;
+
+		Projection(IVariable[] validatorPlan, IValidator[] validators, IVariable[] outputPlan, IVariable[] outputs) {
+			this.validatorPlan = validatorPlan;
+			this.validators = validators;
+			this.outputPlan = outputPlan;
+			this.outputs = outputs;
+		}
+	}
+
 	/**
 	 * The non-static inner class providing the context for a single calculation
-	 * run.
+	 * run. Values are held in a dense array indexed by the slots of the
+	 * variables. A value is present only if its slot is stamped with the current
+	 * generation of the context. Hence a context is reset for another run by
+	 * just moving to the next generation, and the values of the earlier runs
+	 * read as absent without being cleared.
 	 */
-	private class CalcContext implements ICalcContext {
-		private Map<String, IValue> cache = new HashMap<>(CalcEngine.this.variables.size());
-		private final Set<String> inProcess = new HashSet<>();
+	private class CalcContext implements IEvaluationContext {
+		private final IValue[] values = new IValue[CalcEngine.this.slots.length];
+		private final int[] stamps = new int[CalcEngine.this.slots.length];
 		private final List<CalcErrorDS> errors = new ArrayList<>();
+		private int generation = 1;
+		// whether a pooled context is being used by a run
+		boolean inUse;
 
 		protected CalcContext() {
 		}
 
+		/**
+		 * a context with the values from a previous run, except the ones that are
+		 * stale
+		 *
+		 * @param values  values from the previous run
+		 * @param present slots that have values in the previous run
+		 * @param stale   slots whose values are not to be retained
+		 */
+		protected CalcContext(IValue[] values, BitSet present, BitSet stale) {
+			for (int slot = present.nextSetBit(0); slot >= 0; slot = present.nextSetBit(slot + 1)) {
+				if (!stale.get(slot)) {
+					this.values[slot] = values[slot];
+					this.stamps[slot] = this.generation;
+				}
+			}
+		}
+
+		/**
+		 * a context with the values of another context, but without its errors
+		 *
+		 * @param ctx context to be copied
+		 */
+		protected CalcContext(CalcContext ctx) {
+			System.arraycopy(ctx.values, 0, this.values, 0, this.values.length);
+			System.arraycopy(ctx.stamps, 0, this.stamps, 0, this.stamps.length);
+			this.generation = ctx.generation;
+		}
+
+		/**
+		 * discard the values and errors, so that this context can be used for another
+		 * run
+		 */
+		protected void reset() {
+			this.errors.clear();
+			this.generation++;
+			if (this.generation == 0) {
+				// wrapped around. Stamps of the earlier generations may be mistaken as current
+				Arrays.fill(this.stamps, 0);
+				this.generation = 1;
+			}
+		}
+
+		/**
+		 *
+		 * @return slots that have a value. A copy that is not affected by a reset.
+		 */
+		protected BitSet getPresent() {
+			final BitSet present = new BitSet(this.stamps.length);
+			for (int slot = 0; slot < this.stamps.length; slot++) {
+				if (this.stamps[slot] == this.generation) {
+					present.set(slot);
+				}
+			}
+			return present;
+		}
+
+		/**
+		 * evaluate the variables in the plan, in that order. A variable that already
+		 * has a value (an optional input that is provided) is not evaluated.
+		 *
+		 * @return true if all ok. false if any variable could not be evaluated
+		 */
+		protected boolean execute(IVariable[] plan) {
+			for (IVariable variable : plan) {
+				final int slot = variable.getSlot();
+				if (this.stamps[slot] == this.generation) {
+					continue;
+				}
+				IValue value = this.evaluate(variable);
+				if (value == null) {
+					if (this.errors.isEmpty()) {
+						this.logError(variable.getName(), "Value could not be evaluated");
+					}
+					return false;
+				}
+				this.values[slot] = value;
+				this.stamps[slot] = this.generation;
+			}
+			return true;
+		}
+
 		@Override
-		public IValue determineValue(String variableName) {
-			IValue value = this.cache.get(variableName);
+		public IValue determineValue(int slot) {
+			if (this.stamps[slot] == this.generation) {
+				return this.values[slot];
+			}
+
+			/*
+			 * a variable that is required only under some conditions, or one that a custom
+			 * function asks for. The dry-run at build time has ensured that there is no
+			 * circular dependency
+			 */
+			IValue value = this.evaluate(CalcEngine.this.slots[slot]);
 			if (value != null) {
-				return value;
+				this.cacheValue(slot, value);
 			}
-			if (!this.inProcess.add(variableName)) {
-				// As per our current design of boot-strapping, this should never happen.
-				// Defensive code
-				this.logError(variableName, "Circular dependency detected: ");
-				return null;
+			return value;
+		}
+
+		/**
+		 * evaluate a variable, or get its memoized value
+		 */
+		private IValue evaluate(IVariable variable) {
+			final SubgraphMemo[] memos = CalcEngine.this.memos;
+			if (memos != null) {
+				final SubgraphMemo memo = memos[variable.getSlot()];
+				if (memo != null) {
+					return memo.evaluate(variable, this);
+				}
 			}
+			return variable.evaluate(this);
+		}
 
+		@Override
+		public IValue determineValue(String variableName) {
 			IVariable variable = CalcEngine.this.variables.get(variableName);
 			if (variable == null) {
 				// defensive code. as per the current bootstrap process, this should never
@@ -131,13 +860,7 @@ class CalcEngine implements ICalcEngine {
 				this.logError(variableName, "Varaible not defined.");
 				return null;
 			}
-
-			value = variable.evaluate(this);
-			this.inProcess.remove(variableName);
-			if (value != null) {
-				this.cache.put(variableName, value);
-			}
-			return value;
+			return this.determineValue(variable.getSlot());
 		}
 
 		@Override
@@ -155,14 +878,28 @@ class CalcEngine implements ICalcEngine {
 		}
 
 		@Override
-		public void cacheValue(String valName, IValue value) {
-			this.cache.put(valName, value);
+		public void cacheValue(int slot, IValue value) {
+			this.values[slot] = value;
+			this.stamps[slot] = this.generation;
+		}
+
+		@Override
+		public void cacheValue(String variableName, IValue value) {
+			IVariable variable = CalcEngine.this.variables.get(variableName);
+			if (variable != null) {
+				this.cacheValue(variable.getSlot(), value);
+			}
+		}
 
+		@Override
+		public boolean hasValue(int slot) {
+			return this.stamps[slot] == this.generation;
 		}
 
 		@Override
 		public boolean hasValue(String variableName) {
-			return this.cache.containsKey(variableName);
+			IVariable variable = CalcEngine.this.variables.get(variableName);
+			return variable != null && this.hasValue(variable.getSlot());
 		}
 
 		private String translate(String messageId) {
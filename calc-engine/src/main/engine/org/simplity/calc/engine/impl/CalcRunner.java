@@ -0,0 +1,200 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+import org.simplity.calc.engine.api.CalcBatchResultDS;
+import org.simplity.calc.engine.api.ICalcEngine;
+import org.simplity.calc.engine.api.ICalcRunner;
+import org.simplity.calc.engine.api.ICalcSink;
+import org.simplity.calc.engine.config.RunnerOptionsDS;
+
+/**
+ * Runs an engine over a stream of records on a fork-join pool.
+ * <p>
+ * The calling thread reads the records into chunks, and submits a task for
+ * each chunk. A task calculates its chunk with
+ * {@link ICalcEngine#calculateBatch(List)}, which uses a single context for all
+ * the records of the chunk, and then hands the results over for delivery. The
+ * workers of the pool steal the tasks from each other, and hence the load is
+ * balanced even if some chunks take longer than the others.
+ * <p>
+ * A permit of a semaphore is acquired before a chunk is read, and is released
+ * after the sink has received it. This bounds the number of chunks that are in
+ * memory at any time.
+ *
+ * <h3>Thread Safety</h3> A runner is immutable, and may be used for any number
+ * of concurrent runs.
+ */
+final class CalcRunner implements ICalcRunner {
+	private final ICalcEngine engine;
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	private final int maxChunks;
+	private final boolean ordered;
+
+	CalcRunner(ICalcEngine engine, ForkJoinPool pool, RunnerOptionsDS options) {
+		this.engine = engine;
+		this.pool = pool;
+		this.chunkSize = Math.max(1, options.chunkSize);
+		this.maxChunks = options.maxChunksInProgress > 0 ? options.maxChunksInProgress
+				: 2 * pool.getParallelism();
+		this.ordered = options.ordered;
+	}
+
+	@Override
+	public long run(Iterator<Map<String, String>> inputs, ICalcSink sink) {
+		final Semaphore permits = new Semaphore(this.maxChunks);
+		final Delivery delivery = new Delivery(sink, permits, this.ordered);
+		long nbrRecords = 0;
+		long chunkIdx = 0;
+
+		while (!delivery.hasFailed()) {
+			permits.acquireUninterruptibly();
+			final List<Map<String, String>> chunk = new ArrayList<>(this.chunkSize);
+			try {
+				while (chunk.size() < this.chunkSize && inputs.hasNext()) {
+					chunk.add(inputs.next());
+				}
+			} catch (Throwable e) {
+				// the reader failed. Chunks that are in progress are still waited for
+				delivery.fail(e);
+				break;
+			}
+			if (chunk.isEmpty()) {
+				permits.release();
+				break;
+			}
+
+			final long idx = chunkIdx;
+			final long firstRecord = nbrRecords;
+			try {
+				this.pool.execute(() -> {
+					final CalcBatchResultDS results;
+					try {
+						results = this.engine.calculateBatch(chunk);
+					} catch (Throwable e) {
+						delivery.fail(e);
+						return;
+					}
+					delivery.deliver(idx, firstRecord, chunk, results);
+				});
+			} catch (RuntimeException e) {
+				// pool is shut down
+				delivery.fail(e);
+				break;
+			}
+			chunkIdx++;
+			nbrRecords += chunk.size();
+		}
+
+		// wait for the chunks in progress
+		permits.acquireUninterruptibly(this.maxChunks);
+
+		final Throwable failure = delivery.getFailure();
+		if (failure == null) {
+			return nbrRecords;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		throw new IllegalStateException(failure);
+	}
+
+	/**
+	 * hands the chunks over to the sink, one at a time, and in their order if
+	 * required. The permit for a chunk is released once it is handed over, or
+	 * dropped after a failure.
+	 */
+	private static final class Delivery {
+		private final ICalcSink sink;
+		private final Semaphore permits;
+		private final boolean ordered;
+		/*
+		 * chunks that are ready, but are waiting for an earlier one
+		 */
+		private final Map<Long, Chunk> pending = new HashMap<>();
+		private long nextIdx;
+		private volatile Throwable failure;
+
+		Delivery(ICalcSink sink, Semaphore permits, boolean ordered) {
+			this.sink = sink;
+			this.permits = permits;
+			this.ordered = ordered;
+		}
+
+		boolean hasFailed() {
+			return this.failure != null;
+		}
+
+		Throwable getFailure() {
+			return this.failure;
+		}
+
+		synchronized void deliver(long idx, long firstRecord, List<Map<String, String>> inputs,
+				CalcBatchResultDS results) {
+			if (this.failure != null) {
+				this.permits.release();
+				return;
+			}
+
+			if (!this.ordered) {
+				this.accept(firstRecord, inputs, results);
+				return;
+			}
+
+			this.pending.put(idx, new Chunk(firstRecord, inputs, results));
+			Chunk next;
+			while (this.failure == null && (next = this.pending.remove(this.nextIdx)) != null) {
+				this.nextIdx++;
+				this.accept(next.firstRecord, next.inputs, next.results);
+			}
+		}
+
+		private void accept(long firstRecord, List<Map<String, String>> inputs, CalcBatchResultDS results) {
+			try {
+				this.sink.accept(firstRecord, inputs, results);
+			} catch (Throwable e) {
+				this.fail(e);
+				return;
+			}
+			this.permits.release();
+		}
+
+		/**
+		 * the first failure is retained. Chunks that are waiting are dropped, as
+		 * they can not be received in order anymore
+		 */
+		synchronized void fail(Throwable e) {
+			if (this.failure == null) {
+				this.failure = e;
+			}
+			// the permit of the failed chunk, and of the ones waiting for it
+			this.permits.release(1 + this.pending.size());
+			this.pending.clear();
+		}
+	}
+
+	/**
+	 * a chunk that is ready to be received by the sink
+	 */
+	private static final class Chunk {
+		final long firstRecord;
+		final List<Map<String, String>> inputs;
+		final CalcBatchResultDS results;
+
+		Chunk(long firstRecord, List<Map<String, String>> inputs, CalcBatchResultDS results) {
+			this.firstRecord = firstRecord;
+			this.inputs = inputs;
+			this.results = results;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+
+/**
+ * A data structure, like a donee in a schedule of donations, with its
+ * data-members in a fixed order. A row of an array of such a structure is an
+ * array of the values of the members, and hence a member is accessed by its
+ * index that is resolved when the expressions are built.
+ *
+ * <h3>Thread Safety</h3> This class is immutable and therefore inherently
+ * thread-safe.
+ */
+final class DataStructure {
+	private static final String DATA_STRUCTURE = "dataStructure";
+
+	private final String name;
+	private final String[] fieldNames;
+	private final IValueType[] fieldTypes;
+	// valid values of each member that is an enum. null for others
+	private final Set<String>[] enumValues;
+
+	private DataStructure(String name, String[] fieldNames, IValueType[] fieldTypes, Set<String>[] enumValues) {
+		this.name = name;
+		this.fieldNames = fieldNames;
+		this.fieldTypes = fieldTypes;
+		this.enumValues = enumValues;
+	}
+
+	/**
+	 *
+	 * @param name    case-insensitive name of the data structure
+	 * @param members data type of each member, by its name. Members are
+	 *                case-insensitive, and are of primitive types or enums.
+	 * @param builder to which any error is logged
+	 * @return null in case of any error
+	 */
+	static DataStructure newStructure(String name, Map<String, String> members, IEngineBuilder builder) {
+		final String dsName = name.toLowerCase();
+		if (members == null || members.isEmpty()) {
+			builder.logError("A data structure must have at least one member", DATA_STRUCTURE, dsName);
+			return null;
+		}
+		final int n = members.size();
+		final String[] fieldNames = new String[n];
+		final IValueType[] fieldTypes = new IValueType[n];
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final Set<String>[] enumValues = new Set[n];
+		boolean allOk = true;
+		int i = 0;
+		for (Map.Entry<String, String> entry : members.entrySet()) {
+			fieldNames[i] = entry.getKey().toLowerCase();
+			fieldTypes[i] = LookupTable.parseType(entry.getValue(), builder);
+			if (fieldTypes[i] == null) {
+				builder.logError("'" + entry.getValue() + "' is not a valid dataType for member '" + entry.getKey()
+						+ "'", DATA_STRUCTURE, dsName);
+				allOk = false;
+			} else if (fieldTypes[i].getDataType() == DataType.ENUM) {
+				enumValues[i] = builder.getEnumValues(fieldTypes[i].getValueTypeName());
+			}
+			i++;
+		}
+		return allOk ? new DataStructure(dsName, fieldNames, fieldTypes, enumValues) : null;
+	}
+
+	/**
+	 *
+	 * @return case-insensitive name of this structure, in lower case
+	 */
+	String getName() {
+		return this.name;
+	}
+
+	/**
+	 *
+	 * @return number of members
+	 */
+	int getNbrFields() {
+		return this.fieldNames.length;
+	}
+
+	/**
+	 *
+	 * @param fieldName case-insensitive name of the member
+	 * @return index of the member, or -1 if there is no such member
+	 */
+	int getField(String fieldName) {
+		return Arrays.asList(this.fieldNames).indexOf(fieldName.toLowerCase());
+	}
+
+	/**
+	 *
+	 * @param field index of the member
+	 * @return name of the member, in lower case
+	 */
+	String getFieldName(int field) {
+		return this.fieldNames[field];
+	}
+
+	/**
+	 *
+	 * @param field index of the member
+	 * @return value type of the member
+	 */
+	IValueType getFieldType(int field) {
+		return this.fieldTypes[field];
+	}
+
+	/**
+	 *
+	 * @param field index of the member
+	 * @param text  text value of the member in an input
+	 * @return null if the text is not a valid value of the member
+	 */
+	IValue parseField(int field, String text) {
+		final IValue value = LookupTable.parseValue(text, this.fieldTypes[field], null);
+		if (value != null && this.enumValues[field] != null && !this.enumValues[field].contains(value.getValue())) {
+			return null;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,197 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependencies among the variables, and those of the validators, as recorded
+ * by the dry-run at build time. Variables are referred to by their slots.
+ * <p>
+ * Both sure and conditional dependencies are included. Hence the dependency
+ * cone of a variable has every variable that may possibly be required for
+ * evaluating it.
+ *
+ * <h3>Thread Safety</h3> This class is immutable after construction, and hence
+ * thread-safe.
+ */
+final class DependencyGraph {
+	private static final int[] NONE = {};
+	/*
+	 * slots of the variables that each variable depends on directly
+	 */
+	private final int[][] dependencies;
+	/*
+	 * slots of the variables that depend directly on each variable. Reverse of
+	 * dependencies
+	 */
+	private final int[][] dependents;
+	/*
+	 * slots of the variables that each validator refers to directly
+	 */
+	private final int[][] validatorDependencies;
+	/*
+	 * dependency cone of each validator
+	 */
+	private final BitSet[] validatorCones;
+
+	/**
+	 *
+	 * @param variables             all the variables of the engine
+	 * @param dependencies          direct dependencies of a variable, indexed by
+	 *                              the variable name. A variable without any
+	 *                              dependency need not be included
+	 * @param validatorDependencies names of variables that each validator refers
+	 *                              to directly, in the same order as the
+	 *                              validators
+	 */
+	DependencyGraph(Map<String, IVariable> variables, Map<String, Set<String>> dependencies,
+			Set<String>[] validatorDependencies) {
+		this.dependencies = new int[variables.size()][];
+		for (IVariable variable : variables.values()) {
+			this.dependencies[variable.getSlot()] = toSlots(dependencies.get(variable.getName()), variables);
+		}
+
+		final int n = this.dependencies.length;
+		final int[] counts = new int[n];
+		for (int[] deps : this.dependencies) {
+			for (int dep : deps) {
+				counts[dep]++;
+			}
+		}
+		this.dependents = new int[n][];
+		for (int i = 0; i < n; i++) {
+			this.dependents[i] = counts[i] == 0 ? NONE : new int[counts[i]];
+			counts[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int dep : this.dependencies[i]) {
+				this.dependents[dep][counts[dep]++] = i;
+			}
+		}
+
+		this.validatorDependencies = new int[validatorDependencies.length][];
+		this.validatorCones = new BitSet[validatorDependencies.length];
+		for (int i = 0; i < validatorDependencies.length; i++) {
+			this.validatorDependencies[i] = toSlots(validatorDependencies[i], variables);
+			this.validatorCones[i] = new BitSet(n);
+			this.addCone(this.validatorDependencies[i], this.validatorCones[i]);
+		}
+	}
+
+	private static int[] toSlots(Set<String> names, Map<String, IVariable> variables) {
+		if (names == null || names.isEmpty()) {
+			return NONE;
+		}
+		int[] slots = new int[names.size()];
+		int i = 0;
+		for (String name : names) {
+			slots[i] = variables.get(name).getSlot();
+			i++;
+		}
+		return slots;
+	}
+
+	/**
+	 *
+	 * @return number of variables in this graph
+	 */
+	int getNbrVariables() {
+		return this.dependencies.length;
+	}
+
+	/**
+	 *
+	 * @param slot
+	 * @return slots of the variables that this variable depends on directly.
+	 *         Must not be modified.
+	 */
+	int[] getDependencies(int slot) {
+		return this.dependencies[slot];
+	}
+
+	/**
+	 *
+	 * @param slot
+	 * @return slots of the variables that depend on this variable directly. Must
+	 *         not be modified.
+	 */
+	int[] getDependents(int slot) {
+		return this.dependents[slot];
+	}
+
+	/**
+	 *
+	 * @param validatorIdx index of the validator
+	 * @return slots of the variables that this validator refers to directly. Must
+	 *         not be modified.
+	 */
+	int[] getValidatorDependencies(int validatorIdx) {
+		return this.validatorDependencies[validatorIdx];
+	}
+
+	/**
+	 *
+	 * @param validatorIdx index of the validator
+	 * @return slots of all the variables that this validator depends on, directly
+	 *         or indirectly. Must not be modified.
+	 */
+	BitSet getValidatorCone(int validatorIdx) {
+		return this.validatorCones[validatorIdx];
+	}
+
+	/**
+	 * add the dependency cone of the given variables to the set
+	 *
+	 * @param roots slots of the variables whose dependencies are to be added
+	 * @param cone  to which the slots of the roots, and of all the variables they
+	 *              depend on, directly or indirectly, are added
+	 */
+	void addCone(int[] roots, BitSet cone) {
+		// explicit stack, as the chains of dependencies may be quite long
+		int[] stack = new int[this.dependencies.length];
+		int top = 0;
+		for (int slot : roots) {
+			if (!cone.get(slot)) {
+				cone.set(slot);
+				stack[top++] = slot;
+			}
+		}
+		while (top > 0) {
+			for (int dep : this.dependencies[stack[--top]]) {
+				if (!cone.get(dep)) {
+					cone.set(dep);
+					stack[top++] = dep;
+				}
+			}
+		}
+	}
+
+	/**
+	 * add the variables that depend on the given variables to the set. This is
+	 * the set of variables that are to be re-evaluated if the given variables
+	 * change.
+	 *
+	 * @param roots      slots of the variables that have changed
+	 * @param dependents to which the slots of the roots, and of all the variables
+	 *                   that depend on them, directly or indirectly, are added
+	 */
+	void addDependents(int[] roots, BitSet dependents) {
+		int[] stack = new int[this.dependents.length];
+		int top = 0;
+		for (int slot : roots) {
+			if (!dependents.get(slot)) {
+				dependents.set(slot);
+				stack[top++] = slot;
+			}
+		}
+		while (top > 0) {
+			for (int dep : this.dependents[stack[--top]]) {
+				if (!dependents.get(dep)) {
+					dependents.set(dep);
+					stack[top++] = dep;
+				}
+			}
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package org.simplity.calc.engine.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -10,6 +12,17 @@ import org.simplity.calc.engine.api.CalcErrorDS;
 
 /**
  * Implements IDryrunContext to detect circular dependencies ("catch-22s").
+ * <p>
+ * As a by-product of the depth-first walk, variables are cleared only after
+ * all the variables they depend on are cleared. The order in which they are
+ * cleared is therefore a topological order of the dependency graph, and is
+ * used as the static evaluation plan for the engine.
+ * <p>
+ * A dependency is conditional if it is reached through an operand or a branch
+ * that may not be evaluated at run time, like the right operand of '&amp;' or
+ * the value of a conditional calculation step. Variables that are reached only
+ * through conditional dependencies are not included in the plan. They are
+ * evaluated on demand, if at all.
  */
 class DryrunContext {
 	private final Map<String, IVariable> variables;
@@ -19,6 +32,20 @@ class DryrunContext {
 	private final Set<String> faildOens = new HashSet<>();
 	// Stack to track the current dependency path
 	private final LinkedHashSet<String> beingEvaluated = new LinkedHashSet<>();
+	// variables in the order in which they are cleared
+	private final List<IVariable> evaluationOrder = new ArrayList<>();
+	// variables that are included in evaluationOrder
+	private final Set<String> plannedOnes = new HashSet<>();
+	// number of variables from evaluationOrder that are already taken into a plan
+	private int nbrPlanned = 0;
+	// number of conditional scopes that the current dependency path is in
+	private int conditionalDepth = 0;
+	// direct dependencies of the variables, as they are dry-run
+	private final Map<String, Set<String>> dependencies = new HashMap<>();
+	// variables referred to directly by the component being dry-run at the top
+	private Set<String> rootDependencies = new HashSet<>();
+	// variable being dry-run currently. null when at the top
+	private String current;
 
 	/**
 	 * Initializes the dry-run context.
@@ -35,7 +62,23 @@ class DryrunContext {
 	}
 
 	public boolean isEvaluatable(String variableName) {
+		if (this.current == null) {
+			this.rootDependencies.add(variableName);
+		} else {
+			this.dependencies.computeIfAbsent(this.current, k -> new HashSet<>()).add(variableName);
+		}
+
 		if (this.clearedOnes.contains(variableName)) {
+			/*
+			 * cleared earlier as a conditional dependency, but is required now. Its own
+			 * dependencies, if not planned, are evaluated on demand
+			 */
+			if (this.conditionalDepth == 0 && !this.plannedOnes.contains(variableName)) {
+				IVariable variable = this.variables.get(variableName);
+				if (!variable.isRequiredInput()) {
+					this.addToPlan(variable);
+				}
+			}
 			return true;
 		}
 
@@ -59,18 +102,82 @@ class DryrunContext {
 		}
 
 		this.beingEvaluated.add(variableName);
+		final String parent = this.current;
+		this.current = variableName;
 		boolean isOk = variable.dryrun(this);
 		// IMPORTANT: remove from path whether it succeeds or fails.
+		this.current = parent;
 		this.beingEvaluated.remove(variableName);
 
 		if (isOk) {
 			this.clearedOnes.add(variableName);
+			if (this.conditionalDepth == 0) {
+				this.addToPlan(variable);
+			}
 		} else {
 			this.faildOens.add(variableName);
 		}
 		return isOk;
 	}
 
+	/**
+	 * dependencies that are dry-run till the matching call to
+	 * {@link #endConditional()} are conditional dependencies. Calls may be nested.
+	 */
+	public void beginConditional() {
+		this.conditionalDepth++;
+	}
+
+	/**
+	 * end of the scope started with {@link #beginConditional()}
+	 */
+	public void endConditional() {
+		this.conditionalDepth--;
+	}
+
+	private void addToPlan(IVariable variable) {
+		this.plannedOnes.add(variable.getName());
+		this.evaluationOrder.add(variable);
+	}
+
+	/**
+	 * Get the variables that were cleared after the last call to this method, in
+	 * the order in which they were cleared. Every variable in the returned plan is
+	 * preceded by all the variables it depends on, excepting the required inputs,
+	 * the ones that were included in earlier plans, and the ones that are to be
+	 * evaluated on demand.
+	 *
+	 * @return non-null array of variables, possibly empty
+	 */
+	public IVariable[] takePlan() {
+		List<IVariable> list = this.evaluationOrder.subList(this.nbrPlanned, this.evaluationOrder.size());
+		IVariable[] plan = list.toArray(new IVariable[0]);
+		this.nbrPlanned = this.evaluationOrder.size();
+		return plan;
+	}
+
+	/**
+	 * Get the variables that were referred to directly by the components that
+	 * were dry-run at the top, like validators, after the last call to this
+	 * method.
+	 *
+	 * @return non-null set of variable names, possibly empty
+	 */
+	public Set<String> takeRootDependencies() {
+		Set<String> set = this.rootDependencies;
+		this.rootDependencies = new HashSet<>();
+		return set;
+	}
+
+	/**
+	 *
+	 * @return direct dependencies of the variables that are dry-run so far,
+	 *         including the conditional ones. Indexed by variable name.
+	 */
+	public Map<String, Set<String>> getDependencies() {
+		return this.dependencies;
+	}
+
 	/**
 	 * Formats and logs a circular dependency error message.
 	 */
@@ -1,6 +1,7 @@
 package org.simplity.calc.engine.impl;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -8,7 +9,6 @@ import java.util.Map;
 import java.util.Set;
 
 import org.simplity.calc.engine.api.CalcErrorDS;
-import org.simplity.calc.engine.api.ICalcContext;
 import org.simplity.calc.engine.api.ICalcEngine;
 import org.simplity.calc.engine.api.ICalcFunction;
 import org.simplity.calc.engine.api.IEngineShipment;
@@ -17,6 +17,8 @@ import org.simplity.calc.engine.config.CalcConfigDS;
 import org.simplity.calc.engine.config.CalculatorDS;
 import org.simplity.calc.engine.config.DataElementDS;
 import org.simplity.calc.engine.config.ElementType;
+import org.simplity.calc.engine.config.EngineOptionsDS;
+import org.simplity.calc.engine.config.TableDS;
 import org.simplity.calc.engine.config.ValidatorDS;
 import org.simplity.calc.engine.config.ValueSchemaDS;
 
@@ -32,31 +34,49 @@ class EngineBuilder implements IEngineBuilder {
 	 * input received at the time of constructor
 	 */
 	private final CalcConfigDS config;
+	private final EngineOptionsDS options;
 
 	private final Map<String, Set<String>> enums = new HashMap<>();
-	private final Map<String, Map<String, String>> dataStructures = new HashMap<>();
-	private final Map<String, Map<String, String>> tables = new HashMap<>();
+	private final Map<String, DataStructure> dataStructures = new HashMap<>();
+	private final Map<String, ILookupTable> tables = new HashMap<>();
 	/*
 	 * components that are produced. Shared directly with the parent with
 	 * "protected"
 	 */
 	private final Map<String, ICalcFunction> allFunctions = new HashMap<>();
+	// custom functions that are not pure, and that the rules refer to
+	private final Set<String> usedImpureFunctions = new HashSet<>();
+	// pure custom functions whose results are cached
+	private final Map<String, MemoizedFunction> memoizedFunctions = new HashMap<>();
+	// variables whose rules call a custom function that is not pure
+	private final Set<String> impureRules = new HashSet<>();
+	// validators that call a custom function that is not pure
+	private final BitSet impureValidators = new BitSet();
+	// set when a function that is not pure is looked up
+	private boolean impureFunctionFound;
 	protected final List<CalcErrorDS> errors = new ArrayList<>();
 	protected final Map<String, IValueParser> valueParsers = new HashMap<>();
 	protected final Map<String, IVariable> variables = new HashMap<>();
 	protected final Set<String> inputVariables = new HashSet<>();
 	protected final Set<String> outputVariables = new HashSet<>();
 	protected IValidator[] validators;
+	// boolean expressions of the validators, in the same order
+	protected IExpression[] validatorExpressions;
 
 	// for parsing expressions
 	protected final ExpressionBuilder exprBuilder;
+	// null unless the rules are to be compiled
+	protected final RuleCompiler ruleCompiler;
 
 	/**
 	 * Initializes the context and function registry.
 	 */
-	protected EngineBuilder(CalcConfigDS config, Map<String, ICalcFunction> customFunctions) {
+	protected EngineBuilder(CalcConfigDS config, Map<String, ICalcFunction> customFunctions,
+			EngineOptionsDS options) {
 		this.config = config;
+		this.options = options;
 		this.exprBuilder = new ExpressionBuilder(this);
+		this.ruleCompiler = options.compileRules ? new RuleCompiler() : null;
 		/*
 		 * NOTE: we want to be case-insensitive for matching the functions, especially
 		 * because it is going to come from an external source Builtin functions are all
@@ -67,12 +87,19 @@ class EngineBuilder implements IEngineBuilder {
 		// Load custom functions, checking for name clashes.
 		for (Map.Entry<String, ICalcFunction> entry : customFunctions.entrySet()) {
 			String name = entry.getKey().toLowerCase();
-			if (this.allFunctions.containsKey(name)) {
+			if (this.allFunctions.containsKey(name) || ILookupTable.LOOKUP.equals(name)
+					|| ILookupTable.EXISTS.equals(name)) {
 				this.logError("Function name '" + name
 						+ "' is a built-in name and cannot be overridden. Note that the function names are case-insensitive",
 						"function", name);
 			} else {
-				this.allFunctions.put(name, entry.getValue());
+				ICalcFunction function = entry.getValue();
+				if (function.isPure() && options.functionCacheSize > 0) {
+					final MemoizedFunction memoized = new MemoizedFunction(function, options.functionCacheSize);
+					this.memoizedFunctions.put(name, memoized);
+					function = memoized;
+				}
+				this.allFunctions.put(name, function);
 			}
 		}
 	}
@@ -83,37 +110,132 @@ class EngineBuilder implements IEngineBuilder {
 		 */
 		this.processConfig();
 
+		IVariable[] validatorPlan = null;
+		IVariable[] outputPlan = null;
+		DependencyGraph graph = null;
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final Set<String>[] validatorDependencies = new Set[this.validators == null ? 0 : this.validators.length];
 		if (this.errors.size() == 0) {
 
 			/*
-			 * Perform a dry run on all output variables to detect circular dependencies.
+			 * Perform a dry run to detect circular dependencies. The order in which the
+			 * variables are cleared is used as the evaluation plan: first for the
+			 * validators, and then for the outputs that are not already covered.
 			 */
 			DryrunContext dryCtx = new DryrunContext(this.variables, this.errors);
+			for (int i = 0; i < this.validators.length; i++) {
+				this.validators[i].dryrun(dryCtx);
+				validatorDependencies[i] = dryCtx.takeRootDependencies();
+			}
+			validatorPlan = dryCtx.takePlan();
+
 			for (String s : this.outputVariables) {
-				this.variables.get(s).dryrun(dryCtx);
+				dryCtx.isEvaluatable(s);
 			}
+			outputPlan = dryCtx.takePlan();
 
-			for (IValidator v : this.validators) {
-				v.dryrun(dryCtx);
+			/*
+			 * variables that are not required for any output may still be requested by
+			 * custom functions at run time. Ensure that they too are free of cycles
+			 */
+			for (String s : this.variables.keySet()) {
+				dryCtx.isEvaluatable(s);
 			}
+			graph = new DependencyGraph(this.variables, dryCtx.getDependencies(), validatorDependencies);
 		}
 
 		if (this.errors.size() > 0) {
 			return new EngineShipment(this.errors.toArray(ARRAY));
 		}
 
-		final String[] StringArr = {};
-		final String[] inputs = this.inputVariables.toArray(StringArr);
-		final String[] outputs = this.outputVariables.toArray(StringArr);
+		final IVariable[] inputs = this.toVariables(this.inputVariables);
+		final IVariable[] outputs = this.toVariables(this.outputVariables);
 		Map<String, String> messages = new HashMap<>();
 		if (this.config.messages != null) {
 			messages.putAll(this.config.messages);
 		}
-		final ICalcEngine engine = new CalcEngine(this.variables, this.validators, messages, inputs, outputs);
+		final IVariable[] slots = new IVariable[this.variables.size()];
+		for (IVariable variable : this.variables.values()) {
+			slots[variable.getSlot()] = variable;
+		}
+		ColumnarEvaluator columnar = null;
+		if (this.options.columnarBatch) {
+			columnar = ColumnarEvaluator.newEvaluator(slots, inputs, outputs, this.validatorExpressions, graph);
+		}
+		final BitSet impure = new BitSet(slots.length);
+		for (String name : this.impureRules) {
+			impure.set(this.variables.get(name).getSlot());
+		}
+		SubgraphMemo[] memos = null;
+		if (this.options.maxMemoizedCombinations > 0) {
+			memos = SubgraphMemo.newMemos(slots, graph, impure, this, this.options.maxMemoizedCombinations);
+			if (memos != null) {
+				// these are evaluated on demand, only if they are not memoized already
+				final BitSet interior = SubgraphMemo.getInterior(memos, slots, graph, this.validators.length);
+				validatorPlan = exclude(validatorPlan, interior);
+				outputPlan = exclude(outputPlan, interior);
+			}
+		}
+		PresencePlans presencePlans = null;
+		if (this.options.maxPresenceSignatures > 0) {
+			presencePlans = PresencePlans.newPlans(slots, graph, impure, this.impureValidators,
+					this.options.maxPresenceSignatures);
+		}
+		final ICalcEngine engine = new CalcEngine(this.variables, this.validators, messages, inputs, outputs,
+				validatorPlan, outputPlan, graph, columnar, this.memoizedFunctions, memos, presencePlans, this.options);
+		if (this.options.resultCacheSize > 0 && this.isCacheable(inputs)) {
+			final String[] inputNames = new String[inputs.length];
+			for (int i = 0; i < inputs.length; i++) {
+				inputNames[i] = inputs[i].getName();
+			}
+			return new EngineShipment(new CachingCalcEngine(engine, inputNames, this.options.resultCacheSize,
+					this.options.resultCacheTtlMillis));
+		}
 		return new EngineShipment(engine);
 	}
 
+	/**
+	 * can the results be cached? Not if they may change with time for the same
+	 * inputs. A custom function that is not pure may refer to the current date,
+	 * or to some other data that changes.
+	 */
+	private boolean isCacheable(IVariable[] inputs) {
+		if (!this.usedImpureFunctions.isEmpty()) {
+			return false;
+		}
+		for (IVariable variable : inputs) {
+			final IValueParser parser = variable.getValidator();
+			if (parser != null && parser.isClockDependent()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static IVariable[] exclude(IVariable[] plan, BitSet excluded) {
+		final List<IVariable> list = new ArrayList<>(plan.length);
+		for (IVariable variable : plan) {
+			if (!excluded.get(variable.getSlot())) {
+				list.add(variable);
+			}
+		}
+		return list.toArray(new IVariable[0]);
+	}
+
+	private IVariable[] toVariables(Set<String> names) {
+		IVariable[] arr = new IVariable[names.size()];
+		int i = 0;
+		for (String name : names) {
+			arr[i] = this.variables.get(name);
+			i++;
+		}
+		return arr;
+	}
+
 	private void processConfig() {
+		this.processEnumerations();
+		this.processDataStructures();
+		this.processTables();
 		this.processSchemas();
 
 		Map<String, DataElementDS> elements = this.config.dataElements;
@@ -127,6 +249,55 @@ class EngineBuilder implements IEngineBuilder {
 		this.buildValidators();
 	}
 
+	void processEnumerations() {
+		Map<String, Map<String, String>> enumerations = this.config.enumerations;
+		if (enumerations == null) {
+			return;
+		}
+
+		// enum names and values are case-insensitive
+		for (Map.Entry<String, Map<String, String>> entry : enumerations.entrySet()) {
+			Map<String, String> values = entry.getValue();
+			if (values == null || values.isEmpty()) {
+				this.logError("An enumeration must have at least one value", "enumeration", entry.getKey());
+				continue;
+			}
+			Set<String> set = new HashSet<>();
+			for (String value : values.keySet()) {
+				set.add(value.toLowerCase());
+			}
+			this.enums.put(entry.getKey().toLowerCase(), set);
+		}
+	}
+
+	void processDataStructures() {
+		Map<String, Map<String, String>> structures = this.config.dataStructures;
+		if (structures == null) {
+			return;
+		}
+
+		for (Map.Entry<String, Map<String, String>> entry : structures.entrySet()) {
+			DataStructure ds = DataStructure.newStructure(entry.getKey(), entry.getValue(), this);
+			if (ds != null) {
+				this.dataStructures.put(ds.getName(), ds);
+			}
+		}
+	}
+
+	void processTables() {
+		Map<String, TableDS> tableDefs = this.config.tables;
+		if (tableDefs == null) {
+			return;
+		}
+
+		for (Map.Entry<String, TableDS> entry : tableDefs.entrySet()) {
+			ILookupTable table = ILookupTable.newTable(entry.getKey(), entry.getValue(), this);
+			if (table != null) {
+				this.tables.put(table.getName(), table);
+			}
+		}
+	}
+
 	void processSchemas() {
 		Map<String, ValueSchemaDS> schemas = this.config.schemas;
 		if (schemas == null || schemas.isEmpty()) {
@@ -155,7 +326,8 @@ class EngineBuilder implements IEngineBuilder {
 				// this.addConstant(element, name);
 			}
 
-			IVariable variable = Variables.toVariable(element, name, this);
+			// slots are dense, in the order in which the variables are added
+			IVariable variable = Variables.toVariable(element, name, this.variables.size(), this);
 			if (variable != null) {
 				this.addVariable(variable);
 			}
@@ -174,7 +346,12 @@ class EngineBuilder implements IEngineBuilder {
 			String variableName = entry.getKey();
 			IVariable variable = this.getVariable(variableName);
 			IValueType valueType = variable == null ? ValueTypes.NUMBER : variable.getValueType();
-			ICalculator parsedRule = Calculators.buildCalculator(ds, variableName, valueType, this.exprBuilder);
+			this.impureFunctionFound = false;
+			ICalculator parsedRule = Calculators.buildCalculator(ds, variableName, valueType, this.exprBuilder,
+					this.ruleCompiler);
+			if (this.impureFunctionFound) {
+				this.impureRules.add(variableName);
+			}
 
 			if (variable != null && parsedRule != null) {
 				variable.setRule(parsedRule);
@@ -186,19 +363,41 @@ class EngineBuilder implements IEngineBuilder {
 		ValidatorDS[] vds = this.config.validators;
 		if (vds == null || vds.length == 0) {
 			this.validators = new IValidator[0];
+			this.validatorExpressions = new IExpression[0];
 			return;
 		}
 
 		this.validators = new IValidator[vds.length];
+		IExpression[] expressions = new IExpression[vds.length];
 		int i = -1;
 		for (ValidatorDS ds : vds) {
 			i++;
-			final IExpression exp = this.exprBuilder.parse(ds.shouldBe, "validator", ValueTypes.BOOLEAN);
+			this.impureFunctionFound = false;
+			expressions[i] = this.exprBuilder.parse(ds.shouldBe, "validator", ValueTypes.BOOLEAN);
+			if (this.impureFunctionFound) {
+				this.impureValidators.set(i);
+			}
 			if (ds.messageId == null) {
 				this.logError("messageId is required for validators", "validator", "" + i);
 			}
+		}
+		if (this.errors.isEmpty()) {
+			// a guard that is common to several validators is evaluated only once
+			expressions = ValidatorGuards.shareGuards(expressions, this, this.ruleCompiler, this.variables.size());
+		}
+
+		this.validatorExpressions = new IExpression[vds.length];
+		i = -1;
+		for (ValidatorDS ds : vds) {
+			i++;
+			final IExpression exp = expressions[i];
 			if (exp != null && ds.messageId != null) {
-				this.validators[i] = new Validator(exp, ds.messageId);
+				IValidator validator = new Validator(exp, ds.messageId);
+				if (this.ruleCompiler != null) {
+					validator = this.ruleCompiler.compileValidator(validator, exp, ds.messageId);
+				}
+				this.validators[i] = validator;
+				this.validatorExpressions[i] = exp;
 			}
 		}
 	}
@@ -227,7 +426,13 @@ class EngineBuilder implements IEngineBuilder {
 
 	@Override
 	public ICalcFunction getFunction(String functionName) {
-		return this.allFunctions.get(functionName.toLowerCase());
+		final String name = functionName.toLowerCase();
+		final ICalcFunction function = this.allFunctions.get(name);
+		if (function != null && !function.isPure()) {
+			this.usedImpureFunctions.add(name);
+			this.impureFunctionFound = true;
+		}
+		return function;
 	}
 
 	@Override
@@ -246,13 +451,13 @@ class EngineBuilder implements IEngineBuilder {
 	}
 
 	@Override
-	public Map<String, String> getDataStructureDS(String name) {
-		return this.dataStructures.get(name);
+	public DataStructure getDataStructure(String name) {
+		return this.dataStructures.get(name.toLowerCase());
 	}
 
 	@Override
-	public Map<String, String> getTableDS(String name) {
-		return this.tables.get(name);
+	public ILookupTable getTable(String name) {
+		return this.tables.get(name.toLowerCase());
 	}
 
 	/**
@@ -270,7 +475,7 @@ class EngineBuilder implements IEngineBuilder {
 		}
 
 		@Override
-		public boolean validate(ICalcContext ctx) {
+		public boolean validate(IEvaluationContext ctx) {
 			if (this.shouldBe.evaluate(ctx).getBooleanValue()) {
 				return true;
 			}
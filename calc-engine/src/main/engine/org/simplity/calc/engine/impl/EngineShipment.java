@@ -1,10 +1,13 @@
 package org.simplity.calc.engine.impl;
 
+import java.util.List;
 import java.util.Map;
 
+import org.simplity.calc.engine.api.CalcBatchResultDS;
 import org.simplity.calc.engine.api.CalcErrorDS;
 import org.simplity.calc.engine.api.CalcResultDS;
 import org.simplity.calc.engine.api.ICalcEngine;
+import org.simplity.calc.engine.api.ICalcState;
 import org.simplity.calc.engine.api.IEngineShipment;
 
 /**
@@ -53,10 +56,49 @@ class EngineShipment implements IEngineShipment {
 			return new CalcResultDS(ERRORS);
 		}
 
+		@Override
+		public CalcBatchResultDS calculateBatch(List<Map<String, String>> inputs) {
+			final int n = inputs.size();
+			CalcBatchResultDS result = new CalcBatchResultDS(new String[0], n);
+			for (int i = 0; i < n; i++) {
+				result.errors[i] = ERRORS;
+			}
+			result.nbrFailed = n;
+			return result;
+		}
+
+		@Override
+		public ICalcState calculateWithState(Map<String, String> inputs) {
+			return new ErrorState(inputs);
+		}
+
+		@Override
+		public ICalcState recalculate(ICalcState previous, Map<String, String> changedInputs) {
+			return new ErrorState(previous.getInputs());
+		}
+
 		@Override
 		public void shutdown() {
 			// nothing was up anyways
 		}
 
+		private static class ErrorState implements ICalcState {
+			private final Map<String, String> inputs;
+
+			protected ErrorState(Map<String, String> inputs) {
+				this.inputs = inputs;
+			}
+
+			@Override
+			public CalcResultDS getResult() {
+				return new CalcResultDS(ERRORS);
+			}
+
+			@Override
+			public Map<String, String> getInputs() {
+				return this.inputs;
+			}
+		}
+
 	}
 }
@@ -1,6 +1,5 @@
 package org.simplity.calc.engine.impl;
 
-import java.util.Map;
 import java.util.Set;
 
 import org.simplity.calc.engine.api.ICalcFunction;
@@ -61,15 +60,15 @@ interface IEngineBuilder {
 
 	/**
 	 *
-	 * @param name
+	 * @param name case-insensitive name of the data structure
 	 * @return null if no such instance.
 	 */
-	Map<String, String> getDataStructureDS(String name);
+	DataStructure getDataStructure(String name);
 
 	/**
 	 *
-	 * @param name
+	 * @param name case-insensitive name of the table
 	 * @return null if no such instance.
 	 */
-	Map<String, String> getTableDS(String name);
+	ILookupTable getTable(String name);
 }
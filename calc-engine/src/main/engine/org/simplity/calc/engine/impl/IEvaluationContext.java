@@ -0,0 +1,42 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.ICalcContext;
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * Internal extension of {@link ICalcContext} used by the engine components
+ * (expressions, calculators and validators) during a calculation run.
+ * <p>
+ * Every {@link IVariable} is assigned a dense integer slot when the engine is
+ * built. Components that are built along with the engine refer to variables by
+ * their slots, and hence avoid the name-based lookups. The name-based methods
+ * of {@link ICalcContext} continue to be available for custom functions.
+ */
+public interface IEvaluationContext extends ICalcContext {
+
+	/**
+	 * Check if the variable at this slot has a ready value in the context.
+	 *
+	 * @param slot slot assigned to the variable at build time
+	 * @return true if the variable has a ready value, false otherwise.
+	 */
+	boolean hasValue(int slot);
+
+	/**
+	 * Get the value for the variable at this slot. It is retrieved from the
+	 * current cache, failing which it is calculated based on the associated
+	 * calculator.
+	 *
+	 * @param slot slot assigned to the variable at build time
+	 * @return value, or null in case of any error in calculating it
+	 */
+	IValue determineValue(int slot);
+
+	/**
+	 * Value for the variable at this slot is cached for this run of calculation
+	 *
+	 * @param slot  slot assigned to the variable at build time
+	 * @param value
+	 */
+	void cacheValue(int slot, IValue value);
+}
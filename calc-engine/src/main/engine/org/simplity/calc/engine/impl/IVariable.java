@@ -14,6 +14,14 @@ public interface IVariable {
 	 */
 	String getName();
 
+	/**
+	 *
+	 * @return slot assigned to this variable at build time. Slots are dense,
+	 *         starting with 0, and are used to index variable values in a
+	 *         calculation context
+	 */
+	int getSlot();
+
 	/**
 	 *
 	 * @return true if this is an input field
@@ -81,7 +89,7 @@ public interface IVariable {
 	 * @param ctx
 	 * @return null in case of any unexpected error
 	 */
-	IValue evaluate(ICalcContext ctx);
+	IValue evaluate(IEvaluationContext ctx);
 
 	/**
 	 * check for any possible error for the dry run
@@ -0,0 +1,234 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The evaluation plans of an engine, partitioned into parts that are
+ * independent of each other, so that the parts can be evaluated concurrently.
+ * <p>
+ * Two variables are in the same part if one depends on the other, directly or
+ * indirectly, or if they are both required by another variable or by a
+ * validator. Required inputs are parsed before any evaluation, and they are
+ * only read thereafter. Hence they do not bind the variables that depend on
+ * them into a part.
+ * <p>
+ * The independent components are packed into parts, in the order of the plans,
+ * so that each part has at least the specified number of variables and
+ * validators. Small components are not worth the overhead of a task of their
+ * own.
+ *
+ * <h3>Thread Safety</h3> This class is immutable after construction, and hence
+ * thread-safe.
+ */
+final class ParallelPlan {
+	private static final int[] NONE = {};
+
+	/**
+	 * variables and validators that are evaluated together in a task
+	 */
+	static final class Part {
+		/**
+		 * variables to be evaluated before the validators, in that order
+		 */
+		final IVariable[] validatorPlan;
+		/**
+		 * indexes of the validators to be run
+		 */
+		final int[] validators;
+		/**
+		 * variables to be evaluated after the validators, in that order
+		 */
+		final IVariable[] outputPlan;
+
+		Part(IVariable[] validatorPlan, int[] validators, IVariable[] outputPlan) {
+			this.validatorPlan = validatorPlan;
+			this.validators = validators;
+			this.outputPlan = outputPlan;
+		}
+	}
+
+	private final Part[] parts;
+
+	private ParallelPlan(Part[] parts) {
+		this.parts = parts;
+	}
+
+	/**
+	 *
+	 * @param slots         all the variables, indexed by their slots
+	 * @param validatorPlan variables to be evaluated before the validators
+	 * @param nbrValidators number of validators
+	 * @param outputPlan    variables to be evaluated after the validators
+	 * @param graph         dependencies among the variables and the validators
+	 * @param minPartSize   minimum number of variables and validators in a part
+	 * @return null if there would be less than two parts
+	 */
+	static ParallelPlan newPlan(IVariable[] slots, IVariable[] validatorPlan, int nbrValidators,
+			IVariable[] outputPlan, DependencyGraph graph, int minPartSize) {
+		final int n = slots.length;
+		/*
+		 * union-find over the slots. The validators are given ids after the slots
+		 */
+		final int[] parents = new int[n + nbrValidators];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+		}
+
+		final BitSet cone = new BitSet(n);
+		graph.addCone(toSlots(validatorPlan), cone);
+		graph.addCone(toSlots(outputPlan), cone);
+		for (int i = 0; i < nbrValidators; i++) {
+			cone.or(graph.getValidatorCone(i));
+		}
+		for (int slot = cone.nextSetBit(0); slot >= 0; slot = cone.nextSetBit(slot + 1)) {
+			if (slots[slot].isRequiredInput()) {
+				continue;
+			}
+			for (int dep : graph.getDependencies(slot)) {
+				if (!slots[dep].isRequiredInput()) {
+					union(parents, slot, dep);
+				}
+			}
+		}
+		for (int i = 0; i < nbrValidators; i++) {
+			for (int dep : graph.getValidatorDependencies(i)) {
+				if (!slots[dep].isRequiredInput()) {
+					union(parents, n + i, dep);
+				}
+			}
+		}
+
+		/*
+		 * components, in the order in which they appear in the plans
+		 */
+		final Map<Integer, Component> components = new LinkedHashMap<>();
+		for (IVariable variable : validatorPlan) {
+			if (!variable.isRequiredInput()) {
+				getComponent(components, parents, variable.getSlot()).validatorPlan.add(variable);
+			}
+		}
+		for (int i = 0; i < nbrValidators; i++) {
+			getComponent(components, parents, n + i).validators.add(i);
+		}
+		for (IVariable variable : outputPlan) {
+			if (!variable.isRequiredInput()) {
+				getComponent(components, parents, variable.getSlot()).outputPlan.add(variable);
+			}
+		}
+
+		/*
+		 * pack them into parts of the minimum size
+		 */
+		final List<Component> packed = new ArrayList<>();
+		Component current = null;
+		for (Component component : components.values()) {
+			if (current == null) {
+				current = component;
+				continue;
+			}
+			if (current.size() >= minPartSize) {
+				packed.add(current);
+				current = component;
+				continue;
+			}
+			current.addAll(component);
+		}
+		if (current != null) {
+			if (current.size() < minPartSize && !packed.isEmpty()) {
+				packed.get(packed.size() - 1).addAll(current);
+			} else {
+				packed.add(current);
+			}
+		}
+
+		if (packed.size() < 2) {
+			return null;
+		}
+		final Part[] parts = new Part[packed.size()];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = packed.get(i).toPart();
+		}
+		return new ParallelPlan(parts);
+	}
+
+	/**
+	 *
+	 * @return parts that can be evaluated concurrently. Must not be modified.
+	 */
+	Part[] getParts() {
+		return this.parts;
+	}
+
+	private static int[] toSlots(IVariable[] variables) {
+		if (variables.length == 0) {
+			return NONE;
+		}
+		final int[] slots = new int[variables.length];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = variables[i].getSlot();
+		}
+		return slots;
+	}
+
+	private static int find(int[] parents, int i) {
+		int root = i;
+		while (parents[root] != root) {
+			root = parents[root];
+		}
+		// path compression
+		while (parents[i] != root) {
+			final int next = parents[i];
+			parents[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	private static void union(int[] parents, int a, int b) {
+		final int rootA = find(parents, a);
+		final int rootB = find(parents, b);
+		if (rootA != rootB) {
+			parents[rootB] = rootA;
+		}
+	}
+
+	private static Component getComponent(Map<Integer, Component> components, int[] parents, int id) {
+		return components.computeIfAbsent(find(parents, id), k -> new Component());
+	}
+
+	/**
+	 * a part that is being assembled
+	 */
+	private static final class Component {
+		final List<IVariable> validatorPlan = new ArrayList<>();
+		final List<Integer> validators = new ArrayList<>();
+		final List<IVariable> outputPlan = new ArrayList<>();
+
+		int size() {
+			return this.validatorPlan.size() + this.validators.size() + this.outputPlan.size();
+		}
+
+		/*
+		 * the components are independent. Hence the plans remain in a topological
+		 * order when they are appended
+		 */
+		void addAll(Component other) {
+			this.validatorPlan.addAll(other.validatorPlan);
+			this.validators.addAll(other.validators);
+			this.outputPlan.addAll(other.outputPlan);
+		}
+
+		Part toPart() {
+			final int[] indexes = new int[this.validators.size()];
+			for (int i = 0; i < indexes.length; i++) {
+				indexes[i] = this.validators.get(i);
+			}
+			return new Part(this.validatorPlan.toArray(new IVariable[0]), indexes,
+					this.outputPlan.toArray(new IVariable[0]));
+		}
+	}
+}
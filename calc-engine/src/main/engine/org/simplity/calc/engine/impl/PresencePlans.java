@@ -0,0 +1,198 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.simplity.calc.engine.api.CacheStatsDS;
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * The rules that are to be run for a set of optional inputs that are provided,
+ * remembered for every such set that is seen.
+ * <p>
+ * Most of the optional inputs are not provided in a typical calculation. An
+ * optional input that is not provided takes the value of its rule, and a
+ * variable, or a validator, that depends on no input other than the ones that
+ * are not provided, is then the same in every calculation with the same set of
+ * provided inputs. Hence, once a calculation with a set succeeds, the values of
+ * such variables are remembered for the set, and such validators are known to
+ * pass. Another calculation with the same set just copies these values into its
+ * context, and runs only the rest of the plans and the validators.
+ * <p>
+ * A variable whose rule calls a custom function that is not pure, or that
+ * depends on such a variable, is always evaluated. So is a validator that calls
+ * such a function, or that depends on such a variable.
+ *
+ * <h3>Thread Safety</h3> This class is thread-safe. Two calculations may learn
+ * the rules for the same set at the same time, and either of them is retained.
+ */
+final class PresencePlans {
+	// slots of the optional inputs. Their presence forms the signature
+	private final int[] optionalSlots;
+	// slots of the required inputs and of the impure variables
+	private final int[] variableRoots;
+	// validators that call a custom function that is not pure
+	private final BitSet impureValidators;
+	private final DependencyGraph graph;
+	private final int nbrSlots;
+	private final BoundedCache<BitSet, ActiveRules> cache;
+
+	private PresencePlans(int[] optionalSlots, int[] variableRoots, BitSet impureValidators, DependencyGraph graph,
+			int nbrSlots, int maxSignatures) {
+		this.optionalSlots = optionalSlots;
+		this.variableRoots = variableRoots;
+		this.impureValidators = impureValidators;
+		this.graph = graph;
+		this.nbrSlots = nbrSlots;
+		this.cache = new BoundedCache<>(maxSignatures, 0);
+	}
+
+	/**
+	 *
+	 * @param slots            all the variables, indexed by their slots
+	 * @param graph            dependencies among the variables and the
+	 *                         validators
+	 * @param impure           slots of the variables whose rules call a custom
+	 *                         function that is not pure
+	 * @param impureValidators indexes of the validators that call a custom
+	 *                         function that is not pure
+	 * @param maxSignatures    maximum number of sets of provided inputs for
+	 *                         which the rules are remembered
+	 * @return null if there are no optional inputs
+	 */
+	static PresencePlans newPlans(IVariable[] slots, DependencyGraph graph, BitSet impure, BitSet impureValidators,
+			int maxSignatures) {
+		final List<Integer> optional = new ArrayList<>();
+		final BitSet roots = (BitSet) impure.clone();
+		for (IVariable variable : slots) {
+			if (variable.isRequiredInput()) {
+				roots.set(variable.getSlot());
+			} else if (variable.isInput()) {
+				optional.add(variable.getSlot());
+			}
+		}
+		if (optional.isEmpty()) {
+			return null;
+		}
+		final int[] optionalSlots = new int[optional.size()];
+		for (int i = 0; i < optionalSlots.length; i++) {
+			optionalSlots[i] = optional.get(i);
+		}
+		return new PresencePlans(optionalSlots, roots.stream().toArray(), impureValidators, graph, slots.length,
+				maxSignatures);
+	}
+
+	/**
+	 *
+	 * @param ctx context in which the inputs are parsed
+	 * @return the optional inputs that are provided, in the order of their slots
+	 */
+	BitSet getSignature(IEvaluationContext ctx) {
+		final BitSet signature = new BitSet(this.optionalSlots.length);
+		for (int i = 0; i < this.optionalSlots.length; i++) {
+			if (ctx.hasValue(this.optionalSlots[i])) {
+				signature.set(i);
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 *
+	 * @param signature as returned by {@link #getSignature(IEvaluationContext)}
+	 * @return rules for the signature, or null if they are not known yet
+	 */
+	ActiveRules get(BitSet signature) {
+		return this.cache.get(signature);
+	}
+
+	/**
+	 * remember the rules for a signature, after a calculation with that signature
+	 * has succeeded
+	 *
+	 * @param signature     as returned by {@link #getSignature(IEvaluationContext)}
+	 * @param ctx           context of the successful calculation
+	 * @param validatorPlan all the variables to be evaluated before the
+	 *                      validators
+	 * @param validators    all the validators
+	 * @param outputPlan    all the variables to be evaluated after the
+	 *                      validators
+	 */
+	void learn(BitSet signature, IEvaluationContext ctx, IVariable[] validatorPlan, IValidator[] validators,
+			IVariable[] outputPlan) {
+		/*
+		 * variables that depend on a provided or on a required input, or on an impure
+		 * variable, vary from one calculation to the next
+		 */
+		final int[] roots = new int[this.variableRoots.length + signature.cardinality()];
+		System.arraycopy(this.variableRoots, 0, roots, 0, this.variableRoots.length);
+		int n = this.variableRoots.length;
+		for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+			roots[n++] = this.optionalSlots[i];
+		}
+		final BitSet variable = new BitSet(this.nbrSlots);
+		this.graph.addDependents(roots, variable);
+
+		final BitSet fixed = new BitSet(this.nbrSlots);
+		for (int slot = variable.nextClearBit(0); slot < this.nbrSlots; slot = variable.nextClearBit(slot + 1)) {
+			if (ctx.hasValue(slot)) {
+				fixed.set(slot);
+			}
+		}
+		final int[] fixedSlots = fixed.stream().toArray();
+		final IValue[] fixedValues = new IValue[fixedSlots.length];
+		for (int i = 0; i < fixedSlots.length; i++) {
+			fixedValues[i] = ctx.determineValue(fixedSlots[i]);
+		}
+
+		// a validator that depends only on the fixed values has passed already
+		final List<IValidator> activeValidators = new ArrayList<>();
+		for (int i = 0; i < validators.length; i++) {
+			if (this.impureValidators.get(i) || this.graph.getValidatorCone(i).intersects(variable)) {
+				activeValidators.add(validators[i]);
+			}
+		}
+		this.cache.put(signature,
+				new ActiveRules(EngineBuilder.exclude(validatorPlan, fixed), activeValidators.toArray(new IValidator[0]),
+						EngineBuilder.exclude(outputPlan, fixed), fixedSlots, fixedValues));
+	}
+
+	/**
+	 *
+	 * @return a snapshot of the statistics of the signatures that are looked up
+	 */
+	CacheStatsDS getStats() {
+		return this.cache.getStats();
+	}
+
+	/**
+	 * rules to be run for a signature, and the values that are the same for all
+	 * the calculations with that signature
+	 */
+	static final class ActiveRules {
+		final IVariable[] validatorPlan;
+		final IValidator[] validators;
+		final IVariable[] outputPlan;
+		private final int[] fixedSlots;
+		private final IValue[] fixedValues;
+
+		ActiveRules(IVariable[] validatorPlan, IValidator[] validators, IVariable[] outputPlan, int[] fixedSlots,
+				IValue[] fixedValues) {
+			this.validatorPlan = validatorPlan;
+			this.validators = validators;
+			this.outputPlan = outputPlan;
+			this.fixedSlots = fixedSlots;
+			this.fixedValues = fixedValues;
+		}
+
+		/**
+		 * copy the fixed values into a context in which the inputs are parsed
+		 */
+		void seed(IEvaluationContext ctx) {
+			for (int i = 0; i < this.fixedSlots.length; i++) {
+				ctx.cacheValue(this.fixedSlots[i], this.fixedValues[i]);
+			}
+		}
+	}
+}
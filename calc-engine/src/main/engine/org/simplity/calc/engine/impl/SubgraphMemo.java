@@ -0,0 +1,246 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * The values of a variable that depends only on a few boolean and enumerated
+ * inputs, remembered across calculations for every combination of the values
+ * of those inputs.
+ * <p>
+ * Every input in the dependency cone of the variable has a small number of
+ * possible values: false or true for a boolean, one of the values of an enum,
+ * and "not provided" for an optional input. Hence the combinations of the
+ * values of the inputs are numbered, and the value of the variable for each
+ * combination is held in a table of that size. A variable qualifies only if
+ * there are not too many combinations, and no rule in its cone calls a custom
+ * function that is not pure. The value is then always the same for the same
+ * combination, and the table is never invalidated.
+ * <p>
+ * A variable that is required only by other such variables need not be in the
+ * evaluation plans. It is evaluated on demand, only if the variable that
+ * requires it does not find its value in its table.
+ *
+ * <h3>Thread Safety</h3> This class is thread-safe. The table is shared by all
+ * the calculations. Two calculations may evaluate the same value at the same
+ * time, and either of them is retained.
+ */
+final class SubgraphMemo {
+	/*
+	 * slots of the inputs in the cone of the variable
+	 */
+	private final int[] inputSlots;
+	/*
+	 * for each input, ordinal of each of its enumerated values, starting from 1.
+	 * null for a boolean input
+	 */
+	private final Map<Object, Integer>[] ordinals;
+	/*
+	 * weight of each input in the number of a combination
+	 */
+	private final int[] weights;
+	/*
+	 * value of the variable by the number of the combination. null until it is
+	 * evaluated
+	 */
+	private final AtomicReferenceArray<IValue> table;
+
+	private SubgraphMemo(int[] inputSlots, Map<Object, Integer>[] ordinals, int[] weights, int nbrCombinations) {
+		this.inputSlots = inputSlots;
+		this.ordinals = ordinals;
+		this.weights = weights;
+		this.table = new AtomicReferenceArray<>(nbrCombinations);
+	}
+
+	/**
+	 * identify the variables that qualify to be memoized
+	 *
+	 * @param slots           all the variables, indexed by their slots
+	 * @param graph           dependencies among the variables
+	 * @param impure          slots of the variables whose rules call a custom
+	 *                        function that is not pure
+	 * @param builder         to get the values of the enums
+	 * @param maxCombinations maximum number of combinations of the input values
+	 *                        for a variable to qualify
+	 * @return memos indexed by the slots of the variables, with null for the
+	 *         variables that do not qualify. null if no variable qualifies.
+	 */
+	static SubgraphMemo[] newMemos(IVariable[] slots, DependencyGraph graph, BitSet impure, IEngineBuilder builder,
+			int maxCombinations) {
+		final SubgraphMemo[] memos = new SubgraphMemo[slots.length];
+		boolean found = false;
+		final BitSet cone = new BitSet(slots.length);
+		for (IVariable variable : slots) {
+			if (variable.isInput() || variable.getRule() == null) {
+				continue;
+			}
+			cone.clear();
+			graph.addCone(new int[] { variable.getSlot() }, cone);
+			final SubgraphMemo memo = newMemo(slots, cone, impure, builder, maxCombinations);
+			if (memo != null) {
+				memos[variable.getSlot()] = memo;
+				found = true;
+			}
+		}
+		return found ? memos : null;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static SubgraphMemo newMemo(IVariable[] slots, BitSet cone, BitSet impure, IEngineBuilder builder,
+			int maxCombinations) {
+		if (cone.intersects(impure)) {
+			return null;
+		}
+
+		final List<Integer> inputs = new ArrayList<>();
+		final List<Map<Object, Integer>> ordinals = new ArrayList<>();
+		final List<Integer> weights = new ArrayList<>();
+		long nbrCombinations = 1;
+		for (int slot = cone.nextSetBit(0); slot >= 0; slot = cone.nextSetBit(slot + 1)) {
+			final IVariable input = slots[slot];
+			if (!input.isInput()) {
+				continue;
+			}
+			final DataType type = input.getValueType().getDataType();
+			final int nbrValues;
+			Map<Object, Integer> map = null;
+			if (type == DataType.BOOLEAN) {
+				nbrValues = 2;
+			} else if (type == DataType.ENUM) {
+				final Set<String> values = builder.getEnumValues(input.getValueType().getValueTypeName());
+				if (values == null) {
+					return null;
+				}
+				map = new HashMap<>();
+				// in a sorted order, so that the numbering does not depend on the set
+				for (String value : new TreeSet<>(values)) {
+					map.put(value, map.size() + 1);
+				}
+				nbrValues = values.size();
+			} else {
+				return null;
+			}
+
+			inputs.add(slot);
+			ordinals.add(map);
+			weights.add((int) nbrCombinations);
+			// and one more for the input not being provided
+			nbrCombinations *= nbrValues + 1;
+			if (nbrCombinations > maxCombinations) {
+				return null;
+			}
+		}
+
+		final int n = inputs.size();
+		final int[] inputSlots = new int[n];
+		final int[] weightArray = new int[n];
+		for (int i = 0; i < n; i++) {
+			inputSlots[i] = inputs.get(i);
+			weightArray[i] = weights.get(i);
+		}
+		return new SubgraphMemo(inputSlots, ordinals.toArray(new Map[0]), weightArray, (int) nbrCombinations);
+	}
+
+	/**
+	 * variables that are memoized, and are required only by other memoized
+	 * variables. They need not be in the evaluation plans.
+	 *
+	 * @param memos         indexed by slots, as returned by
+	 *                      {@link #newMemos(IVariable[], DependencyGraph, BitSet, IEngineBuilder, int)}
+	 * @param slots         all the variables, indexed by their slots
+	 * @param graph         dependencies among the variables and the validators
+	 * @param nbrValidators number of validators
+	 * @return slots of such variables
+	 */
+	static BitSet getInterior(SubgraphMemo[] memos, IVariable[] slots, DependencyGraph graph, int nbrValidators) {
+		final BitSet interior = new BitSet(slots.length);
+		for (int slot = 0; slot < slots.length; slot++) {
+			if (memos[slot] == null || slots[slot].isOutput()) {
+				continue;
+			}
+			boolean required = false;
+			for (int dep : graph.getDependents(slot)) {
+				if (memos[dep] == null) {
+					required = true;
+					break;
+				}
+			}
+			if (!required) {
+				interior.set(slot);
+			}
+		}
+		for (int i = 0; i < nbrValidators; i++) {
+			for (int dep : graph.getValidatorDependencies(i)) {
+				interior.clear(dep);
+			}
+		}
+		return interior;
+	}
+
+	/**
+	 * get the value of the variable from the table, or evaluate it, if it is not
+	 * in the table yet.
+	 *
+	 * @param variable variable that this memo is for
+	 * @param ctx      context of the calculation
+	 * @return value, or null if it could not be evaluated
+	 */
+	IValue evaluate(IVariable variable, IEvaluationContext ctx) {
+		final int idx = this.getCombination(ctx);
+		if (idx < 0) {
+			return variable.evaluate(ctx);
+		}
+		IValue value = this.table.get(idx);
+		if (value != null) {
+			return value;
+		}
+
+		final boolean hadErrors = ctx.hasErrors();
+		value = variable.evaluate(ctx);
+		// a value that comes with an error is not the value for the combination
+		if (value != null && !hadErrors && !ctx.hasErrors()) {
+			this.table.lazySet(idx, value);
+		}
+		return value;
+	}
+
+	/**
+	 * number of the combination of the values of the inputs in the context. An
+	 * optional input may not be provided, but its value may have been evaluated
+	 * already. It is then taken as provided, as the value of the variable
+	 * depends only on the value of the input, and not on where it came from.
+	 *
+	 * @return -1 if a value is not one of the known ones
+	 */
+	private int getCombination(IEvaluationContext ctx) {
+		int idx = 0;
+		for (int i = 0; i < this.inputSlots.length; i++) {
+			final int slot = this.inputSlots[i];
+			if (!ctx.hasValue(slot)) {
+				continue;
+			}
+			final IValue value = ctx.determineValue(slot);
+			final int ordinal;
+			if (this.ordinals[i] == null) {
+				ordinal = value.getBooleanValue() ? 2 : 1;
+			} else {
+				final Integer o = this.ordinals[i].get(value.getValue());
+				if (o == null) {
+					return -1;
+				}
+				ordinal = o;
+			}
+			idx += ordinal * this.weights[i];
+		}
+		return idx;
+	}
+}
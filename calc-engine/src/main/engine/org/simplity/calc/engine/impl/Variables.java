@@ -21,10 +21,11 @@ public class Variables {
 	 *
 	 * @param element
 	 * @param name
+	 * @param slot          slot to be assigned to this variable
 	 * @param engineBuilder
 	 * @return an instance of IVariable, or null in case of any error
 	 */
-	static IVariable toVariable(DataElementDS element, String name, IEngineBuilder engineBuilder) {
+	static IVariable toVariable(DataElementDS element, String name, int slot, IEngineBuilder engineBuilder) {
 		boolean allOk = true;
 		// 1: type is required
 		ElementType eleType = null;
@@ -61,13 +62,12 @@ public class Variables {
 			if (valueType != null) {
 				if (ValueTypes.BOOLEAN.equals(valueType) || ValueTypes.BOOLEAN.equals(valueType)) {
 					parser = ValueParsers.BOOLEAN_VALIDATOR;
+				} else if (valueType.getDataType() == DataType.ARRAY) {
+					parser = ValueParsers.newArrayParser(engineBuilder.getDataStructure(valueType.getValueTypeName()));
 				} else if (valueType.getDataType() == DataType.ENUM) {
 					String enumName = valueType.getValueTypeName();
 					Set<String> values = engineBuilder.getEnumValues(enumName);
 					parser = new EnumParser(enumName, values);
-					engineBuilder.logError("schema name must be specified for an input data element", DATA_ELEMENT,
-							name);
-					allOk = false;
 				} else {
 					parser = engineBuilder.getValidator(element.schemaName);
 					if (parser == null) {
@@ -91,11 +91,27 @@ public class Variables {
 		}
 
 		if (allOk) {
-			return new Variable(name, eleType, valueType, parser, nbrDecimalPlaces, errorId);
+			return new Variable(name, slot, eleType, valueType, parser, nbrDecimalPlaces, errorId);
 		}
 		return null;
 	}
 
+	/**
+	 * build a variable that is not in the configuration, but is added by the
+	 * builder to hold a value that is shared by several rules
+	 *
+	 * @param name      name that can not clash with that of any data element
+	 * @param slot      slot to be assigned to this variable
+	 * @param valueType
+	 * @param rule      to calculate the value
+	 * @return an instance of IVariable
+	 */
+	static IVariable newInternalVariable(String name, int slot, IValueType valueType, ICalculator rule) {
+		final IVariable variable = new Variable(name, slot, ElementType.CALCULATED, valueType, null, 0, null);
+		variable.setRule(rule);
+		return variable;
+	}
+
 	private static class EnumParser implements IValueParser {
 		private final Set<String> values;
 		private final String enumName;
@@ -119,6 +135,7 @@ public class Variables {
 	private static class Variable implements IVariable {
 
 		private final String variableName;
+		private final int slot;
 		private final ElementType type;
 		private final IValueType valueType;
 		private final IValueParser parser;
@@ -139,14 +156,16 @@ public class Variables {
 		/**
 		 *
 		 * @param name
+		 * @param slot
 		 * @param type
 		 * @param valueType
 		 * @param parser
 		 * @param nbrDecimalPlaces
 		 */
-		protected Variable(String name, ElementType type, IValueType valueType, IValueParser parser,
+		protected Variable(String name, int slot, ElementType type, IValueType valueType, IValueParser parser,
 				int nbrDecimalPlaces, String errorId) {
 			this.variableName = name;
+			this.slot = slot;
 			this.type = type;
 			this.valueType = valueType;
 			this.parser = parser;
@@ -164,6 +183,11 @@ public class Variables {
 			return this.variableName;
 		}
 
+		@Override
+		public int getSlot() {
+			return this.slot;
+		}
+
 		@Override
 		public boolean isRequiredInput() {
 			return this.isRequiredInput;
@@ -229,7 +253,7 @@ public class Variables {
 		}
 
 		@Override
-		public IValue evaluate(ICalcContext ctx) {
+		public IValue evaluate(IEvaluationContext ctx) {
 			if (this.rule == null) {
 				ctx.logError(this.variableName,
 						"A rule is required for this variable if its value is to be evaluated at run time");
@@ -1,6 +1,7 @@
 package org.simplity.calc.engine.impl;
 
 import java.math.BigDecimal;
+import java.util.Set;
 
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.simplity.calc.engine.api.DataType;
@@ -42,6 +43,11 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 	 */
 	private String expressionReference;
 	private final IEngineBuilder engineBuilder;
+	/**
+	 * data structure of the rows that the arguments of an aggregate function are
+	 * evaluated for. null if the expression is not within such an argument.
+	 */
+	private DataStructure rowScope;
 
 	/**
 	 * Constructs the AstBuilder.
@@ -105,7 +111,14 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 		}
 
 		/*
-		 * 4. Look up the function for this operator
+		 * 4. logical operators evaluate the right operand only if required
+		 */
+		if (op.equals("&") || op.equals("|")) {
+			return new LogicalExpression(op.equals("&"), left, right);
+		}
+
+		/*
+		 * 5. Look up the function for this operator
 		 */
 		ICalcFunction function = this.engineBuilder.getFunction(op);
 
@@ -114,7 +127,7 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 					+ " is recognized as a valid operator, but it not fully implemented'";
 			return this.ExpressionInError(msg, leftType.getDataType());
 		}
-		return new FunctionExpression(function, new IExpression[] { left, right });
+		return FunctionExpression.newExpression(op, function, new IExpression[] { left, right });
 
 	}
 
@@ -143,13 +156,29 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 		}
 
 		ICalcFunction function = this.engineBuilder.getFunction(op);
-		return new FunctionExpression(function, new IExpression[] { operand });
+		return FunctionExpression.newExpression(op, function, new IExpression[] { operand });
 	}
 
 	@Override
 	public IExpression visitFuncExpr(CalcParser.FuncExprContext ctx) {
 
 		String functionName = ctx.ID().getText();
+		final String lowerName = functionName.toLowerCase();
+		if (ILookupTable.LOOKUP.equals(lowerName) || ILookupTable.EXISTS.equals(lowerName)) {
+			return this.buildLookup(lowerName, ctx);
+		}
+
+		/*
+		 * an aggregate over an array, like sum(donations, amount). A custom function
+		 * with the same name is called for any other argument
+		 */
+		IExpression first = null;
+		if (Aggregates.isAggregate(lowerName) && ctx.expr().size() > 0) {
+			first = this.visit(ctx.expr(0));
+			if (first.getValueType().getDataType() == DataType.ARRAY) {
+				return this.buildAggregate(lowerName, ctx, first);
+			}
+		}
 
 		ICalcFunction function = this.engineBuilder.getFunction(functionName);
 
@@ -157,6 +186,10 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 		 * defined?
 		 */
 		if (function == null) {
+			if (Aggregates.isAggregate(lowerName)) {
+				return this.ExpressionInError("Function: " + functionName + " expects an array as its first argument",
+						Aggregates.isBoolean(lowerName) ? DataType.BOOLEAN : DataType.NUMBER);
+			}
 			return this.ExpressionInError("function:" + functionName + " is not a valid function name",
 					DataType.NUMBER);
 		}
@@ -170,7 +203,7 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 
 		for (int i = 0; i < n; i++) {
 			ExprContext c = ctx.expr(i);
-			IExpression exp = this.visit(c);
+			IExpression exp = i == 0 && first != null ? first : this.visit(c);
 			arguments[i] = exp;
 			argTypes[i] = exp.getValueType().getDataType();
 		}
@@ -179,21 +212,117 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 		 * FunctionExpression validates the number and types of the argument
 		 */
 		try {
-			return new FunctionExpression(function, arguments);
+			return FunctionExpression.newExpression(functionName.toLowerCase(), function, arguments);
 		} catch (IllegalArgumentException e) {
 			return this.ExpressionInError("Function: " + functionName + " has invalid arguments. " + e.getMessage(),
 					function.getReturnType().getDataType());
 		}
 	}
 
+	/**
+	 * lookup('table', key, 'column') or exists('table', key): the table and the
+	 * column are resolved now, so that the function that is called just looks up
+	 * the key
+	 */
+	private IExpression buildLookup(String functionName, CalcParser.FuncExprContext ctx) {
+		final boolean isLookup = ILookupTable.LOOKUP.equals(functionName);
+		final DataType errorType = isLookup ? DataType.STRING : DataType.BOOLEAN;
+		final int nbrArgs = isLookup ? 3 : 2;
+		if (ctx.expr().size() != nbrArgs) {
+			return this.ExpressionInError(isLookup
+					? "Function: lookup expects 3 arguments: table name, key and column name"
+					: "Function: exists expects 2 arguments: table name and key", errorType);
+		}
+		IExpression[] arguments = new IExpression[nbrArgs];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = this.visit(ctx.expr(i));
+		}
+		final String tableName = getText(arguments[0]);
+		final String columnName = isLookup ? getText(arguments[2]) : "";
+		if (tableName == null || columnName == null) {
+			return this.ExpressionInError("Function: " + functionName
+					+ " expects the table name and the column name as string constants", errorType);
+		}
+		final ILookupTable table = this.engineBuilder.getTable(tableName);
+		if (table == null) {
+			return this.ExpressionInError("'" + tableName + "' is not a valid table name", errorType);
+		}
+		final ICalcFunction function;
+		if (isLookup) {
+			final int column = table.getColumn(columnName);
+			if (column == ILookupTable.NOT_FOUND) {
+				return this.ExpressionInError("'" + columnName + "' is not a column of table '" + tableName + "'",
+						errorType);
+			}
+			function = table.newLookupFunction(column);
+		} else {
+			function = table.newExistsFunction();
+		}
+		try {
+			return FunctionExpression.newExpression(functionName, function, arguments);
+		} catch (IllegalArgumentException e) {
+			return this.ExpressionInError("Function: " + functionName + " has invalid arguments. " + e.getMessage(),
+					function.getReturnType().getDataType());
+		}
+	}
+
+	/**
+	 * sum(array, value, condition) etc.. The arguments after the array are
+	 * evaluated for each of its rows, and hence the members of the row are in
+	 * scope for them
+	 */
+	private IExpression buildAggregate(String functionName, CalcParser.FuncExprContext ctx, IExpression array) {
+		final int n = ctx.expr().size();
+		final IExpression[] arguments = new IExpression[n];
+		arguments[0] = array;
+		final IValueType arrayType = array.getValueType();
+
+		final DataStructure outerScope = this.rowScope;
+		this.rowScope = this.engineBuilder.getDataStructure(arrayType.getValueTypeName());
+		try {
+			for (int i = 1; i < n; i++) {
+				arguments[i] = this.visit(ctx.expr(i));
+			}
+		} finally {
+			this.rowScope = outerScope;
+		}
+
+		try {
+			return FunctionExpression.newExpression(functionName, Aggregates.newFunction(functionName, arguments),
+					arguments);
+		} catch (IllegalArgumentException e) {
+			return this.ExpressionInError("Function: " + functionName + " has invalid arguments. " + e.getMessage(),
+					Aggregates.isBoolean(functionName) ? DataType.BOOLEAN : DataType.NUMBER);
+		}
+	}
+
+	/**
+	 * @return the text of a string constant. null if it is not one
+	 */
+	private static String getText(IExpression expression) {
+		if (expression instanceof LiteralExpression == false
+				|| expression.getValueType().getDataType() != DataType.STRING) {
+			return null;
+		}
+		return ((LiteralExpression) expression).getValue().getStringValue();
+	}
+
 	@Override
 	public IExpression visitVariableExpr(CalcParser.VariableExprContext ctx) {
 		String variableName = ctx.ID().getText();
+		if (this.rowScope != null) {
+			// a member of the row hides a variable with the same name
+			final int field = this.rowScope.getField(variableName);
+			if (field != -1) {
+				return new FieldExpression(this.rowScope.getFieldName(field), field,
+						this.rowScope.getFieldType(field));
+			}
+		}
 		IVariable variable = this.engineBuilder.getVariable(variableName);
 		if (variable == null) {
 			return this.ExpressionInError("Variable '" + variableName + "' is not defined.", DataType.NUMBER);
 		}
-		return new VariableExpression(variableName, variable.getValueType());
+		return new VariableExpression(variableName, variable.getSlot(), variable.getValueType());
 	}
 
 	@Override
@@ -214,7 +343,15 @@ final class AstBuilder extends CalcBaseVisitor<IExpression> {
 		} else if (ctx.BOOLEAN() != null) {
 			value = Values.newValue(Boolean.parseBoolean(ctx.BOOLEAN().getText()));
 		} else if (ctx.enumType != null) {
-			value = Values.newEnumeratedValue(ctx.enumType.getText(), ctx.enumName.getText());
+			// enum names and values are case-insensitive, as they are for the inputs
+			final String enumName = ctx.enumType.getText().toLowerCase();
+			final String enumValue = ctx.enumName.getText().toLowerCase();
+			final Set<String> enumValues = this.engineBuilder.getEnumValues(enumName);
+			if (enumValues == null || !enumValues.contains(enumValue)) {
+				return this.ExpressionInError("'" + ctx.getText() + "' is not a valid enumerated value",
+						DataType.STRING);
+			}
+			value = Values.newEnumeratedValue(enumName, enumValue);
 		} else {
 			return this.ExpressionInError("Literal type: " + ctx.getText() + " is not yet implemented",
 					DataType.NUMBER);
@@ -16,10 +16,12 @@ import org.simplity.calc.grammar.CalcParser;
 class ExpressionBuilder {
 	private final IEngineBuilder ctx;
 	private final AstBuilder astBuilder;
+	private final ExpressionOptimizer optimizer;
 
 	ExpressionBuilder(IEngineBuilder ctx) {
 		this.ctx = ctx;
 		this.astBuilder = new AstBuilder(ctx);
+		this.optimizer = new ExpressionOptimizer(ctx);
 	}
 
 	/**
@@ -66,13 +68,13 @@ class ExpressionBuilder {
 				return null;
 			}
 
-			if (expectedType != null && expression.getValueType() != expectedType) {
+			if (expectedType != null && !expectedType.equals(expression.getValueType())) {
 				this.ctx.logError("Expression: '" + expressionString + "' returns a value of type "
 						+ expression.getValueType().getDataTypeName().toLowerCase() + ". A "
 						+ expectedType.getDataTypeName() + " is expected", "expression", variableName);
 				return null;
 			}
-			return expression;
+			return this.optimizer.optimize(expression);
 		} catch (RecognitionException | IllegalArgumentException e) {
 			this.ctx.logError(variableName, "rule", "Expression '" + expressionString + "' is not a valid expression");
 			return null;
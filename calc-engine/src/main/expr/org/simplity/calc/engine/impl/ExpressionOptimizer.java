@@ -0,0 +1,247 @@
+package org.simplity.calc.engine.impl;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * Simplifies a type-checked {@link IExpression} tree at build time, so that
+ * there is less work for every calculation run.
+ * <ul>
+ * <li>A call to a built-in function with only literal arguments is folded into
+ * a literal.</li>
+ * <li>Literals in a chain of {@code +} or {@code *} are combined, as in
+ * {@code base_salary * 0.1 * 12} to {@code base_salary * 1.2}.</li>
+ * <li>{@code !!x} is reduced to {@code x}.</li>
+ * <li>{@code x & true}, {@code x | false} and their mirrors are reduced to
+ * {@code x}, while {@code false & x} and {@code true | x} are reduced to the
+ * literal.</li>
+ * <li>{@code x * 1} and {@code x + 0} are reduced to {@code x}, when the scale
+ * of {@code x} is known not to be changed by it.</li>
+ * </ul>
+ *
+ * <h3>Design Note</h3> Only the built-in functions are known to be free of
+ * side effects and to return the same value for the same arguments. Hence calls
+ * to custom functions are never folded. All the arithmetic is exact with
+ * {@link BigDecimal}, and hence re-grouping the literals in a chain does not
+ * alter the value, or its scale.
+ */
+final class ExpressionOptimizer {
+	private static final String NOT = "!";
+	private static final String ADD = "+";
+	private static final String MULTIPLY = "*";
+
+	private final IEngineBuilder engineBuilder;
+
+	ExpressionOptimizer(IEngineBuilder engineBuilder) {
+		this.engineBuilder = engineBuilder;
+	}
+
+	/**
+	 *
+	 * @param expression non-null, type-checked expression
+	 * @return an equivalent expression, possibly the same instance
+	 */
+	IExpression optimize(IExpression expression) {
+		if (expression instanceof LogicalExpression) {
+			return this.optimizeLogical((LogicalExpression) expression);
+		}
+
+		if (expression instanceof FunctionExpression == false) {
+			return expression;
+		}
+
+		final FunctionExpression fe = (FunctionExpression) expression;
+		final IExpression[] args = fe.getArguments();
+		final IExpression[] optimizedArgs = new IExpression[args.length];
+		boolean changed = false;
+		boolean allLiterals = true;
+		for (int i = 0; i < args.length; i++) {
+			optimizedArgs[i] = this.optimize(args[i]);
+			if (optimizedArgs[i] != args[i]) {
+				changed = true;
+			}
+			if (optimizedArgs[i] instanceof LiteralExpression == false) {
+				allLiterals = false;
+			}
+		}
+
+		final String name = fe.getFunctionName();
+		final ICalcFunction function = fe.getFunction();
+		if (allLiterals && BuiltinFunctions.isBuiltin(function)) {
+			IExpression folded = fold(function, optimizedArgs);
+			if (folded != null) {
+				return folded;
+			}
+		}
+
+		FunctionExpression optimized = fe;
+		if (changed) {
+			optimized = FunctionExpression.newExpression(name, function, optimizedArgs);
+		}
+
+		switch (name) {
+		case NOT:
+			return simplifyNot(optimized, optimizedArgs[0]);
+		case ADD:
+		case MULTIPLY:
+			return this.simplifyArithmetic(optimized);
+		default:
+			return optimized;
+		}
+	}
+
+	private static IExpression fold(ICalcFunction function, IExpression[] args) {
+		final IValue[] values = new IValue[args.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = ((LiteralExpression) args[i]).getValue();
+		}
+		try {
+			IValue value = function.call(values, null);
+			if (value == null) {
+				return null;
+			}
+			return new LiteralExpression(value);
+		} catch (RuntimeException e) {
+			/*
+			 * like a division by zero. Leave it as it is, so that the error surfaces at
+			 * run time, just as it would without this optimization
+			 */
+			return null;
+		}
+	}
+
+	/**
+	 * !!x => x
+	 */
+	private static IExpression simplifyNot(FunctionExpression expression, IExpression operand) {
+		if (operand instanceof FunctionExpression && NOT.equals(((FunctionExpression) operand).getFunctionName())) {
+			return ((FunctionExpression) operand).getArguments()[0];
+		}
+		return expression;
+	}
+
+	/**
+	 * identity and short-circuit elements for & and |
+	 */
+	private IExpression optimizeLogical(LogicalExpression expression) {
+		final boolean isAnd = expression.isAnd();
+		final IExpression left = this.optimize(expression.getLeft());
+		final IExpression right = this.optimize(expression.getRight());
+		if (left instanceof LiteralExpression) {
+			// true & x => x, false & x => false, false | x => x, true | x => true
+			if (getBoolean(left) == isAnd) {
+				return right;
+			}
+			return left;
+		}
+		if (right instanceof LiteralExpression && getBoolean(right) == isAnd) {
+			// x & true => x, x | false => x
+			return left;
+		}
+		if (left == expression.getLeft() && right == expression.getRight()) {
+			return expression;
+		}
+		return new LogicalExpression(isAnd, left, right);
+	}
+
+	private static boolean getBoolean(IExpression literal) {
+		return ((LiteralExpression) literal).getValue().getBooleanValue();
+	}
+
+	/**
+	 * combine the literals in a chain of the same operator, and then drop the
+	 * identity element
+	 */
+	private IExpression simplifyArithmetic(FunctionExpression expression) {
+		final String name = expression.getFunctionName();
+		final ICalcFunction function = expression.getFunction();
+		final List<IExpression> operands = new ArrayList<>();
+		flatten(expression, name, operands);
+
+		IValue constant = null;
+		int nbrLiterals = 0;
+		final List<IExpression> others = new ArrayList<>();
+		for (IExpression operand : operands) {
+			if (operand instanceof LiteralExpression) {
+				IValue value = ((LiteralExpression) operand).getValue();
+				constant = constant == null ? value : function.call(new IValue[] { constant, value }, null);
+				nbrLiterals++;
+			} else {
+				others.add(operand);
+			}
+		}
+
+		if (constant == null) {
+			return expression;
+		}
+
+		final BigDecimal identity = MULTIPLY.equals(name) ? BigDecimal.ONE : BigDecimal.ZERO;
+		final boolean isIdentity = constant.getNumberValue().equals(identity);
+		if (nbrLiterals == 1 && !isIdentity) {
+			// nothing to combine
+			return expression;
+		}
+
+		IExpression result = others.get(0);
+		for (int i = 1; i < others.size(); i++) {
+			result = FunctionExpression.newExpression(name, function,
+					new IExpression[] { result, others.get(i) });
+		}
+
+		if (isIdentity && this.isScaleNonNegative(result)) {
+			return result;
+		}
+		return FunctionExpression.newExpression(name, function,
+				new IExpression[] { result, new LiteralExpression(constant) });
+	}
+
+	private static void flatten(IExpression expression, String name, List<IExpression> operands) {
+		if (expression instanceof FunctionExpression && name.equals(((FunctionExpression) expression).getFunctionName())) {
+			for (IExpression arg : ((FunctionExpression) expression).getArguments()) {
+				flatten(arg, name, operands);
+			}
+			return;
+		}
+		operands.add(expression);
+	}
+
+	/**
+	 * A number with a negative scale, like 2E+3 from a division, is not equal to
+	 * 2E+3 + 0 (which is 2000) as per {@link BigDecimal#equals(Object)}. Identity
+	 * elements are dropped only if the expression can not have a negative scale.
+	 */
+	private boolean isScaleNonNegative(IExpression expression) {
+		if (expression instanceof LiteralExpression) {
+			return ((LiteralExpression) expression).getValue().getNumberValue().scale() >= 0;
+		}
+
+		if (expression instanceof VariableExpression) {
+			// required inputs are always parsed with a non-negative scale
+			IVariable variable = this.engineBuilder.getVariable(((VariableExpression) expression).getVariableName());
+			return variable != null && variable.isRequiredInput();
+		}
+
+		if (expression instanceof FunctionExpression) {
+			FunctionExpression fe = (FunctionExpression) expression;
+			switch (fe.getFunctionName()) {
+			case "+":
+			case "-":
+			case "*":
+			case "unary-":
+				for (IExpression arg : fe.getArguments()) {
+					if (!this.isScaleNonNegative(arg)) {
+						return false;
+					}
+				}
+				return true;
+			default:
+				return false;
+			}
+		}
+		return false;
+	}
+}
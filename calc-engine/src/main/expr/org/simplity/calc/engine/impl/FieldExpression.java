@@ -0,0 +1,65 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+
+/**
+ * An immutable expression that represents a member of the row of an array, as
+ * in <code>amount</code> within <code>sum(donees, amount)</code>. It is valid
+ * only within the arguments of an aggregate function that evaluates them for
+ * each of the rows. The index of the member in the row is resolved when the
+ * expression is built.
+ *
+ * <h3>Thread Safety</h3> This class is immutable and therefore inherently
+ * thread-safe.
+ */
+final class FieldExpression implements IExpression {
+	private final String fieldName;
+	private final int field;
+	private final IValueType valueType;
+
+	/**
+	 *
+	 * @param fieldName name of the member
+	 * @param field     index of the member in the row
+	 * @param valueType value type of the member
+	 */
+	FieldExpression(String fieldName, int field, IValueType valueType) {
+		this.fieldName = fieldName;
+		this.field = field;
+		this.valueType = valueType;
+	}
+
+	@Override
+	public IValueType getValueType() {
+		return this.valueType;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @param ctx the context of the row that is being aggregated
+	 */
+	@Override
+	public IValue evaluate(IEvaluationContext ctx) {
+		return ((Aggregates.RowContext) ctx).getField(this.field);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * A member is always available in its row
+	 */
+	@Override
+	public boolean dryrun(DryrunContext ctx) {
+		return true;
+	}
+
+	/**
+	 *
+	 * @return name of the member
+	 */
+	String getFieldName() {
+		return this.fieldName;
+	}
+}
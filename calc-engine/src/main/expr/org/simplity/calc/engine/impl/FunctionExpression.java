@@ -1,7 +1,6 @@
 package org.simplity.calc.engine.impl;
 
 import org.simplity.calc.engine.api.DataType;
-import org.simplity.calc.engine.api.ICalcContext;
 import org.simplity.calc.engine.api.ICalcFunction;
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.IValueType;
@@ -20,30 +19,65 @@ import org.simplity.calc.engine.api.IValueType;
  * arguments are not valid, ensuring that no invalid {@code FunctionExpression}
  * object can be created.
  *
+ * <h3>Design Note: Arity</h3> Most of the calls are to operators with one or
+ * two arguments. Instances are created with
+ * {@link #newExpression(String, ICalcFunction, IExpression[])} that returns a
+ * specialized sub-class for calls with one, two or three arguments. These
+ * evaluate the arguments into local variables and use the fixed-arity methods of
+ * {@link ICalcFunction}, like {@link ICalcFunction#call2}, so that no array of
+ * arguments is created for every evaluation.
+ *
  * <h3>Thread Safety</h3> This class is immutable and therefore inherently
  * thread-safe.
  *
  * @author Simplity Technologies
  * @since 1.0
  */
-public final class FunctionExpression implements IExpression {
-	private final ICalcFunction function;
-	private final IExpression[] arguments;
+public class FunctionExpression implements IExpression {
+	private final String functionName;
+	protected final ICalcFunction function;
+	protected final IExpression[] arguments;
 	private final IValueType returnType;
+	/*
+	 * non-null if the function evaluates its arguments on demand
+	 */
+	private final ILazyFunction lazyFunction;
 
 	/**
-	 * Constructs a new FunctionExpression and validates it against the function's
+	 * Creates a new FunctionExpression and validates it against the function's
 	 * signature.
 	 *
-	 * @param function  The non-null {@link ICalcFunction} to be executed.
-	 * @param arguments A non-null array of {@link IExpression}s.
+	 * @param functionName The non-null name with which the function is registered.
+	 *                     Operators are named by their symbols, like "+"
+	 * @param function     The non-null {@link ICalcFunction} to be executed.
+	 * @param arguments    A non-null array of {@link IExpression}s.
+	 * @return an instance that is specialized for the number of arguments, if
+	 *         possible
 	 * @throws IllegalArgumentException if the arguments violate the signature
 	 *                                  defined by the function.
 	 */
-	FunctionExpression(ICalcFunction function, IExpression[] arguments) {
+	static FunctionExpression newExpression(String functionName, ICalcFunction function, IExpression[] arguments) {
+		if (function instanceof ILazyFunction) {
+			return new FunctionExpression(functionName, function, arguments);
+		}
+		switch (arguments.length) {
+		case 1:
+			return new UnaryExpression(functionName, function, arguments);
+		case 2:
+			return new BinaryExpression(functionName, function, arguments);
+		case 3:
+			return new TernaryExpression(functionName, function, arguments);
+		default:
+			return new FunctionExpression(functionName, function, arguments);
+		}
+	}
+
+	private FunctionExpression(String functionName, ICalcFunction function, IExpression[] arguments) {
+		this.functionName = functionName;
 		this.function = function;
 		this.arguments = arguments;
 		this.returnType = function.getReturnType();
+		this.lazyFunction = function instanceof ILazyFunction ? (ILazyFunction) function : null;
 		this.validate();
 	}
 
@@ -107,7 +141,7 @@ public final class FunctionExpression implements IExpression {
 	 * @throws IllegalArgumentException if the types are not compatible.
 	 */
 	private static void matchValueType(IValueType expectedType, IValueType actualType, int position) {
-		if (expectedType == null || expectedType == actualType) {
+		if (expectedType == null || expectedType.equals(actualType)) {
 			return;
 		}
 		throw new IllegalArgumentException("Argument at position " + position + " should be of type "
@@ -120,7 +154,10 @@ public final class FunctionExpression implements IExpression {
 	}
 
 	@Override
-	public IValue evaluate(ICalcContext ctx) {
+	public IValue evaluate(IEvaluationContext ctx) {
+		if (this.lazyFunction != null) {
+			return this.lazyFunction.callLazily(this.arguments, ctx);
+		}
 		final IValue[] argValues = new IValue[this.arguments.length];
 		for (int i = 0; i < this.arguments.length; i++) {
 			argValues[i] = this.arguments[i].evaluate(ctx);
@@ -130,12 +167,33 @@ public final class FunctionExpression implements IExpression {
 
 	@Override
 	public boolean dryrun(DryrunContext ctx) {
-		for (IExpression e : this.arguments) {
-			if (!e.dryrun(ctx)) {
-				return false;
+		if (this.lazyFunction == null) {
+			for (IExpression e : this.arguments) {
+				if (!e.dryrun(ctx)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// only the first argument of a lazy function is sure to be evaluated
+		if (this.arguments.length == 0) {
+			return true;
+		}
+		if (!this.arguments[0].dryrun(ctx)) {
+			return false;
+		}
+		ctx.beginConditional();
+		try {
+			for (int i = 1; i < this.arguments.length; i++) {
+				if (!this.arguments[i].dryrun(ctx)) {
+					return false;
+				}
 			}
+			return true;
+		} finally {
+			ctx.endConditional();
 		}
-		return true;
 	}
 
 	/**
@@ -147,4 +205,74 @@ public final class FunctionExpression implements IExpression {
 	public IExpression[] getArguments() {
 		return this.arguments;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Gets the name with which the function is registered. Operators are named by
+	 * their symbols, like "+" and "unary-"
+	 *
+	 * @return non-null name of the function, in lower case
+	 */
+	public String getFunctionName() {
+		return this.functionName;
+	}
+
+	/**
+	 * Gets the function that this expression executes.
+	 *
+	 * @return non-null function
+	 */
+	public ICalcFunction getFunction() {
+		return this.function;
+	}
+
+	private static final class UnaryExpression extends FunctionExpression {
+		private final IExpression arg;
+
+		protected UnaryExpression(String functionName, ICalcFunction function, IExpression[] arguments) {
+			super(functionName, function, arguments);
+			this.arg = arguments[0];
+		}
+
+		@Override
+		public IValue evaluate(IEvaluationContext ctx) {
+			return this.function.call1(this.arg.evaluate(ctx), ctx);
+		}
+	}
+
+	private static final class BinaryExpression extends FunctionExpression {
+		private final IExpression arg1;
+		private final IExpression arg2;
+
+		protected BinaryExpression(String functionName, ICalcFunction function, IExpression[] arguments) {
+			super(functionName, function, arguments);
+			this.arg1 = arguments[0];
+			this.arg2 = arguments[1];
+		}
+
+		@Override
+		public IValue evaluate(IEvaluationContext ctx) {
+			final IValue value1 = this.arg1.evaluate(ctx);
+			return this.function.call2(value1, this.arg2.evaluate(ctx), ctx);
+		}
+	}
+
+	private static final class TernaryExpression extends FunctionExpression {
+		private final IExpression arg1;
+		private final IExpression arg2;
+		private final IExpression arg3;
+
+		protected TernaryExpression(String functionName, ICalcFunction function, IExpression[] arguments) {
+			super(functionName, function, arguments);
+			this.arg1 = arguments[0];
+			this.arg2 = arguments[1];
+			this.arg3 = arguments[2];
+		}
+
+		@Override
+		public IValue evaluate(IEvaluationContext ctx) {
+			final IValue value1 = this.arg1.evaluate(ctx);
+			final IValue value2 = this.arg2.evaluate(ctx);
+			return this.function.call3(value1, value2, this.arg3.evaluate(ctx), ctx);
+		}
+	}
+}
@@ -1,7 +1,6 @@
 package org.simplity.calc.engine.impl;
 
 import org.simplity.calc.engine.api.DataType;
-import org.simplity.calc.engine.api.ICalcContext;
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.IValueType;
 
@@ -62,7 +61,7 @@ public interface IExpression {
 	 *            runtime data. Must not be null.
 	 * @return The resulting {@link IValue} of the evaluation. Will not be null.
 	 */
-	IValue evaluate(ICalcContext ctx);
+	IValue evaluate(IEvaluationContext ctx);
 
 	/**
 	 * Performs a "dry run" to check if this expression can be successfully
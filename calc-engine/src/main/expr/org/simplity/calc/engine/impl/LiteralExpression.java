@@ -1,6 +1,5 @@
 package org.simplity.calc.engine.impl;
 
-import org.simplity.calc.engine.api.ICalcContext;
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.IValueType;
 
@@ -49,7 +48,7 @@ public final class LiteralExpression implements IExpression {
 	 * ignored.
 	 */
 	@Override
-	public IValue evaluate(ICalcContext ctx) {
+	public IValue evaluate(IEvaluationContext ctx) {
 		return this.value;
 	}
 
@@ -63,4 +62,13 @@ public final class LiteralExpression implements IExpression {
 	public boolean dryrun(DryrunContext ctx) {
 		return true;
 	}
+
+	/**
+	 * Gets the constant value this expression represents.
+	 *
+	 * @return non-null value
+	 */
+	public IValue getValue() {
+		return this.value;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+
+/**
+ * An immutable expression for the logical operators '&amp;' and '|'. Unlike a
+ * {@link FunctionExpression}, the right operand is evaluated only if the left
+ * operand does not decide the result.
+ * <p>
+ * Since the right operand may not be evaluated at all, the variables it refers
+ * to are dry-run as conditional dependencies. Such variables are not included
+ * in the static evaluation plan, unless they are required elsewhere, and are
+ * evaluated on demand.
+ *
+ * <h3>Thread Safety</h3> This class is immutable and therefore inherently
+ * thread-safe.
+ */
+public final class LogicalExpression implements IExpression {
+	private final boolean isAnd;
+	private final IExpression left;
+	private final IExpression right;
+
+	/**
+	 *
+	 * @param isAnd true for '&amp;', false for '|'
+	 * @param left  non-null boolean expression
+	 * @param right non-null boolean expression
+	 */
+	LogicalExpression(boolean isAnd, IExpression left, IExpression right) {
+		this.isAnd = isAnd;
+		this.left = left;
+		this.right = right;
+	}
+
+	@Override
+	public IValueType getValueType() {
+		return ValueTypes.BOOLEAN;
+	}
+
+	@Override
+	public IValue evaluate(IEvaluationContext ctx) {
+		final IValue value = this.left.evaluate(ctx);
+		if (value == null) {
+			return null;
+		}
+		// false & x is false, and true | x is true
+		if (value.getBooleanValue() != this.isAnd) {
+			return value;
+		}
+		return this.right.evaluate(ctx);
+	}
+
+	@Override
+	public boolean dryrun(DryrunContext ctx) {
+		if (!this.left.dryrun(ctx)) {
+			return false;
+		}
+		ctx.beginConditional();
+		try {
+			return this.right.dryrun(ctx);
+		} finally {
+			ctx.endConditional();
+		}
+	}
+
+	/**
+	 *
+	 * @return true if this is '&amp;', false if it is '|'
+	 */
+	public boolean isAnd() {
+		return this.isAnd;
+	}
+
+	/**
+	 *
+	 * @return the operand that is always evaluated
+	 */
+	public IExpression getLeft() {
+		return this.left;
+	}
+
+	/**
+	 *
+	 * @return the operand that is evaluated only if the left one does not decide
+	 *         the result
+	 */
+	public IExpression getRight() {
+		return this.right;
+	}
+}
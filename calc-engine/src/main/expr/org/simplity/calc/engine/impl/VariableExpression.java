@@ -1,7 +1,6 @@
 package org.simplity.calc.engine.impl;
 
 import org.simplity.calc.engine.api.DataType;
-import org.simplity.calc.engine.api.ICalcContext;
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.IValueType;
 
@@ -11,7 +10,9 @@ import org.simplity.calc.engine.api.IValueType;
  * <p>
  * This expression holds the name of a variable. For static analysis to work,
  * the {@link DataType} of the variable is determined when the expression tree
- * is built and is stored within this object.
+ * is built and is stored within this object. The slot assigned to the variable
+ * is also stored, so that its value is accessed from the context without a
+ * name-based lookup.
  *
  * <h3>Thread Safety</h3> This class is immutable and therefore inherently
  * thread-safe.
@@ -19,6 +20,7 @@ import org.simplity.calc.engine.api.IValueType;
  */
 public final class VariableExpression implements IExpression {
 	private final String variableName;
+	private final int slot;
 	private final IValueType valueType;
 
 	/**
@@ -26,10 +28,12 @@ public final class VariableExpression implements IExpression {
 	 *
 	 * @param variableName The non-null name of the variable this expression refers
 	 *                     to.
+	 * @param slot         The slot assigned to this variable at build time.
 	 * @param valueType    The non-null, predetermined type of this variable.
 	 */
-	public VariableExpression(String variableName, IValueType valueType) {
+	public VariableExpression(String variableName, int slot, IValueType valueType) {
 		this.variableName = variableName;
+		this.slot = slot;
 		this.valueType = valueType;
 	}
 
@@ -54,9 +58,9 @@ public final class VariableExpression implements IExpression {
 	 * @throws RuntimeException if the variable is not found in the context.
 	 */
 	@Override
-	public IValue evaluate(ICalcContext ctx) {
+	public IValue evaluate(IEvaluationContext ctx) {
 		// The context's implementation is expected to handle missing variables.
-		return ctx.determineValue(this.variableName);
+		return ctx.determineValue(this.slot);
 	}
 
 	/**
@@ -79,4 +83,13 @@ public final class VariableExpression implements IExpression {
 	public String getVariableName() {
 		return this.variableName;
 	}
+
+	/**
+	 * Gets the slot assigned to the variable this expression represents.
+	 *
+	 * @return slot of the variable
+	 */
+	public int getSlot() {
+		return this.slot;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,377 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.ICalcContext;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+
+/**
+ * Aggregate functions over the rows of an array. The first argument of each is
+ * the array. The other arguments are expressions that are evaluated for each of
+ * the rows, and they refer to the members of the row by their names:
+ * <ul>
+ * <li><code>sum(array, value)</code>, <code>sum(array, value, condition)</code>:
+ * total of a number</li>
+ * <li><code>count(array)</code>, <code>count(array, condition)</code>: number
+ * of rows</li>
+ * <li><code>min(array, value)</code>, <code>max(array, value)</code>, each with
+ * an optional condition: least or the greatest of a number, a date or a
+ * string</li>
+ * <li><code>any(array, condition)</code>, <code>all(array, condition)</code>:
+ * whether the condition is true for any or for all of the rows</li>
+ * <li><code>isDistinct(array, key)</code>: whether no two rows have the same
+ * key, like the PAN of a donee</li>
+ * <li><code>countDistinct(array, key)</code>: number of different keys</li>
+ * <li><code>duplicates(array, key)</code>: number of rows with a key that is
+ * already in an earlier row</li>
+ * </ul>
+ * Only the rows for which the condition is true, if it is specified, are
+ * aggregated, as in <code>sum(tds, amount, deducted_on &gt;= fy_start)</code>.
+ * <p>
+ * The rows are aggregated in a single pass, without collecting the values or
+ * the rows that pass the condition. <code>min</code> and <code>max</code> over
+ * no rows is an error. The keys, a string or an enum, are checked for
+ * duplicates with a {@link StringHashSet}, and hence in a time that is linear
+ * with the number of rows.
+ * <p>
+ * These names are not reserved. A call whose first argument is not an array is
+ * made to the custom function with that name, if there is one.
+ *
+ * <h3>Thread Safety</h3> The functions are immutable and therefore inherently
+ * thread-safe. A context for the rows is created for each call.
+ */
+final class Aggregates {
+	private static final String SUM = "sum";
+	private static final String COUNT = "count";
+	private static final String MIN = "min";
+	private static final String MAX = "max";
+	private static final String ANY = "any";
+	private static final String ALL = "all";
+	private static final String IS_DISTINCT = "isdistinct";
+	private static final String COUNT_DISTINCT = "countdistinct";
+	private static final String DUPLICATES = "duplicates";
+	private static final String NO_ROWS = "There are no rows to find the least or the greatest value";
+
+	private Aggregates() {
+		// not to be instantiated
+	}
+
+	/**
+	 *
+	 * @param functionName in lower case
+	 * @return true if this is the name of an aggregate function
+	 */
+	static boolean isAggregate(String functionName) {
+		switch (functionName) {
+		case SUM:
+		case COUNT:
+		case MIN:
+		case MAX:
+		case ANY:
+		case ALL:
+		case IS_DISTINCT:
+		case COUNT_DISTINCT:
+		case DUPLICATES:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @param functionName name of an aggregate function, in lower case
+	 * @return true if the function returns a boolean
+	 */
+	static boolean isBoolean(String functionName) {
+		return functionName.equals(ANY) || functionName.equals(ALL) || functionName.equals(IS_DISTINCT);
+	}
+
+	/**
+	 *
+	 * @param functionName name of an aggregate function, in lower case
+	 * @param arguments    the array, followed by the expressions that are
+	 *                     evaluated for each row
+	 * @return function for these arguments
+	 * @throws IllegalArgumentException if the arguments are not valid for the
+	 *                                  function
+	 */
+	static ILazyFunction newFunction(String functionName, IExpression[] arguments) {
+		final int n = arguments.length;
+		final IValueType[] types = new IValueType[n];
+		for (int i = 0; i < n; i++) {
+			types[i] = arguments[i].getValueType();
+		}
+		if (n == 0 || types[0].getDataType() != DataType.ARRAY) {
+			throw new IllegalArgumentException("The first argument should be an array.");
+		}
+
+		final boolean hasValue;
+		final IValueType returnType;
+		switch (functionName) {
+		case SUM:
+			hasValue = true;
+			returnType = ValueTypes.NUMBER;
+			break;
+		case COUNT:
+			hasValue = false;
+			returnType = ValueTypes.NUMBER;
+			break;
+		case MIN:
+		case MAX:
+			hasValue = true;
+			returnType = n > 1 ? types[1] : null;
+			break;
+		case IS_DISTINCT:
+			hasValue = true;
+			returnType = ValueTypes.BOOLEAN;
+			break;
+		case COUNT_DISTINCT:
+		case DUPLICATES:
+			hasValue = true;
+			returnType = ValueTypes.NUMBER;
+			break;
+		default:
+			hasValue = false;
+			returnType = ValueTypes.BOOLEAN;
+			if (n != 2) {
+				throw new IllegalArgumentException("Function expects 2 arguments: the array and the condition.");
+			}
+		}
+
+		final int first = hasValue ? 2 : 1;
+		if (n < first || n > first + 1) {
+			throw new IllegalArgumentException(hasValue ? "Function expects the array, the value and an optional condition."
+					: "Function expects the array and an optional condition.");
+		}
+		if (n > first && !ValueTypes.BOOLEAN.equals(types[first])) {
+			throw new IllegalArgumentException("The condition should be a boolean expression.");
+		}
+		if (hasValue) {
+			final DataType dt = types[1].getDataType();
+			final String expected;
+			switch (functionName) {
+			case SUM:
+				expected = dt == DataType.NUMBER ? null : "a number.";
+				break;
+			case MIN:
+			case MAX:
+				expected = dt == DataType.NUMBER || dt == DataType.DATE || dt == DataType.STRING ? null
+						: "a number, date or string.";
+				break;
+			default:
+				expected = dt == DataType.STRING || dt == DataType.ENUM ? null : "a string or an enum.";
+			}
+			if (expected != null) {
+				throw new IllegalArgumentException("The value should be " + expected);
+			}
+		}
+		return new AggregateFunction(functionName, returnType, types, hasValue ? 1 : -1, n > first ? first : -1);
+	}
+
+	/**
+	 * context in which the expressions are evaluated for a row. Values of the
+	 * variables are those of the calculation.
+	 */
+	static final class RowContext implements IEvaluationContext {
+		private final IEvaluationContext ctx;
+		private IValue[] row;
+
+		RowContext(IEvaluationContext ctx) {
+			this.ctx = ctx;
+		}
+
+		/**
+		 *
+		 * @param field index of the member
+		 * @return value of the member in the current row
+		 */
+		IValue getField(int field) {
+			return this.row[field];
+		}
+
+		@Override
+		public boolean hasValue(String name) {
+			return this.ctx.hasValue(name);
+		}
+
+		@Override
+		public IValue determineValue(String name) {
+			return this.ctx.determineValue(name);
+		}
+
+		@Override
+		public void logError(String name, String errorId) {
+			this.ctx.logError(name, errorId);
+		}
+
+		@Override
+		public void cacheValue(String name, IValue value) {
+			this.ctx.cacheValue(name, value);
+		}
+
+		@Override
+		public boolean hasErrors() {
+			return this.ctx.hasErrors();
+		}
+
+		@Override
+		public boolean hasValue(int slot) {
+			return this.ctx.hasValue(slot);
+		}
+
+		@Override
+		public IValue determineValue(int slot) {
+			return this.ctx.determineValue(slot);
+		}
+
+		@Override
+		public void cacheValue(int slot, IValue value) {
+			this.ctx.cacheValue(slot, value);
+		}
+	}
+
+	private static final class AggregateFunction implements ILazyFunction {
+		private final String name;
+		private final IValueType returnType;
+		private final IValueType[] parameterTypes;
+		// index of the argument with the value, or -1
+		private final int valueAt;
+		// index of the argument with the condition, or -1
+		private final int conditionAt;
+
+		AggregateFunction(String name, IValueType returnType, IValueType[] parameterTypes, int valueAt,
+				int conditionAt) {
+			this.name = name;
+			this.returnType = returnType;
+			this.parameterTypes = parameterTypes;
+			this.valueAt = valueAt;
+			this.conditionAt = conditionAt;
+		}
+
+		@Override
+		public IValue callLazily(IExpression[] args, IEvaluationContext ctx) {
+			final IValue array = args[0].evaluate(ctx);
+			if (array == null) {
+				return null;
+			}
+			final IExpression value = this.valueAt == -1 ? null : args[this.valueAt];
+			final IExpression condition = this.conditionAt == -1 ? null : args[this.conditionAt];
+			final RowContext rowCtx = new RowContext(ctx);
+			final IValue[][] rows = Values.getRows(array);
+			final StringHashSet keys;
+			switch (this.name) {
+			case IS_DISTINCT:
+			case COUNT_DISTINCT:
+			case DUPLICATES:
+				keys = new StringHashSet(rows.length);
+				break;
+			default:
+				keys = null;
+			}
+
+			IValue result = null;
+			long count = 0;
+			long duplicates = 0;
+			for (IValue[] row : rows) {
+				rowCtx.row = row;
+				if (condition != null) {
+					final IValue pass = condition.evaluate(rowCtx);
+					if (pass == null) {
+						return null;
+					}
+					if (!pass.getBooleanValue()) {
+						if (this.name.equals(ALL)) {
+							return pass;
+						}
+						continue;
+					}
+					if (this.name.equals(ANY)) {
+						return pass;
+					}
+				}
+				count++;
+				if (value == null) {
+					continue;
+				}
+				final IValue v = value.evaluate(rowCtx);
+				if (v == null) {
+					return null;
+				}
+				if (keys != null) {
+					if (keys.add((String) v.getValue()) == false) {
+						if (this.name.equals(IS_DISTINCT)) {
+							return Values.newValue(false);
+						}
+						duplicates++;
+					}
+				} else if (result == null) {
+					result = v;
+				} else if (this.name.equals(SUM)) {
+					result = Values.add(result, v);
+				} else {
+					final int c = compare(v, result);
+					if (this.name.equals(MIN) ? c < 0 : c > 0) {
+						result = v;
+					}
+				}
+			}
+
+			switch (this.name) {
+			case ANY:
+				return Values.newValue(false);
+			case ALL:
+				return Values.newValue(true);
+			case COUNT:
+				return Values.newValue(count, 0);
+			case IS_DISTINCT:
+				return Values.newValue(true);
+			case COUNT_DISTINCT:
+				return Values.newValue(keys.size(), 0);
+			case DUPLICATES:
+				return Values.newValue(duplicates, 0);
+			case SUM:
+				return result == null ? Values.newValue(0, 0) : result;
+			default:
+				if (result == null) {
+					ctx.logError(this.name, NO_ROWS);
+					// the error is reported. Let the evaluation continue
+					return Values.newDefaultValue(this.returnType.getDataType());
+				}
+				return result;
+			}
+		}
+
+		private static int compare(IValue a, IValue b) {
+			if (a.getValueType().getDataType() == DataType.NUMBER) {
+				return Values.compare(a, b);
+			}
+			return a.compareTo(b);
+		}
+
+		@Override
+		public IValue call(IValue[] args, ICalcContext ctx) {
+			throw new IllegalStateException("Function '" + this.name + "' evaluates its arguments for each row");
+		}
+
+		@Override
+		public IValueType getReturnType() {
+			return this.returnType;
+		}
+
+		@Override
+		public IValueType[] getParameterTypes() {
+			return this.parameterTypes;
+		}
+
+		@Override
+		public boolean lastOneIsVararg() {
+			return false;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+	}
+}
@@ -8,13 +8,17 @@ import org.simplity.calc.engine.api.ICalcFunction;
 import org.simplity.calc.engine.api.IEvaluatorFunction;
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.IValueType;
+import org.simplity.calc.engine.impl.CalcFunctions.IBinaryEvaluator;
+import org.simplity.calc.engine.impl.CalcFunctions.IUnaryEvaluator;
 
 /**
  * A central registry for all built-in functions and operators.
  * <p>
  * This class uses a declarative style to define functions. The execution logic
  * for each function is defined as a stateless lambda (an
- * {@link IEvaluatorFunction}). A static initializer block then uses the
+ * {@link IUnaryEvaluator} or an {@link IBinaryEvaluator}, the fixed-arity forms
+ * of {@link IEvaluatorFunction} that do not need an array of arguments). A
+ * static initializer block then uses the
  * {@link CalcFunctions} to create concrete {@link ICalcFunction} instances,
  * bundling the logic with its signature metadata, and registers them into a
  * map.
@@ -31,55 +35,43 @@ public final class BuiltinFunctions {
 		// not to be instantiated
 	}
 
-	private static final IEvaluatorFunction NEGATE = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getNumberValue().negate());
+	private static final IUnaryEvaluator NEGATE = (IValue arg, ICalcContext ctx) -> Values.negate(arg);
 
-	private static final IEvaluatorFunction NOT = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(!args[0].getBooleanValue());
+	private static final IUnaryEvaluator NOT = (IValue arg, ICalcContext ctx) -> Values
+			.newValue(!arg.getBooleanValue());
 
-	private static final IEvaluatorFunction ADD = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getNumberValue().add(args[1].getNumberValue()));
+	private static final IBinaryEvaluator ADD = (IValue a, IValue b, ICalcContext ctx) -> Values.add(a, b);
 
-	private static final IEvaluatorFunction SUBTRACT = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getNumberValue().subtract(args[1].getNumberValue()));
+	private static final IBinaryEvaluator SUBTRACT = (IValue a, IValue b, ICalcContext ctx) -> Values.subtract(a, b);
 
-	private static final IEvaluatorFunction MULTIPLY = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getNumberValue().multiply(args[1].getNumberValue()));
+	private static final IBinaryEvaluator MULTIPLY = (IValue a, IValue b, ICalcContext ctx) -> Values.multiply(a, b);
 
-	private static final IEvaluatorFunction DIVIDE = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getNumberValue().divide(args[1].getNumberValue()));
+	private static final IBinaryEvaluator DIVIDE = (IValue a, IValue b, ICalcContext ctx) -> Values.divide(a, b);
 
-	private static final IEvaluatorFunction REMAINDER = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getNumberValue().remainder(args[1].getNumberValue()));
-
-	private static final IEvaluatorFunction AND = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getBooleanValue() && args[1].getBooleanValue());
-
-	private static final IEvaluatorFunction OR = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].getBooleanValue() || args[1].getBooleanValue());
+	private static final IBinaryEvaluator REMAINDER = (IValue a, IValue b, ICalcContext ctx) -> Values.remainder(a, b);
 
 	/*
 	 * Value.equals() is overridden to check for the right type and value. Hence it
 	 * EQ and NEQ will work for all value types. However we maintain a strict
 	 * type-check and allow comparison of the right types
 	 */
-	private static final IEvaluatorFunction EQ = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].equals(args[1]));
+	private static final IBinaryEvaluator EQ = (IValue a, IValue b, ICalcContext ctx) -> Values
+			.newValue(a.equals(b));
 
-	private static final IEvaluatorFunction NEQ = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(!args[0].equals(args[1]));
+	private static final IBinaryEvaluator NEQ = (IValue a, IValue b, ICalcContext ctx) -> Values
+			.newValue(!a.equals(b));
 
-	private static final IEvaluatorFunction GT = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].compareTo(args[1]) > 0);
+	private static final IBinaryEvaluator GT = (IValue a, IValue b, ICalcContext ctx) -> Values
+			.newValue(a.compareTo(b) > 0);
 
-	private static final IEvaluatorFunction LT = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].compareTo(args[1]) < 0);
+	private static final IBinaryEvaluator LT = (IValue a, IValue b, ICalcContext ctx) -> Values
+			.newValue(a.compareTo(b) < 0);
 
-	private static final IEvaluatorFunction GTE = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].compareTo(args[1]) >= 0);
+	private static final IBinaryEvaluator GTE = (IValue a, IValue b, ICalcContext ctx) -> Values
+			.newValue(a.compareTo(b) >= 0);
 
-	private static final IEvaluatorFunction LTE = (IValue[] args, ICalcContext ctx) -> Values
-			.newValue(args[0].compareTo(args[1]) <= 0);
+	private static final IBinaryEvaluator LTE = (IValue a, IValue b, ICalcContext ctx) -> Values
+			.newValue(a.compareTo(b) <= 0);
 
 	private static final Map<String, ICalcFunction> REGISTRY = new HashMap<>();
 
@@ -89,8 +81,6 @@ public final class BuiltinFunctions {
 	private static final IValueType[] ANY2 = { null, null };
 	private static final IValueType[] BOOL1 = { ValueTypes.BOOLEAN };
 
-	private static final IValueType[] BOOL2 = { ValueTypes.BOOLEAN, ValueTypes.BOOLEAN };
-
 	static {
 		// Register Unary Operators
 		register("!", NOT, ValueTypes.BOOLEAN, BOOL1);
@@ -114,18 +104,23 @@ public final class BuiltinFunctions {
 		register("<", LT, ValueTypes.BOOLEAN, ANY2);
 		register(">=", GTE, ValueTypes.BOOLEAN, ANY2);
 		register("<=", LTE, ValueTypes.BOOLEAN, ANY2);
+	}
 
-		// Register Logical Operators
-		register("&", AND, ValueTypes.BOOLEAN, BOOL2);
-		register("|", OR, ValueTypes.BOOLEAN, BOOL2);
+	/**
+	 * A helper to register a simple, non-overloaded function with one argument.
+	 */
+	private static void register(String name, IUnaryEvaluator function, IValueType returnType,
+			IValueType[] argTypes) {
+		ICalcFunction f = CalcFunctions.newUnaryFunction(function, returnType, argTypes[0]);
+		REGISTRY.put(name.toLowerCase(), f);
 	}
 
 	/**
-	 * A helper to register a simple, non-overloaded function.
+	 * A helper to register a simple, non-overloaded function with two arguments.
 	 */
-	private static void register(String name, IEvaluatorFunction function, IValueType returnType,
+	private static void register(String name, IBinaryEvaluator function, IValueType returnType,
 			IValueType[] argTypes) {
-		ICalcFunction f = CalcFunctions.newCalcFunction(function, returnType, argTypes, false);
+		ICalcFunction f = CalcFunctions.newBinaryFunction(function, returnType, argTypes);
 		REGISTRY.put(name.toLowerCase(), f);
 	}
 
@@ -137,4 +132,21 @@ public final class BuiltinFunctions {
 	static void getAll(Map<String, ICalcFunction> registry) {
 		registry.putAll(REGISTRY);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Built-in functions have no side effects, and they always return the same
+	 * value for the same arguments. Such a call can be safely evaluated at build
+	 * time if all its arguments are constants.
+	 *
+	 * @param function
+	 * @return true if this is one of the built-in functions. false otherwise.
+	 */
+	static boolean isBuiltin(ICalcFunction function) {
+		for (ICalcFunction f : REGISTRY.values()) {
+			if (f == function) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,26 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * A function that evaluates its arguments on demand, like a conditional
+ * {@code if(condition, valueIfTrue, valueIfFalse)}. A {@link FunctionExpression}
+ * for such a function passes the argument expressions, rather than their
+ * values.
+ * <p>
+ * Only the first argument is assumed to be evaluated always. The remaining
+ * arguments are dry-run as conditional dependencies.
+ */
+interface ILazyFunction extends ICalcFunction {
+
+	/**
+	 * Executes the function by evaluating the arguments as required.
+	 *
+	 * @param args non-null array of argument expressions, validated against the
+	 *             signature of this function
+	 * @param ctx  calculation context to evaluate the arguments
+	 * @return value, or null in case of any error in evaluating an argument
+	 */
+	IValue callLazily(IExpression[] args, IEvaluationContext ctx);
+}
@@ -0,0 +1,90 @@
+package org.simplity.calc.engine.impl;
+
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+import org.simplity.calc.engine.config.TableDS;
+
+/**
+ * A reference table that the rules look up by a key, with
+ * <code>lookup('table_name', key, 'column_name')</code>, or check a key
+ * against, with <code>exists('table_name', key)</code>. The table and the
+ * column are resolved when the expression is built, into a function that just
+ * looks up the key.
+ */
+interface ILookupTable {
+	/**
+	 * name of the function that looks up the value of a column for a key
+	 */
+	String LOOKUP = "lookup";
+	/**
+	 * name of the function that checks whether there is a row for a key
+	 */
+	String EXISTS = "exists";
+	/**
+	 * error that is logged when a key is looked up, but is not found
+	 */
+	String KEY_NOT_FOUND = "Key not found in the table";
+	/**
+	 * a row that is not found
+	 */
+	int NOT_FOUND = -1;
+
+	/**
+	 *
+	 * @param name    case-insensitive name of the table
+	 * @param table   definition of the table
+	 * @param builder to which any error is logged
+	 * @return a table whose rows are mapped from its data file, if it has one,
+	 *         or whose rows are in memory otherwise. null in case of any error
+	 */
+	static ILookupTable newTable(String name, TableDS table, IEngineBuilder builder) {
+		if (table.dataFile != null) {
+			return MappedTable.newTable(name, table, builder);
+		}
+		return LookupTable.newTable(name, table, builder);
+	}
+
+	/**
+	 *
+	 * @return case-insensitive name of the table, in lower case
+	 */
+	String getName();
+
+	/**
+	 *
+	 * @param columnName case-insensitive name of the column
+	 * @return index of the column, or -1 if there is no such column
+	 */
+	int getColumn(String columnName);
+
+	/**
+	 *
+	 * @return value type of the key
+	 */
+	IValueType getKeyType();
+
+	/**
+	 *
+	 * @param key non-null value of the type of the key
+	 * @return true if there is a row for the key
+	 */
+	boolean hasKey(IValue key);
+
+	/**
+	 *
+	 * @param column index of the column, as returned by
+	 *               {@link #getColumn(String)}
+	 * @return function that looks up the value of this column for a key. It is
+	 *         called with the name of the table, the key and the name of the column
+	 *         as its arguments.
+	 */
+	ICalcFunction newLookupFunction(int column);
+
+	/**
+	 *
+	 * @return function that checks whether there is a row for a key. It is called
+	 *         with the name of the table and the key as its arguments.
+	 */
+	ICalcFunction newExistsFunction();
+}
@@ -0,0 +1,443 @@
+package org.simplity.calc.engine.impl;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.ICalcContext;
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+import org.simplity.calc.engine.config.TableDS;
+
+/**
+ * A reference table whose rows are held in memory. The values are parsed into
+ * their types, and are stored column by column, when the engine is built.
+ * <p>
+ * The rows are indexed on the key column: with a hash table for a key that is
+ * matched exactly, and with a sorted array of the keys for a key that is the
+ * lower bound of a range. The table and the column of a lookup are resolved
+ * when the expression is built, and hence a lookup is just one probe of the
+ * index, followed by an access of the column array.
+ * <p>
+ * A number is matched exactly for its value, irrespective of its scale, so that
+ * 400001.00 finds the row for 400001.
+ *
+ * <h3>Thread Safety</h3> This class is immutable and therefore inherently
+ * thread-safe.
+ */
+final class LookupTable implements ILookupTable {
+	static final String TABLE = "table";
+
+	private final String name;
+	private final String[] columnNames;
+	private final IValueType[] columnTypes;
+	private final int keyColumn;
+	// values of each column, indexed by the row
+	private final IValue[][] columns;
+	// row of each key. null if the key is a range
+	private final Map<IValue, Integer> hashIndex;
+	// keys in their ascending order, and their rows. null unless the key is a
+	// range
+	private final IValue[] sortedKeys;
+	private final int[] sortedRows;
+
+	private LookupTable(String name, String[] columnNames, IValueType[] columnTypes, int keyColumn,
+			IValue[][] columns, Map<IValue, Integer> hashIndex, IValue[] sortedKeys, int[] sortedRows) {
+		this.name = name;
+		this.columnNames = columnNames;
+		this.columnTypes = columnTypes;
+		this.keyColumn = keyColumn;
+		this.columns = columns;
+		this.hashIndex = hashIndex;
+		this.sortedKeys = sortedKeys;
+		this.sortedRows = sortedRows;
+	}
+
+	/**
+	 *
+	 * @param name    case-insensitive name of the table
+	 * @param table   definition and rows of the table
+	 * @param builder to which any error is logged, and from which the
+	 *                enumerations are known
+	 * @return null in case of any error
+	 */
+	static LookupTable newTable(String name, TableDS table, IEngineBuilder builder) {
+		final String tableName = name.toLowerCase();
+		final Columns cols = Columns.newColumns(tableName, table, builder);
+		if (cols == null) {
+			return null;
+		}
+		final int nbrColumns = cols.names.length;
+		final String[] columnNames = cols.names;
+		final IValueType[] columnTypes = cols.types;
+		final int keyColumn = cols.keyColumn;
+		boolean allOk = true;
+		if (table.rangeKey && columnTypes[keyColumn].getDataType() != DataType.NUMBER
+				&& columnTypes[keyColumn].getDataType() != DataType.DATE
+				&& columnTypes[keyColumn].getDataType() != DataType.STRING) {
+			builder.logError("A range key must be a number, a date or a string", TABLE, tableName);
+			return null;
+		}
+
+		final String[][] rows = table.rows == null ? new String[0][] : table.rows;
+		final IValue[][] columns = new IValue[nbrColumns][rows.length];
+		for (int r = 0; r < rows.length; r++) {
+			final String[] row = rows[r];
+			if (row == null || row.length != nbrColumns) {
+				builder.logError("Row " + (r + 1) + " must have a value for each of the " + nbrColumns + " columns",
+						TABLE, tableName);
+				allOk = false;
+				continue;
+			}
+			for (int c = 0; c < nbrColumns; c++) {
+				final IValue value = parseValue(row[c], columnTypes[c], builder);
+				if (value == null) {
+					builder.logError("Row " + (r + 1) + " has an invalid value '" + row[c] + "' for column '"
+							+ columnNames[c] + "'", TABLE, tableName);
+					allOk = false;
+				}
+				columns[c][r] = value;
+			}
+		}
+		if (!allOk) {
+			return null;
+		}
+
+		final IValue[] keys = columns[keyColumn];
+		if (!table.rangeKey) {
+			final Map<IValue, Integer> index = new HashMap<>(keys.length * 2);
+			for (int r = 0; r < keys.length; r++) {
+				if (index.putIfAbsent(normalize(keys[r]), r) != null) {
+					builder.logError("Key '" + keys[r] + "' is repeated in row " + (r + 1), TABLE, tableName);
+					allOk = false;
+				}
+			}
+			return allOk ? new LookupTable(tableName, columnNames, columnTypes, keyColumn, columns, index, null, null)
+					: null;
+		}
+
+		final Integer[] order = new Integer[keys.length];
+		for (int r = 0; r < order.length; r++) {
+			order[r] = r;
+		}
+		Arrays.sort(order, (a, b) -> compare(keys[a], keys[b]));
+		final IValue[] sortedKeys = new IValue[keys.length];
+		final int[] sortedRows = new int[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			sortedRows[i] = order[i];
+			sortedKeys[i] = keys[order[i]];
+			if (i > 0 && compare(sortedKeys[i - 1], sortedKeys[i]) == 0) {
+				builder.logError("Key '" + sortedKeys[i] + "' is repeated in row " + (order[i] + 1), TABLE,
+						tableName);
+				allOk = false;
+			}
+		}
+		return allOk ? new LookupTable(tableName, columnNames, columnTypes, keyColumn, columns, null, sortedKeys,
+				sortedRows) : null;
+	}
+
+	/**
+	 * @return null if the type is not valid for a column
+	 */
+	static IValueType parseType(String text, IEngineBuilder builder) {
+		if (text == null) {
+			return null;
+		}
+		final String[] parts = text.split(":");
+		final DataType dataType;
+		try {
+			dataType = DataType.valueOf(parts[0].trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (parts.length == 1) {
+			switch (dataType) {
+			case NUMBER:
+			case STRING:
+			case BOOLEAN:
+			case DATE:
+				return ValueTypes.newPrimitiveType(dataType);
+			default:
+				return null;
+			}
+		}
+		if (parts.length == 2 && dataType == DataType.ENUM) {
+			final String enumName = parts[1].trim().toLowerCase();
+			if (builder.getEnumValues(enumName) != null) {
+				return ValueTypes.newEnumType(enumName);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param builder from which the values of an enumeration are known. null if
+	 *                the text is known to be a valid value
+	 * @return null if the text is not a valid value of the type
+	 */
+	static IValue parseValue(String text, IValueType type, IEngineBuilder builder) {
+		if (text == null) {
+			return null;
+		}
+		final String s = text.trim();
+		try {
+			switch (type.getDataType()) {
+			case NUMBER:
+				return Values.newValue(new BigDecimal(s));
+			case STRING:
+				return Values.newValue(s);
+			case BOOLEAN:
+				if ("true".equalsIgnoreCase(s)) {
+					return Values.newValue(true);
+				}
+				if ("false".equalsIgnoreCase(s)) {
+					return Values.newValue(false);
+				}
+				return null;
+			case DATE:
+				return Values.newValue(LocalDate.parse(s));
+			case ENUM:
+				if (builder != null && !builder.getEnumValues(type.getValueTypeName()).contains(s.toLowerCase())) {
+					return null;
+				}
+				return Values.newEnumeratedValue(type.getValueTypeName(), s.toLowerCase());
+			default:
+				return null;
+			}
+		} catch (NumberFormatException | DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * a number with trailing zeros in its fraction is hashed as the number
+	 * without them
+	 */
+	private static IValue normalize(IValue key) {
+		if (key.getValueType().getDataType() != DataType.NUMBER || Values.scale(key) <= 0) {
+			return key;
+		}
+		final BigDecimal n = key.getNumberValue().stripTrailingZeros();
+		return Values.newValue(n.scale() < 0 ? n.setScale(0) : n);
+	}
+
+	private static int compare(IValue a, IValue b) {
+		if (a.getValueType().getDataType() == DataType.NUMBER) {
+			return Values.compare(a, b);
+		}
+		return a.compareTo(b);
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public int getColumn(String columnName) {
+		return Arrays.asList(this.columnNames).indexOf(columnName.toLowerCase());
+	}
+
+	@Override
+	public IValueType getKeyType() {
+		return this.columnTypes[this.keyColumn];
+	}
+
+	@Override
+	public boolean hasKey(IValue key) {
+		return this.findRow(key) != NOT_FOUND;
+	}
+
+	/**
+	 *
+	 * @param key non-null value of the type of the key column
+	 * @return row for the key, or -1 if the key is not found
+	 */
+	private int findRow(IValue key) {
+		if (this.hashIndex != null) {
+			final Integer row = this.hashIndex.get(normalize(key));
+			return row == null ? NOT_FOUND : row;
+		}
+
+		// the last key that is not greater than this key
+		int low = 0;
+		int high = this.sortedKeys.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (compare(this.sortedKeys[mid], key) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low == 0 ? NOT_FOUND : this.sortedRows[low - 1];
+	}
+
+	@Override
+	public ICalcFunction newLookupFunction(int column) {
+		return new LookupFunction(this, column);
+	}
+
+	@Override
+	public ICalcFunction newExistsFunction() {
+		return new ExistsFunction(this);
+	}
+
+	/**
+	 * looks up a column of a table that is resolved when the expression is built.
+	 * The names of the table and of the column are its first and third arguments,
+	 * and they are not looked at when it is called.
+	 */
+	private static final class LookupFunction implements ICalcFunction {
+		private final LookupTable table;
+		private final IValue[] values;
+		private final IValueType returnType;
+		private final IValueType[] parameterTypes;
+
+		LookupFunction(LookupTable table, int column) {
+			this.table = table;
+			this.values = table.columns[column];
+			this.returnType = table.columnTypes[column];
+			this.parameterTypes = new IValueType[] { ValueTypes.STRING, table.getKeyType(), ValueTypes.STRING };
+		}
+
+		@Override
+		public IValue call(IValue[] args, ICalcContext ctx) {
+			return this.call3(args[0], args[1], args[2], ctx);
+		}
+
+		@Override
+		public IValue call3(IValue tableName, IValue key, IValue columnName, ICalcContext ctx) {
+			final int row = this.table.findRow(key);
+			if (row == NOT_FOUND) {
+				ctx.logError(this.table.name, KEY_NOT_FOUND);
+				// the error is reported. Let the evaluation continue
+				return Values.newDefaultValue(this.returnType.getDataType());
+			}
+			return this.values[row];
+		}
+
+		@Override
+		public IValueType getReturnType() {
+			return this.returnType;
+		}
+
+		@Override
+		public IValueType[] getParameterTypes() {
+			return this.parameterTypes;
+		}
+
+		@Override
+		public boolean lastOneIsVararg() {
+			return false;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+	}
+
+	/**
+	 * names and types of the columns of a table, and its key column
+	 */
+	static final class Columns {
+		final String[] names;
+		final IValueType[] types;
+		final int keyColumn;
+
+		private Columns(String[] names, IValueType[] types, int keyColumn) {
+			this.names = names;
+			this.types = types;
+			this.keyColumn = keyColumn;
+		}
+
+		/**
+		 *
+		 * @return null in case of any error
+		 */
+		static Columns newColumns(String tableName, TableDS table, IEngineBuilder builder) {
+			final String[] names = table.columnNames;
+			if (names == null || names.length == 0) {
+				builder.logError("A table must have at least one column", TABLE, tableName);
+				return null;
+			}
+			if (table.dataTypes == null || table.dataTypes.length != names.length) {
+				builder.logError("A dataType must be specified for each of the columns", TABLE, tableName);
+				return null;
+			}
+
+			final String[] columnNames = new String[names.length];
+			final IValueType[] columnTypes = new IValueType[names.length];
+			boolean allOk = true;
+			for (int i = 0; i < names.length; i++) {
+				columnNames[i] = names[i].toLowerCase();
+				columnTypes[i] = parseType(table.dataTypes[i], builder);
+				if (columnTypes[i] == null) {
+					builder.logError(
+							"'" + table.dataTypes[i] + "' is not a valid dataType for column '" + names[i] + "'",
+							TABLE, tableName);
+					allOk = false;
+				}
+			}
+			int keyColumn = 0;
+			if (table.keyColumn != null) {
+				keyColumn = Arrays.asList(columnNames).indexOf(table.keyColumn.toLowerCase());
+				if (keyColumn == NOT_FOUND) {
+					builder.logError("'" + table.keyColumn + "' is not a column of the table", TABLE, tableName);
+					return null;
+				}
+			}
+			return allOk ? new Columns(columnNames, columnTypes, keyColumn) : null;
+		}
+	}
+
+	/**
+	 * checks whether a table has a row for a key. The name of the table is its
+	 * first argument, and it is not looked at when it is called.
+	 */
+	static final class ExistsFunction implements ICalcFunction {
+		private final ILookupTable table;
+		private final IValueType[] parameterTypes;
+
+		ExistsFunction(ILookupTable table) {
+			this.table = table;
+			this.parameterTypes = new IValueType[] { ValueTypes.STRING, table.getKeyType() };
+		}
+
+		@Override
+		public IValue call(IValue[] args, ICalcContext ctx) {
+			return this.call2(args[0], args[1], ctx);
+		}
+
+		@Override
+		public IValue call2(IValue tableName, IValue key, ICalcContext ctx) {
+			return Values.newValue(this.table.hasKey(key));
+		}
+
+		@Override
+		public IValueType getReturnType() {
+			return ValueTypes.BOOLEAN;
+		}
+
+		@Override
+		public IValueType[] getParameterTypes() {
+			return this.parameterTypes;
+		}
+
+		@Override
+		public boolean lastOneIsVararg() {
+			return false;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,570 @@
+package org.simplity.calc.engine.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simplity.calc.engine.api.DataType;
+import org.simplity.calc.engine.api.ICalcContext;
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+import org.simplity.calc.engine.config.TableDS;
+
+/**
+ * A reference table that is too large to be held in memory, like the IFSC codes
+ * of all the bank branches. Its rows are read from a CSV file, and are written
+ * once into a binary file in which they are sorted on their keys. The binary
+ * file is then mapped into memory, rather than read. Hence an engine is built
+ * without loading the rows, the pages of the file are read only when they are
+ * looked up, and they are shared through the page cache of the operating
+ * system by all the processes that map the same file. Within a JVM, all the
+ * engines share the same mapping.
+ * <p>
+ * A key is found by a binary search over the offsets of the rows, comparing the
+ * bytes of the key with those of the row in place. Only the value of the column
+ * that is looked up is parsed.
+ * <p>
+ * The binary file has a header with the version of its format, the length and
+ * the time of modification of the CSV file that it is converted from, a
+ * signature of the columns, the number of rows, and the offsets of the rows in the order
+ * of their keys. Each row is the key followed by the values of all the columns,
+ * each as its length in two bytes followed by its text in UTF-8.
+ *
+ * <h3>Thread Safety</h3> This class is immutable and therefore inherently
+ * thread-safe. The mapped buffer is only read with absolute positions, and
+ * hence it is safely shared across threads.
+ */
+final class MappedTable implements ILookupTable {
+	private static final int MAGIC = 0x43414c54;
+	private static final int VERSION = 2;
+	// after the magic, the version, and the length and modified time of the CSV
+	private static final int SIGNATURE_AT = 24;
+	private static final String SUFFIX = ".idx";
+	private static final int MAX_TEXT = 0xFFFF;
+	// mapped files that are shared by all the engines, by their paths
+	private static final Map<String, MappedFile> MAPPED_FILES = new HashMap<>();
+
+	private final String name;
+	private final String[] columnNames;
+	private final IValueType[] columnTypes;
+	private final int keyColumn;
+	private final ByteBuffer buffer;
+	private final int nbrRows;
+	// position of the offset of the first row in the buffer
+	private final int offsetsAt;
+
+	private MappedTable(String name, String[] columnNames, IValueType[] columnTypes, int keyColumn,
+			MappedFile file) {
+		this.name = name;
+		this.columnNames = columnNames;
+		this.columnTypes = columnTypes;
+		this.keyColumn = keyColumn;
+		this.buffer = file.buffer;
+		this.nbrRows = file.nbrRows;
+		this.offsetsAt = file.offsetsAt;
+	}
+
+	/**
+	 *
+	 * @param name    case-insensitive name of the table
+	 * @param table   definition of the table, with its data file
+	 * @param builder to which any error is logged
+	 * @return null in case of any error
+	 */
+	static MappedTable newTable(String name, TableDS table, IEngineBuilder builder) {
+		final String tableName = name.toLowerCase();
+		final LookupTable.Columns cols = LookupTable.Columns.newColumns(tableName, table, builder);
+		if (cols == null) {
+			return null;
+		}
+		if (table.rangeKey) {
+			builder.logError("A range key is not supported for a table with a data file", LookupTable.TABLE,
+					tableName);
+			return null;
+		}
+		if (table.rows != null) {
+			builder.logError("A table with a data file can not have rows as well", LookupTable.TABLE, tableName);
+			return null;
+		}
+
+		final File csvFile = new File(table.dataFile);
+		if (!csvFile.isFile()) {
+			builder.logError("Data file '" + table.dataFile + "' is not found", LookupTable.TABLE, tableName);
+			return null;
+		}
+		final MappedFile file = getFile(csvFile, tableName, cols, builder);
+		if (file == null) {
+			return null;
+		}
+		return new MappedTable(tableName, cols.names, cols.types, cols.keyColumn, file);
+	}
+
+	/**
+	 * the mapped binary file for the CSV file, converted first if it is missing,
+	 * or is not of the CSV file as it is now, or has a different set of columns
+	 *
+	 * @return null in case of any error
+	 */
+	private static MappedFile getFile(File csvFile, String tableName, LookupTable.Columns cols,
+			IEngineBuilder builder) {
+		final String signature = toSignature(cols);
+		final File binFile = new File(csvFile.getPath() + SUFFIX);
+		synchronized (MAPPED_FILES) {
+			try {
+				final String path = binFile.getCanonicalPath();
+				MappedFile file = MAPPED_FILES.get(path);
+				if (file != null && file.isCurrent(binFile, csvFile, signature)) {
+					return file;
+				}
+				if (!isConverted(binFile, csvFile, signature)) {
+					if (!convert(csvFile, binFile, signature, tableName, cols, builder)) {
+						return null;
+					}
+				}
+				file = MappedFile.map(binFile, signature);
+				MAPPED_FILES.put(path, file);
+				return file;
+			} catch (IOException e) {
+				builder.logError("Data file '" + csvFile.getPath() + "' could not be read or converted. "
+						+ e.getMessage(), LookupTable.TABLE, tableName);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * names and types of the columns, and the key column. A binary file with a
+	 * different signature is converted again.
+	 */
+	private static String toSignature(LookupTable.Columns cols) {
+		final StringBuilder sbf = new StringBuilder().append(cols.keyColumn);
+		for (int i = 0; i < cols.names.length; i++) {
+			sbf.append(',').append(cols.names[i]).append(':').append(cols.types[i]);
+		}
+		return sbf.toString();
+	}
+
+	/**
+	 * is the binary file converted from the CSV file as it is now, with the same
+	 * columns? The length of the CSV file is compared as well as its time of
+	 * modification, as a file that is written again within the granularity of
+	 * the time may have the same time.
+	 */
+	private static boolean isConverted(File binFile, File csvFile, String signature) throws IOException {
+		if (!binFile.isFile()) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(binFile.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(SIGNATURE_AT + 2 + MAX_TEXT);
+			channel.read(header, 0);
+			header.flip();
+			return header.remaining() >= SIGNATURE_AT + 2 && signature.equals(readSignature(header))
+					&& isOf(header, csvFile);
+		}
+	}
+
+	/**
+	 * is the header of a binary file that is converted from the CSV file as it is
+	 * now?
+	 */
+	private static boolean isOf(ByteBuffer header, File csvFile) {
+		return header.getLong(8) == csvFile.length() && header.getLong(16) == csvFile.lastModified();
+	}
+
+	/**
+	 * @return null if the header is not of this version of the format
+	 */
+	private static String readSignature(ByteBuffer header) {
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+			return null;
+		}
+		final int length = header.getShort(SIGNATURE_AT) & MAX_TEXT;
+		if (header.limit() < SIGNATURE_AT + 2 + length) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = header.get(SIGNATURE_AT + 2 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * parse the rows of the CSV file, sort them on their keys, and write them to
+	 * the binary file. The file is written under a temporary name that is unique
+	 * to this conversion, and is then renamed, so that another process never maps
+	 * a file that is partly written, even if it converts the same file at the same
+	 * time.
+	 *
+	 * @return false in case of any error in the rows
+	 */
+	private static boolean convert(File csvFile, File binFile, String signature, String tableName,
+			LookupTable.Columns cols, IEngineBuilder builder) throws IOException {
+		// noted before reading, so that a change while reading is seen later
+		final long csvLength = csvFile.length();
+		final long csvModified = csvFile.lastModified();
+		final int nbrColumns = cols.names.length;
+		final List<byte[][]> rows = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(csvFile.toPath(), StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line == null) {
+				builder.logError("Data file has no header", LookupTable.TABLE, tableName);
+				return false;
+			}
+			final List<String> header = Arrays.asList(splitCsv(line));
+			final int[] positions = new int[nbrColumns];
+			for (int c = 0; c < nbrColumns; c++) {
+				positions[c] = NOT_FOUND;
+				for (int i = 0; i < header.size(); i++) {
+					if (header.get(i).trim().equalsIgnoreCase(cols.names[c])) {
+						positions[c] = i;
+					}
+				}
+				if (positions[c] == NOT_FOUND) {
+					builder.logError("Data file has no column named '" + cols.names[c] + "'", LookupTable.TABLE,
+							tableName);
+					return false;
+				}
+			}
+
+			int lineNbr = 1;
+			while ((line = reader.readLine()) != null) {
+				lineNbr++;
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				final String[] fields = splitCsv(line);
+				// the key, followed by the values of all the columns
+				final byte[][] row = new byte[nbrColumns + 1][];
+				for (int c = 0; c < nbrColumns; c++) {
+					final String text = positions[c] < fields.length ? fields[positions[c]] : null;
+					final IValue value = LookupTable.parseValue(text, cols.types[c], builder);
+					if (value == null) {
+						builder.logError("Line " + lineNbr + " has an invalid value '" + text + "' for column '"
+								+ cols.names[c] + "'", LookupTable.TABLE, tableName);
+						return false;
+					}
+					row[c + 1] = text.trim().getBytes(StandardCharsets.UTF_8);
+					if (c == cols.keyColumn) {
+						row[0] = toKeyText(value).getBytes(StandardCharsets.UTF_8);
+					}
+					if (row[c + 1].length > MAX_TEXT || row[0] != null && row[0].length > MAX_TEXT) {
+						builder.logError("Line " + lineNbr + " has a value that is too long", LookupTable.TABLE,
+								tableName);
+						return false;
+					}
+				}
+				rows.add(row);
+			}
+		}
+
+		rows.sort((a, b) -> compareBytes(a[0], b[0]));
+		for (int i = 1; i < rows.size(); i++) {
+			if (compareBytes(rows.get(i - 1)[0], rows.get(i)[0]) == 0) {
+				builder.logError("Key '" + new String(rows.get(i)[0], StandardCharsets.UTF_8) + "' is repeated",
+						LookupTable.TABLE, tableName);
+				return false;
+			}
+		}
+
+		final byte[] sig = signature.getBytes(StandardCharsets.UTF_8);
+		final long offsetsAt = SIGNATURE_AT + 6L + sig.length;
+		long offset = offsetsAt + 4L * rows.size();
+		final int[] offsets = new int[rows.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = (int) offset;
+			for (byte[] field : rows.get(i)) {
+				offset += 2 + field.length;
+			}
+			if (offset > Integer.MAX_VALUE) {
+				builder.logError("Data file is too large to be mapped", LookupTable.TABLE, tableName);
+				return false;
+			}
+		}
+
+		final Path tempFile = Files.createTempFile(binFile.getAbsoluteFile().getParentFile().toPath(),
+				binFile.getName(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(csvLength);
+				out.writeLong(csvModified);
+				out.writeShort(sig.length);
+				out.write(sig);
+				out.writeInt(rows.size());
+				for (int o : offsets) {
+					out.writeInt(o);
+				}
+				for (byte[][] row : rows) {
+					for (byte[] field : row) {
+						out.writeShort(field.length);
+						out.write(field);
+					}
+				}
+			}
+			Files.move(tempFile, binFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		return true;
+	}
+
+	/**
+	 * fields of a line of CSV. A field may be quoted, with a quote within it
+	 * doubled
+	 */
+	private static String[] splitCsv(String line) {
+		final List<String> fields = new ArrayList<>();
+		final StringBuilder sbf = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					sbf.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					sbf.append(c);
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(sbf.toString());
+				sbf.setLength(0);
+			} else {
+				sbf.append(c);
+			}
+		}
+		fields.add(sbf.toString());
+		return fields.toArray(new String[0]);
+	}
+
+	/**
+	 * text with which a key is sorted and matched. A number is matched for its
+	 * value, irrespective of its scale
+	 */
+	private static String toKeyText(IValue key) {
+		if (key.getValueType().getDataType() == DataType.NUMBER) {
+			final BigDecimal n = key.getNumberValue().stripTrailingZeros();
+			return (n.scale() < 0 ? n.setScale(0) : n).toPlainString();
+		}
+		return String.valueOf(key.getValue());
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		final int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			final int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public int getColumn(String columnName) {
+		return Arrays.asList(this.columnNames).indexOf(columnName.toLowerCase());
+	}
+
+	@Override
+	public IValueType getKeyType() {
+		return this.columnTypes[this.keyColumn];
+	}
+
+	@Override
+	public boolean hasKey(IValue key) {
+		return this.findRow(key) != NOT_FOUND;
+	}
+
+	/**
+	 *
+	 * @return position of the row for the key in the buffer, or -1 if the key is
+	 *         not found
+	 */
+	private int findRow(IValue key) {
+		final byte[] bytes = toKeyText(key).getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = this.nbrRows - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int row = this.buffer.getInt(this.offsetsAt + 4 * mid);
+			final int c = this.compareKey(row, bytes);
+			if (c == 0) {
+				return row;
+			}
+			if (c < 0) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * compare the key of the row at this position with the bytes of a key
+	 */
+	private int compareKey(int row, byte[] key) {
+		final int length = this.buffer.getShort(row) & MAX_TEXT;
+		final int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			final int c = (this.buffer.get(row + 2 + i) & 0xFF) - (key[i] & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * @return value of the column in the row at this position
+	 */
+	IValue getValue(int row, int column) {
+		// skip the key and the columns before this one
+		int at = row;
+		for (int i = 0; i <= column; i++) {
+			at += 2 + (this.buffer.getShort(at) & MAX_TEXT);
+		}
+		final byte[] bytes = new byte[this.buffer.getShort(at) & MAX_TEXT];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = this.buffer.get(at + 2 + i);
+		}
+		// the value was validated when the file was converted
+		return LookupTable.parseValue(new String(bytes, StandardCharsets.UTF_8), this.columnTypes[column], null);
+	}
+
+	@Override
+	public ICalcFunction newLookupFunction(int column) {
+		return new LookupFunction(this, column);
+	}
+
+	@Override
+	public ICalcFunction newExistsFunction() {
+		return new LookupTable.ExistsFunction(this);
+	}
+
+	/**
+	 * a binary file that is mapped into memory
+	 */
+	private static final class MappedFile {
+		final MappedByteBuffer buffer;
+		final int nbrRows;
+		final int offsetsAt;
+		private final long lastModified;
+		private final String signature;
+
+		private MappedFile(MappedByteBuffer buffer, int nbrRows, int offsetsAt, long lastModified,
+				String signature) {
+			this.buffer = buffer;
+			this.nbrRows = nbrRows;
+			this.offsetsAt = offsetsAt;
+			this.lastModified = lastModified;
+			this.signature = signature;
+		}
+
+		static MappedFile map(File binFile, String signature) throws IOException {
+			final long lastModified = binFile.lastModified();
+			try (FileChannel channel = FileChannel.open(binFile.toPath(), StandardOpenOption.READ)) {
+				// the mapping remains valid after the channel is closed
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (!signature.equals(readSignature(buffer))) {
+					throw new IOException("File " + binFile.getPath() + " is not in the expected format");
+				}
+				final int at = SIGNATURE_AT + 2 + (buffer.getShort(SIGNATURE_AT) & MAX_TEXT);
+				return new MappedFile(buffer, buffer.getInt(at), at + 4, lastModified, signature);
+			}
+		}
+
+		/**
+		 * is this mapping of the file as it is now, converted from the CSV file as
+		 * it is now, and with the same columns?
+		 */
+		boolean isCurrent(File binFile, File csvFile, String sig) {
+			return this.lastModified == binFile.lastModified() && this.signature.equals(sig)
+					&& isOf(this.buffer, csvFile);
+		}
+	}
+
+	/**
+	 * looks up a column of a mapped table. The names of the table and of the
+	 * column are its first and third arguments, and they are not looked at when it
+	 * is called.
+	 */
+	private static final class LookupFunction implements ICalcFunction {
+		private final MappedTable table;
+		private final int column;
+		private final IValueType returnType;
+		private final IValueType[] parameterTypes;
+
+		LookupFunction(MappedTable table, int column) {
+			this.table = table;
+			this.column = column;
+			this.returnType = table.columnTypes[column];
+			this.parameterTypes = new IValueType[] { ValueTypes.STRING, table.getKeyType(), ValueTypes.STRING };
+		}
+
+		@Override
+		public IValue call(IValue[] args, ICalcContext ctx) {
+			return this.call3(args[0], args[1], args[2], ctx);
+		}
+
+		@Override
+		public IValue call3(IValue tableName, IValue key, IValue columnName, ICalcContext ctx) {
+			final int row = this.table.findRow(key);
+			if (row == NOT_FOUND) {
+				ctx.logError(this.table.name, KEY_NOT_FOUND);
+				// the error is reported. Let the evaluation continue
+				return Values.newDefaultValue(this.returnType.getDataType());
+			}
+			return this.table.getValue(row, this.column);
+		}
+
+		@Override
+		public IValueType getReturnType() {
+			return this.returnType;
+		}
+
+		@Override
+		public IValueType[] getParameterTypes() {
+			return this.parameterTypes;
+		}
+
+		@Override
+		public boolean lastOneIsVararg() {
+			return false;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+	}
+}
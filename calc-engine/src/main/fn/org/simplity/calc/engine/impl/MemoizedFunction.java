@@ -0,0 +1,153 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.Arrays;
+
+import org.simplity.calc.engine.api.CacheStatsDS;
+import org.simplity.calc.engine.api.ICalcContext;
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+
+/**
+ * A pure function whose results are cached by its arguments, so that a call
+ * with the same arguments, in the same or in another calculation, returns the
+ * cached result.
+ * <p>
+ * A call that logs an error is not cached, so that the error is logged again
+ * for the next call. Also, a call is not cached if the context already has
+ * errors, as it is not known then whether the call has logged one.
+ *
+ * <h3>Thread Safety</h3> This class is thread-safe, if the function is.
+ */
+final class MemoizedFunction implements ICalcFunction {
+	private final ICalcFunction function;
+	private final BoundedCache<Args, IValue> cache;
+
+	/**
+	 *
+	 * @param function pure function
+	 * @param maxSize  maximum number of results to be cached
+	 */
+	MemoizedFunction(ICalcFunction function, int maxSize) {
+		this.function = function;
+		this.cache = new BoundedCache<>(maxSize, 0);
+	}
+
+	/**
+	 *
+	 * @return a snapshot of the statistics of the cache
+	 */
+	CacheStatsDS getStats() {
+		return this.cache.getStats();
+	}
+
+	@Override
+	public IValue call(IValue[] args, ICalcContext ctx) {
+		final Args key = new Args(args);
+		final IValue cached = this.cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final boolean hadErrors = ctx != null && ctx.hasErrors();
+		// the array of the caller may be reused for another call
+		final IValue[] copy = args.clone();
+		final IValue value = this.function.call(copy, ctx);
+		this.cache(new Args(copy), value, hadErrors, ctx);
+		return value;
+	}
+
+	@Override
+	public IValue call1(IValue arg, ICalcContext ctx) {
+		final Args key = new Args(new IValue[] { arg });
+		final IValue cached = this.cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final boolean hadErrors = ctx != null && ctx.hasErrors();
+		final IValue value = this.function.call1(arg, ctx);
+		this.cache(key, value, hadErrors, ctx);
+		return value;
+	}
+
+	@Override
+	public IValue call2(IValue arg1, IValue arg2, ICalcContext ctx) {
+		final Args key = new Args(new IValue[] { arg1, arg2 });
+		final IValue cached = this.cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final boolean hadErrors = ctx != null && ctx.hasErrors();
+		final IValue value = this.function.call2(arg1, arg2, ctx);
+		this.cache(key, value, hadErrors, ctx);
+		return value;
+	}
+
+	@Override
+	public IValue call3(IValue arg1, IValue arg2, IValue arg3, ICalcContext ctx) {
+		final Args key = new Args(new IValue[] { arg1, arg2, arg3 });
+		final IValue cached = this.cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final boolean hadErrors = ctx != null && ctx.hasErrors();
+		final IValue value = this.function.call3(arg1, arg2, arg3, ctx);
+		this.cache(key, value, hadErrors, ctx);
+		return value;
+	}
+
+	private void cache(Args key, IValue value, boolean hadErrors, ICalcContext ctx) {
+		if (value != null && !hadErrors && (ctx == null || !ctx.hasErrors())) {
+			this.cache.put(key, value);
+		}
+	}
+
+	@Override
+	public IValueType getReturnType() {
+		return this.function.getReturnType();
+	}
+
+	@Override
+	public IValueType[] getParameterTypes() {
+		return this.function.getParameterTypes();
+	}
+
+	@Override
+	public boolean lastOneIsVararg() {
+		return this.function.lastOneIsVararg();
+	}
+
+	@Override
+	public boolean isPure() {
+		return true;
+	}
+
+	/**
+	 * arguments of a call, as the key to its result
+	 */
+	private static final class Args {
+		final IValue[] values;
+		final int hash;
+
+		Args(IValue[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (obj instanceof Args == false) {
+				return false;
+			}
+			final Args other = (Args) obj;
+			return this.hash == other.hash && Arrays.equals(this.values, other.values);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.simplity.calc.engine.impl;
+
+/**
+ * A set of strings, like the PANs of the donees in a schedule, that is used to
+ * detect duplicates in a single pass. The keys are kept in a flat array with
+ * open addressing and linear probing, and the hash code of each key is kept
+ * alongside, so that a probe compares the strings only when their hash codes
+ * match. The capacity is fixed for the number of keys that is expected, so the
+ * table is never resized while the rows are scanned.
+ *
+ * <h3>Thread Safety</h3> This class is not thread-safe. An instance is meant to
+ * be used within a single call of a function.
+ */
+final class StringHashSet {
+	private final String[] keys;
+	private final int[] hashes;
+	private final int mask;
+	private int size;
+
+	/**
+	 *
+	 * @param expectedSize maximum number of keys that would be added. The table
+	 *                     is kept at most half full for this number.
+	 */
+	StringHashSet(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1) << 1;
+		if (capacity < 4) {
+			capacity = 4;
+		}
+		this.keys = new String[capacity];
+		this.hashes = new int[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 *
+	 * @param key non-null key
+	 * @return true if the key is added. false if it is already in the set
+	 * @throws IllegalStateException if more keys are added than what the set was
+	 *                               created for
+	 */
+	boolean add(String key) {
+		final int hash = spread(key.hashCode());
+		int i = hash & this.mask;
+		while (true) {
+			final String k = this.keys[i];
+			if (k == null) {
+				break;
+			}
+			if (this.hashes[i] == hash && k.equals(key)) {
+				return false;
+			}
+			i = (i + 1) & this.mask;
+		}
+		if (this.size == this.keys.length - 1) {
+			// at least one free slot is required for a probe to end
+			throw new IllegalStateException("Set is full with " + this.size + " keys");
+		}
+		this.keys[i] = key;
+		this.hashes[i] = hash;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 *
+	 * @return number of keys in the set
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * keys that differ only in their higher bits, as is common for codes that share
+	 * a suffix, should not probe the same slots
+	 */
+	private static int spread(int h) {
+		final int x = h * 0x9E3779B9;
+		return x ^ (x >>> 16);
+	}
+}
@@ -0,0 +1,55 @@
+package org.simplity.calc.engine.api;
+
+/**
+ * Statistics of a cache, since the engine was built. Like
+ * {@link CalcResultDS}, this is a data carrier with public fields. It is a
+ * snapshot, and is not updated after it is returned.
+ */
+public final class CacheStatsDS {
+	/**
+	 * number of lookups that found a value in the cache
+	 */
+	public long hits;
+	/**
+	 * number of lookups that did not find a value, including the expired ones
+	 */
+	public long misses;
+	/**
+	 * number of values that were found to have expired
+	 */
+	public long expired;
+	/**
+	 * number of values that were removed to make room for newer ones
+	 */
+	public long evicted;
+	/**
+	 * number of values in the cache
+	 */
+	public int size;
+
+	/**
+	 * for the serializers
+	 */
+	public CacheStatsDS() {
+		//
+	}
+
+	/**
+	 *
+	 * @return fraction of the lookups that found a value. 0 if there are no
+	 *         lookups
+	 */
+	public double getHitRate() {
+		final long total = this.hits + this.misses;
+		return total == 0 ? 0 : (double) this.hits / total;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "Hits: " + this.hits + ", misses: " + this.misses + ", expired: " + this.expired + ", evicted: "
+				+ this.evicted + ", size: " + this.size;
+	}
+}
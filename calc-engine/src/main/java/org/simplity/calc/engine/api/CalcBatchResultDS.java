@@ -0,0 +1,60 @@
+package org.simplity.calc.engine.api;
+
+/**
+ * Represents the output from a batch of calculation runs, one per input record,
+ * in the same order as the input records.
+ * <p>
+ * **Usage:** for record i, check errors[i]. If it is null, outputs[i] has the
+ * calculated values, in the same order as outputNames.
+ * <p>
+ * The values are held in arrays, rather than in a map per record, as a batch
+ * may have millions of records. Like {@link CalcResultDS}, this is a data
+ * carrier with public fields, and is to be treated as immutable by convention.
+ */
+public final class CalcBatchResultDS {
+	/**
+	 * names of the output variables. Common to all the records
+	 */
+	public String[] outputNames;
+	/**
+	 * outputs[i] has the values of the output variables for the record i, in the
+	 * same order as outputNames. null if the run failed for that record
+	 */
+	public IValue[][] outputs;
+	/**
+	 * errors[i] is null if the run succeeded for the record i. Else it has the
+	 * errors, just as {@link CalcResultDS#errors} for a single run.
+	 */
+	public CalcErrorDS[][] errors;
+	/**
+	 * number of records for which the run failed
+	 */
+	public int nbrFailed;
+
+	/**
+	 * for the serializers
+	 */
+	public CalcBatchResultDS() {
+		//
+	}
+
+	/**
+	 *
+	 * @param outputNames names of the output variables
+	 * @param nbrRecords  number of records in the batch
+	 */
+	public CalcBatchResultDS(String[] outputNames, int nbrRecords) {
+		this.outputNames = outputNames;
+		this.outputs = new IValue[nbrRecords][];
+		this.errors = new CalcErrorDS[nbrRecords][];
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		final int n = this.errors == null ? 0 : this.errors.length;
+		return "Calculated " + n + " records, of which " + this.nbrFailed + " failed";
+	}
+}
@@ -43,7 +43,13 @@ public enum DataType {
 	/**
 	 * Represents a tabular data of primitive values
 	 */
-	TABLE(Object.class);
+	TABLE(Object.class),
+	/**
+	 * rows of a data structure, like the donees of a schedule. The data-members of
+	 * a row are of primitive types. It is represented as an array of the rows,
+	 * each an array of the values of its data-members.
+	 */
+	ARRAY(Object.class);
 
 	private final Class<?> javaType;
 
@@ -1,6 +1,10 @@
 package org.simplity.calc.engine.api;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The primary interface for the Calculator Engine. The engine is designed for
@@ -34,6 +38,150 @@ public interface ICalcEngine {
 	 */
 	CalcResultDS calculate(Map<String, String> inputs);
 
+	/**
+	 * Calculates only the requested output variables. Only the variables that the
+	 * requested outputs depend on are evaluated. The validators are run as in
+	 * {@link #calculate(Map)}, unless the engine is configured to skip the ones
+	 * that are not related to the requested outputs.
+	 * <p>
+	 * The default implementation calculates all the outputs, and returns a copy
+	 * with just the requested ones.
+	 *
+	 * @param inputs           as in {@link #calculate(Map)}
+	 * @param requestedOutputs names of the output variables to be calculated. An
+	 *                         error is returned if any of them is not an output
+	 *                         variable. null to calculate all the outputs, as in
+	 *                         {@link #calculate(Map)}
+	 * @return A calculation result object, with only the requested outputs.
+	 */
+	default CalcResultDS calculate(Map<String, String> inputs, Set<String> requestedOutputs) {
+		final CalcResultDS result = this.calculate(inputs);
+		if (requestedOutputs == null || !result.allOk) {
+			return result;
+		}
+		final Map<String, IValue> outputs = new HashMap<>();
+		for (String name : requestedOutputs) {
+			if (!result.outputs.containsKey(name)) {
+				return new CalcResultDS(new CalcErrorDS[] { new CalcErrorDS(name, "Not a valid output") });
+			}
+			outputs.put(name, result.outputs.get(name));
+		}
+		return new CalcResultDS(outputs);
+	}
+
+	/**
+	 * Calculates the outputs for a batch of input records. The result for each
+	 * record is the same as that of {@link #calculate(Map)} for that record. This
+	 * is meant for bulk jobs, where the overhead of a separate call for every
+	 * record adds up.
+	 * <p>
+	 * The default implementation calls {@link #calculate(Map)} for each record.
+	 *
+	 * @param inputs input records, each as in {@link #calculate(Map)}
+	 * @return non-null result, with the outputs or the errors for each record, in
+	 *         the same order as the input records
+	 */
+	default CalcBatchResultDS calculateBatch(List<Map<String, String>> inputs) {
+		final CalcResultDS[] results = new CalcResultDS[inputs.size()];
+		String[] outputNames = null;
+		for (int i = 0; i < results.length; i++) {
+			results[i] = this.calculate(inputs.get(i));
+			if (outputNames == null && results[i].allOk) {
+				outputNames = results[i].outputs.keySet().toArray(new String[0]);
+			}
+		}
+
+		final CalcBatchResultDS batch = new CalcBatchResultDS(outputNames == null ? new String[0] : outputNames,
+				results.length);
+		for (int i = 0; i < results.length; i++) {
+			final CalcResultDS result = results[i];
+			if (!result.allOk) {
+				batch.errors[i] = result.errors;
+				batch.nbrFailed++;
+				continue;
+			}
+			final IValue[] values = new IValue[batch.outputNames.length];
+			for (int j = 0; j < values.length; j++) {
+				values[j] = result.outputs.get(batch.outputNames[j]);
+			}
+			batch.outputs[i] = values;
+		}
+		return batch;
+	}
+
+	/**
+	 * Calculates the outputs, as in {@link #calculate(Map)}, and retains the state
+	 * of the run for a subsequent call to {@link #recalculate(ICalcState, Map)}
+	 * <p>
+	 * The default implementation retains just the inputs and the result.
+	 *
+	 * @param inputs as in {@link #calculate(Map)}
+	 * @return non-null state, with the result of the calculation
+	 */
+	default ICalcState calculateWithState(Map<String, String> inputs) {
+		final Map<String, String> copy = Collections.unmodifiableMap(new HashMap<>(inputs));
+		final CalcResultDS result = this.calculate(copy);
+		return new ICalcState() {
+
+			@Override
+			public CalcResultDS getResult() {
+				return result;
+			}
+
+			@Override
+			public Map<String, String> getInputs() {
+				return copy;
+			}
+		};
+	}
+
+	/**
+	 * Calculates the outputs for the inputs of a previous run, as modified with
+	 * some changed inputs. Only the variables and the validators that depend on
+	 * the changed inputs are evaluated again. The result is the same as that of
+	 * {@link #calculate(Map)} with the modified inputs.
+	 * <p>
+	 * Everything is calculated afresh if the previous run had failed. The default
+	 * implementation always calculates everything afresh.
+	 *
+	 * @param previous      state returned by an earlier call to this method or to
+	 *                      {@link #calculateWithState(Map)} on this engine
+	 * @param changedInputs inputs that have changed since the previous run. A null
+	 *                      value removes the input.
+	 * @return non-null state, with the result of the calculation
+	 */
+	default ICalcState recalculate(ICalcState previous, Map<String, String> changedInputs) {
+		final Map<String, String> inputs = new HashMap<>(previous.getInputs());
+		for (Map.Entry<String, String> entry : changedInputs.entrySet()) {
+			if (entry.getValue() == null) {
+				inputs.remove(entry.getKey());
+			} else {
+				inputs.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return this.calculateWithState(inputs);
+	}
+
+	/**
+	 * Statistics of the cache of results, if the engine caches them.
+	 *
+	 * @return null if the results are not cached
+	 */
+	default CacheStatsDS getCacheStats() {
+		return null;
+	}
+
+	/**
+	 * Statistics of the caches of the pure custom functions whose results are
+	 * cached, if any.
+	 *
+	 * @return non-null, possibly empty, map of the statistics by the name of the
+	 *         function, in lower case
+	 */
+	default Map<String, CacheStatsDS> getFunctionCacheStats() {
+		return Collections.emptyMap();
+	}
+
 	/**
 	 * Releases any resources held by the engine.
 	 */
@@ -76,6 +76,48 @@ public interface ICalcFunction {
 	 */
 	IValue call(IValue[] args, ICalcContext ctx);
 
+	/**
+	 * Executes a function that is called with exactly one argument. The engine
+	 * uses this method, rather than {@link #call(IValue[], ICalcContext)}, to
+	 * avoid creating an array of arguments for every call. The default
+	 * implementation is an adapter to {@link #call(IValue[], ICalcContext)}, and
+	 * hence a function need not implement this method, except for performance.
+	 *
+	 * @param arg the only argument
+	 * @param ctx The calculation context
+	 * @return as in {@link #call(IValue[], ICalcContext)}
+	 */
+	default IValue call1(IValue arg, ICalcContext ctx) {
+		return this.call(new IValue[] { arg }, ctx);
+	}
+
+	/**
+	 * Executes a function that is called with exactly two arguments. See
+	 * {@link #call1(IValue, ICalcContext)}
+	 *
+	 * @param arg1 first argument
+	 * @param arg2 second argument
+	 * @param ctx  The calculation context
+	 * @return as in {@link #call(IValue[], ICalcContext)}
+	 */
+	default IValue call2(IValue arg1, IValue arg2, ICalcContext ctx) {
+		return this.call(new IValue[] { arg1, arg2 }, ctx);
+	}
+
+	/**
+	 * Executes a function that is called with exactly three arguments. See
+	 * {@link #call1(IValue, ICalcContext)}
+	 *
+	 * @param arg1 first argument
+	 * @param arg2 second argument
+	 * @param arg3 third argument
+	 * @param ctx  The calculation context
+	 * @return as in {@link #call(IValue[], ICalcContext)}
+	 */
+	default IValue call3(IValue arg1, IValue arg2, IValue arg3, ICalcContext ctx) {
+		return this.call(new IValue[] { arg1, arg2, arg3 }, ctx);
+	}
+
 	/**
 	 * Gets the predetermined, fixed data type of the value that this function
 	 * returns.
@@ -106,4 +148,20 @@ public interface ICalcFunction {
 	 *         signature convention.
 	 */
 	boolean lastOneIsVararg();
-}
\ No newline at end of file
+
+	/**
+	 * Specifies if the function is pure: its result depends on nothing but its
+	 * arguments, and it has no side effects. It must not refer to the context,
+	 * other than to log errors, nor to any data that changes, like the current
+	 * date. The engine may then cache the results of the function, and the
+	 * results of the calculations that call it.
+	 * <p>
+	 * The default implementation returns false. All the built-in functions are
+	 * pure.
+	 *
+	 * @return {@code true} if the function is pure, {@code false} otherwise.
+	 */
+	default boolean isPure() {
+		return false;
+	}
+}
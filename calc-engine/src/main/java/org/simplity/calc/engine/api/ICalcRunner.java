@@ -0,0 +1,44 @@
+package org.simplity.calc.engine.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * Runs an engine over a stream of input records that may be too large to be
+ * held in memory, like the records of a bulk re-run. The records are read in
+ * chunks, the chunks are calculated concurrently, and the results are handed
+ * over to a sink as they are ready.
+ * <p>
+ * Only a bounded number of chunks are in progress at any time. Reading of the
+ * records is paused until the sink has received a chunk, if that limit is
+ * reached.
+ */
+public interface ICalcRunner {
+
+	/**
+	 * Runs the engine for all the records, and returns after the sink has
+	 * received the results of all of them.
+	 *
+	 * @param inputs input records, each as in {@link ICalcEngine#calculate(Map)}.
+	 *               Read only by the calling thread.
+	 * @param sink   to receive the results
+	 * @return number of records that were calculated
+	 * @throws RuntimeException thrown by the sink, or by the engine, after the
+	 *                          chunks that are in progress are done. The remaining
+	 *                          records are not read.
+	 */
+	long run(Iterator<Map<String, String>> inputs, ICalcSink sink);
+
+	/**
+	 * Runs the engine for all the records, as in {@link #run(Iterator, ICalcSink)}
+	 *
+	 * @param inputs input records
+	 * @param sink   to receive the results
+	 * @return number of records that were calculated
+	 */
+	default long run(Spliterator<Map<String, String>> inputs, ICalcSink sink) {
+		return this.run(Spliterators.iterator(inputs), sink);
+	}
+}
@@ -0,0 +1,23 @@
+package org.simplity.calc.engine.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the results of an {@link ICalcRunner}, a chunk of records at a
+ * time. The runner never calls a sink concurrently. Hence a sink need not be
+ * thread-safe.
+ */
+@FunctionalInterface
+public interface ICalcSink {
+
+	/**
+	 *
+	 * @param firstRecord index of the first record of this chunk, among all the
+	 *                    records of the run
+	 * @param inputs      input records of this chunk
+	 * @param results     results for the records of this chunk, in the same
+	 *                    order
+	 */
+	void accept(long firstRecord, List<Map<String, String>> inputs, CalcBatchResultDS results);
+}
@@ -0,0 +1,29 @@
+package org.simplity.calc.engine.api;
+
+import java.util.Map;
+
+/**
+ * State of a calculation run, as retained by the engine for a subsequent
+ * recalculation with some changed inputs. An interactive client, like a form
+ * that is re-posted on every change, keeps the state returned by
+ * {@link ICalcEngine#calculateWithState(Map)} and passes it to
+ * {@link ICalcEngine#recalculate(ICalcState, Map)} along with the inputs that
+ * have changed since.
+ * <p>
+ * The state is immutable. It is valid only with the engine that produced it.
+ */
+public interface ICalcState {
+
+	/**
+	 *
+	 * @return result of the calculation run
+	 */
+	CalcResultDS getResult();
+
+	/**
+	 *
+	 * @return the input values with which the calculation was run. Must not be
+	 *         modified.
+	 */
+	Map<String, String> getInputs();
+}
@@ -60,13 +60,18 @@ public class CalcConfigDS {
 	public Map<String, Map<String, String>> enumerations;
 
 	/**
-	 *
+	 * data structures, keyed by their names. Each is a map of the data type of its
+	 * members, keyed by their names. A data element of type "ARRAY:ds-name" has
+	 * rows of the data structure ds-name.
 	 */
 	public Map<String, Map<String, String>> dataStructures;
 
 	/**
+	 * reference tables that the rules look up, keyed by the name of the table.
+	 * Table names are case-insensitive
 	 *
+	 * @see TableDS
 	 */
-	public Map<String, Map<String, String>> tables;
+	public Map<String, TableDS> tables;
 
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package org.simplity.calc.engine.config;
+
+/**
+ * Options that control how an engine is built from its configuration. These
+ * options do not alter the results of calculations. They only choose between
+ * alternate implementations, typically to trade build-time effort for run-time
+ * performance.
+ * <p>
+ * An instance with the default values is used if the options are not
+ * specified.
+ */
+public class EngineOptionsDS {
+	/**
+	 * If true, the expressions in the calculators and validators are compiled
+	 * into specialized, type-resolved node trees that call the built-in
+	 * operators directly, and that do not wrap the intermediate booleans. This
+	 * saves about a tenth of the time of a run with rules that are heavy on the
+	 * built-in operators, and is suitable for engines that serve a sustained
+	 * load. Default is false, in which case the expression trees are
+	 * interpreted.
+	 */
+	public boolean compileRules;
+
+	/**
+	 * Relevant only when a subset of the outputs is requested for a calculation.
+	 * If true, a validator is run only if the inputs it depends on overlap with
+	 * the inputs that the requested outputs depend on. Note that this may allow
+	 * a calculation to succeed although a skipped validator would have failed.
+	 * Default is false, in which case all the validators are always run.
+	 */
+	public boolean skipUnrelatedValidators;
+
+	/**
+	 * If true, a batch of records is evaluated in chunks, with the values of each
+	 * variable held in a column of primitives. This is effective only if all the
+	 * rules use numbers, booleans and dates with the built-in operators, other
+	 * than division and remainder. The batch is run one record at a time
+	 * otherwise. Default is false.
+	 */
+	public boolean columnarBatch;
+
+	/**
+	 * If true, the variables and validators are partitioned at build time into
+	 * parts that are independent of each other, and the parts are evaluated
+	 * concurrently on the common fork-join pool. This reduces the latency of a
+	 * calculation with a large configuration on a multi-core host. Applies only
+	 * when all the outputs are calculated. Default is false.
+	 */
+	public boolean evaluateInParallel;
+
+	/**
+	 * Relevant only if evaluateInParallel is true. Minimum number of variables
+	 * and validators in a part that is evaluated as a task of its own. Smaller
+	 * parts are combined. A configuration that has less than two parts of this
+	 * size is evaluated sequentially. Default is 64.
+	 */
+	public int minParallelPartSize = 64;
+
+	/**
+	 * If true, each thread keeps a calculation context that it reuses for all its
+	 * calculations with this engine, rather than allocating one for every
+	 * calculation. This reduces the garbage that is generated under a sustained
+	 * load, at the cost of retaining a context per thread that has used the
+	 * engine. Default is false.
+	 */
+	public boolean poolContexts;
+
+	/**
+	 * Maximum number of results that are cached, so that a calculation that is
+	 * repeated with the same inputs returns the cached result. Only the inputs
+	 * that the engine declares form the key, and any other entries in the inputs
+	 * are ignored. The least recently used results are evicted. Results are not
+	 * cached if they may change with time, as when an input is a date that is
+	 * validated against the current date, or when a rule calls a custom
+	 * function that is not pure. Default is 0, in which case the results are not
+	 * cached.
+	 */
+	public int resultCacheSize;
+
+	/**
+	 * Relevant only if resultCacheSize is positive. Milliseconds after which a
+	 * cached result expires. Default is 0, in which case the results do not
+	 * expire.
+	 */
+	public long resultCacheTtlMillis;
+
+	/**
+	 * Maximum number of results that are cached for each custom function that is
+	 * declared as pure, so that a call with the same arguments, in the same or in
+	 * another calculation, returns the cached result. Default is 0, in which case
+	 * the functions are called every time.
+	 */
+	public int functionCacheSize;
+
+	/**
+	 * If positive, the value of a calculated variable that depends only on
+	 * boolean and enumerated inputs is remembered across calculations, for each
+	 * combination of the values of those inputs, provided there are no more than
+	 * these many combinations. An optional input that is not provided counts as
+	 * one more value. Default is 0, in which case the values are calculated
+	 * every time.
+	 */
+	public int maxMemoizedCombinations;
+
+	/**
+	 * If positive, the engine remembers, for each distinct set of the optional
+	 * inputs that are provided, the variables whose values are then the same in
+	 * every calculation, and the validators that then always pass. A later
+	 * calculation with the same set of provided inputs runs only the rest of the
+	 * rules. This is effective when most of the optional inputs are not provided
+	 * in a typical calculation. This is the maximum number of such sets that are
+	 * remembered. Applies only when all the outputs are calculated, and not when
+	 * evaluateInParallel is true. Default is 0.
+	 */
+	public int maxPresenceSignatures;
+}
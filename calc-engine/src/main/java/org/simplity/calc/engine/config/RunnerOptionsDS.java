@@ -0,0 +1,28 @@
+package org.simplity.calc.engine.config;
+
+/**
+ * Options for running an engine over a stream of records. An instance with the
+ * default values is used if the options are not specified.
+ */
+public class RunnerOptionsDS {
+	/**
+	 * number of records that are calculated together, as a batch, by a worker.
+	 * Default is 1024.
+	 */
+	public int chunkSize = 1024;
+
+	/**
+	 * maximum number of chunks that are read, but are not yet received by the
+	 * sink. This bounds the memory used by a run. Default is 0, in which case it
+	 * is twice the parallelism of the pool.
+	 */
+	public int maxChunksInProgress;
+
+	/**
+	 * If true, the sink receives the chunks in the order in which they are read.
+	 * A chunk that is ready before an earlier one waits for it, and counts
+	 * towards maxChunksInProgress. If false, the chunks are received as they are
+	 * ready. Default is true.
+	 */
+	public boolean ordered = true;
+}
@@ -0,0 +1,62 @@
+package org.simplity.calc.engine.config;
+
+import org.simplity.calc.engine.api.DataType;
+
+/**
+ * A reference table, like the state for a pincode, or the rate of tax deducted
+ * at source for a section. A row of the table is looked up by its key, with the
+ * expression <code>lookup('table_name', key, 'column_name')</code>.
+ * <p>
+ * The rows are indexed when the engine is built. Hence a lookup costs the same,
+ * or nearly so, however large the table is. The rows of a very large table may
+ * be kept in a {@link #dataFile} rather than in the configuration.
+ */
+public class TableDS {
+	/**
+	 * names of the columns, in the order in which their values appear in each
+	 * row. Names are case-insensitive.
+	 */
+	public String[] columnNames;
+
+	/**
+	 * data type of each of the columns, in the same order as that of the names.
+	 * <p>
+	 * <b>Note:</b> This value must match one of the names from the {@link DataType}
+	 * enum (e.g., "NUMBER", "STRING"). For ENUM, the format to use is
+	 * "ENUM:enum-name" where enum-name is the name under which the enumeration is
+	 * indexed in enumerations collection.
+	 */
+	public String[] dataTypes;
+
+	/**
+	 * name of the column with which a row is looked up. Defaults to the first
+	 * column. The key must be unique across the rows.
+	 */
+	public String keyColumn;
+
+	/**
+	 * if true, the key of a row is the lower bound of a range of keys, and a key
+	 * is looked up in the range that it falls in: the row with the largest key that
+	 * is not greater than the key. Otherwise a row is looked up only by an exact
+	 * match of its key.
+	 */
+	public boolean rangeKey;
+
+	/**
+	 * values in each row, as text, in the order of the columns. A number is like
+	 * "1234.50", a boolean is "true" or "false", and a date is like "2025-04-01"
+	 */
+	public String[][] rows;
+
+	/**
+	 * path of a CSV file with the rows of a large table, like the IFSC codes of
+	 * all the bank branches, in place of {@link #rows}. Its first line has the
+	 * names of the columns. The file is converted once into a binary file that is
+	 * indexed on the key, and is named like the CSV file with ".idx" appended. The
+	 * binary file is mapped into memory, rather than read, and is shared by all
+	 * the engines that use it. It is converted again only if the CSV file, or the
+	 * columns of the table, are changed. A range key is not supported for such a
+	 * table.
+	 */
+	public String dataFile;
+}
@@ -6,6 +6,7 @@ import org.simplity.calc.engine.api.ICalcEngine;
 import org.simplity.calc.engine.api.ICalcFunction;
 import org.simplity.calc.engine.api.IEngineShipment;
 import org.simplity.calc.engine.config.CalcConfigDS;
+import org.simplity.calc.engine.config.EngineOptionsDS;
 
 /**
  * The public factory for creating and bootstrapping a ready-to-use
@@ -56,6 +57,26 @@ public final class CalcEngines {
 	 *         {@code null} if any errors were found in the configuration.
 	 */
 	public static IEngineShipment newEngine(CalcConfigDS config, Map<String, ICalcFunction> customFunctions) {
-		return new EngineBuilder(config, customFunctions).build();
+		return newEngine(config, customFunctions, new EngineOptionsDS());
+	}
+
+	/**
+	 * Creates a calculation engine with the specified configuration and build
+	 * options. The configuration data is parsed and validated for any possible
+	 * errors.
+	 *
+	 * @param config          The non-null, root configuration object, typically
+	 *                        deserialized from a JSON file.
+	 * @param customFunctions A non-null, possibly empty map of custom functions to
+	 *                        be added to the engine. Note that a custom function
+	 *                        cannot override a built-in function name.
+	 * @param options         The non-null options that control how the engine is
+	 *                        built.
+	 * @return A fully validated and ready-to-use {@link ICalcEngine} instance, or
+	 *         {@code null} if any errors were found in the configuration.
+	 */
+	public static IEngineShipment newEngine(CalcConfigDS config, Map<String, ICalcFunction> customFunctions,
+			EngineOptionsDS options) {
+		return new EngineBuilder(config, customFunctions, options).build();
 	}
 }
\ No newline at end of file
@@ -41,7 +41,92 @@ public final class CalcFunctions {
 	 */
 	public static ICalcFunction newCalcFunction(IEvaluatorFunction function, IValueType returnType,
 			IValueType[] argTypes, boolean isVarArgs) {
-		return new CalcFunction(function, returnType, argTypes, isVarArgs);
+		return new CalcFunction(function, returnType, argTypes, isVarArgs, false);
+	}
+
+	/**
+	 * Creates an instance of {@link ICalcFunction} that may be declared as pure.
+	 * See {@link ICalcFunction#isPure()}.
+	 *
+	 * @param function   The lambda function that implements the execution logic.
+	 *                   Cannot be null.
+	 * @param returnType The fixed {@link DataType} that this function always
+	 *                   returns. Cannot be null.
+	 * @param argTypes   An array defining the function's parameter signature. See
+	 *                   {@link ICalcFunction} for the conventions. Cannot be null,
+	 *                   but can be an empty array for a no-argument function.
+	 * @param isVarArgs  {@code true} if the function is variadic, {@code false}
+	 *                   otherwise.
+	 * @param isPure     {@code true} if the result of the function depends only on
+	 *                   its arguments.
+	 * @return a non-null, concrete instance of {@code ICalcFunction}.
+	 */
+	public static ICalcFunction newCalcFunction(IEvaluatorFunction function, IValueType returnType,
+			IValueType[] argTypes, boolean isVarArgs, boolean isPure) {
+		return new CalcFunction(function, returnType, argTypes, isVarArgs, isPure);
+	}
+
+	/**
+	 * Creates an instance of {@link ICalcFunction} for a pure function that takes
+	 * exactly one argument. The function implements
+	 * {@link ICalcFunction#call1(IValue, ICalcContext)} without an array of
+	 * arguments.
+	 *
+	 * @param function   execution logic
+	 * @param returnType The fixed {@link DataType} that this function always
+	 *                   returns.
+	 * @param argType    type of the argument, null if it can be of any type
+	 * @return a non-null, concrete instance of {@code ICalcFunction}.
+	 */
+	static ICalcFunction newUnaryFunction(IUnaryEvaluator function, IValueType returnType, IValueType argType) {
+		return new UnaryFunction(function, returnType, new IValueType[] { argType });
+	}
+
+	/**
+	 * Creates an instance of {@link ICalcFunction} for a pure function that takes
+	 * exactly two arguments. The function implements
+	 * {@link ICalcFunction#call2(IValue, IValue, ICalcContext)} without an array
+	 * of arguments.
+	 *
+	 * @param function   execution logic
+	 * @param returnType The fixed {@link DataType} that this function always
+	 *                   returns.
+	 * @param argTypes   types of the two arguments. null element if it can be of
+	 *                   any type
+	 * @return a non-null, concrete instance of {@code ICalcFunction}.
+	 */
+	static ICalcFunction newBinaryFunction(IBinaryEvaluator function, IValueType returnType,
+			IValueType[] argTypes) {
+		return new BinaryFunction(function, returnType, argTypes);
+	}
+
+	/**
+	 * execution logic of a function with one argument
+	 */
+	@FunctionalInterface
+	interface IUnaryEvaluator {
+		/**
+		 *
+		 * @param arg non-null argument
+		 * @param ctx
+		 * @return non-null value
+		 */
+		IValue apply(IValue arg, ICalcContext ctx);
+	}
+
+	/**
+	 * execution logic of a function with two arguments
+	 */
+	@FunctionalInterface
+	interface IBinaryEvaluator {
+		/**
+		 *
+		 * @param arg1 non-null first argument
+		 * @param arg2 non-null second argument
+		 * @param ctx
+		 * @return non-null value
+		 */
+		IValue apply(IValue arg1, IValue arg2, ICalcContext ctx);
 	}
 
 	/**
@@ -54,13 +139,15 @@ public final class CalcFunctions {
 		private final IValueType[] argTypes;
 		private final boolean lastOneIsVararg;
 		private final IValueType returnType;
+		private final boolean isPure;
 
 		protected CalcFunction(IEvaluatorFunction function, IValueType returnType, IValueType[] argTypes,
-				boolean lastOneIsVararg) {
+				boolean lastOneIsVararg, boolean isPure) {
 			this.function = function;
 			this.argTypes = argTypes;
 			this.lastOneIsVararg = lastOneIsVararg;
 			this.returnType = returnType;
+			this.isPure = isPure;
 		}
 
 		@Override
@@ -78,9 +165,48 @@ public final class CalcFunctions {
 			return this.returnType;
 		}
 
+		@Override
+		public boolean isPure() {
+			return this.isPure;
+		}
+
 		@Override
 		public IValue call(IValue[] args, ICalcContext ctx) {
 			return this.function.apply(args, ctx);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * function with exactly one argument
+	 */
+	private static class UnaryFunction extends CalcFunction {
+		private final IUnaryEvaluator unary;
+
+		protected UnaryFunction(IUnaryEvaluator function, IValueType returnType, IValueType[] argTypes) {
+			super((args, ctx) -> function.apply(args[0], ctx), returnType, argTypes, false, true);
+			this.unary = function;
+		}
+
+		@Override
+		public IValue call1(IValue arg, ICalcContext ctx) {
+			return this.unary.apply(arg, ctx);
+		}
+	}
+
+	/**
+	 * function with exactly two arguments
+	 */
+	private static class BinaryFunction extends CalcFunction {
+		private final IBinaryEvaluator binary;
+
+		protected BinaryFunction(IBinaryEvaluator function, IValueType returnType, IValueType[] argTypes) {
+			super((args, ctx) -> function.apply(args[0], args[1], ctx), returnType, argTypes, false, true);
+			this.binary = function;
+		}
+
+		@Override
+		public IValue call2(IValue arg1, IValue arg2, ICalcContext ctx) {
+			return this.binary.apply(arg1, arg2, ctx);
+		}
+	}
+}
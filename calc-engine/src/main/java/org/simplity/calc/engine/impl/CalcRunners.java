@@ -0,0 +1,45 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.simplity.calc.engine.api.ICalcEngine;
+import org.simplity.calc.engine.api.ICalcRunner;
+import org.simplity.calc.engine.config.RunnerOptionsDS;
+
+/**
+ * The public factory for creating an {@link ICalcRunner} to run an engine over
+ * a stream of records, with the records spread across the cores.
+ */
+public final class CalcRunners {
+
+	/**
+	 * Private constructor to prevent instantiation of this utility class.
+	 */
+	private CalcRunners() {
+		//
+	}
+
+	/**
+	 * Creates a runner that uses the common fork-join pool, with the default
+	 * options.
+	 *
+	 * @param engine non-null engine to be run
+	 * @return runner
+	 */
+	public static ICalcRunner newRunner(ICalcEngine engine) {
+		return newRunner(engine, ForkJoinPool.commonPool(), new RunnerOptionsDS());
+	}
+
+	/**
+	 * Creates a runner with the specified pool and options.
+	 *
+	 * @param engine  non-null engine to be run
+	 * @param pool    non-null pool on which the chunks are calculated. The pool is
+	 *                not shut down by the runner.
+	 * @param options non-null options
+	 * @return runner
+	 */
+	public static ICalcRunner newRunner(ICalcEngine engine, ForkJoinPool pool, RunnerOptionsDS options) {
+		return new CalcRunner(engine, pool, options);
+	}
+}
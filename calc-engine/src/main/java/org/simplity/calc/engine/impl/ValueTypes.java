@@ -95,6 +95,16 @@ public class ValueTypes {
 		return new NamedType(DataType.TABLE, valueTypeName);
 	}
 
+	/**
+	 *
+	 * @param valueTypeName name of the data structure of the rows
+	 * @return an IValue instance for an array of rows of a data structure
+	 *
+	 */
+	public static IValueType newArrayType(String valueTypeName) {
+		return new NamedType(DataType.ARRAY, valueTypeName);
+	}
+
 	/**
 	 * internally used while building an engine
 	 *
@@ -123,7 +133,7 @@ public class ValueTypes {
 			return null;
 		}
 
-		if (parts.length == 0) {
+		if (parts.length == 1) {
 			/*
 			 * 3: un-named data type should be primitive-type
 			 */
@@ -155,15 +165,22 @@ public class ValueTypes {
 			return null;
 
 		case DS:
-			if (engineBuilder.getEnumValues(dtName) != null) {
-				return newEnumType(dtName);
+			if (engineBuilder.getDataStructure(dtName) != null) {
+				return newDataStructureType(dtName);
+			}
+			engineBuilder.logError("'" + dtName + "' is not a valid dataStructure definition.", "DataElement", name);
+			return null;
+
+		case ARRAY:
+			if (engineBuilder.getDataStructure(dtName) != null) {
+				return newArrayType(dtName);
 			}
 			engineBuilder.logError("'" + dtName + "' is not a valid dataStructure definition.", "DataElement", name);
 			return null;
 
 		case TABLE:
-			if (engineBuilder.getEnumValues(dtName) != null) {
-				return newEnumType(dtName);
+			if (engineBuilder.getTable(dtName) != null) {
+				return newTableType(dtName);
 			}
 			engineBuilder.logError("'" + dtName + "' is not a valid table definition.", "DataElement", name);
 			return null;
@@ -2,8 +2,10 @@
 package org.simplity.calc.engine.impl;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Objects;
 
 import org.simplity.calc.engine.api.DataType;
@@ -28,6 +30,12 @@ import org.simplity.calc.engine.api.IValueType;
  */
 public final class Values {
 
+	/*
+	 * boolean values are immutable, and there are only two of them
+	 */
+	private static final IValue TRUE = new BooleanValue(true);
+	private static final IValue FALSE = new BooleanValue(false);
+
 	/**
 	 * Private constructor to prevent instantiation of this utility class.
 	 */
@@ -46,6 +54,21 @@ public final class Values {
 		return new NumberValue(value);
 	}
 
+	/**
+	 * Creates a new {@code IValue} of type {@code NUMBER} from its fixed-point
+	 * representation. For example, (12345, 2) represents 123.45
+	 *
+	 * @param unscaledValue unscaled value of the number.
+	 * @param scale         number of digits to the right of the decimal point
+	 * @return a non-null {@code IValue} instance representing the number.
+	 */
+	static IValue newValue(long unscaledValue, int scale) {
+		if (unscaledValue == NumberValue.INFLATED) {
+			return new NumberValue(BigDecimal.valueOf(unscaledValue, scale));
+		}
+		return new NumberValue(unscaledValue, scale);
+	}
+
 	/**
 	 * Creates a new {@code IValue} of type {@code BOOLEAN}.
 	 *
@@ -53,7 +76,7 @@ public final class Values {
 	 * @return a non-null {@code IValue} instance representing the boolean.
 	 */
 	public static IValue newValue(boolean value) {
-		return new BooleanValue(value);
+		return value ? TRUE : FALSE;
 	}
 
 	/**
@@ -102,6 +125,28 @@ public final class Values {
 		return new EnumeratedValue(enumName, enumValue);
 	}
 
+	/**
+	 * Creates a new {@code IValue} of type {@code ARRAY}.
+	 *
+	 * @param dsName name of the data structure of the rows
+	 * @param rows   values of the members of each row, in the order of the
+	 *               members of the data structure. Not copied, and hence must not
+	 *               be modified after this call.
+	 * @return a non-null {@code IValue} instance representing the rows.
+	 */
+	static IValue newArrayValue(String dsName, IValue[][] rows) {
+		return new ArrayValue(dsName, rows);
+	}
+
+	/**
+	 *
+	 * @param array non-null value of type {@code ARRAY}
+	 * @return the rows of the array. They must not be modified.
+	 */
+	static IValue[][] getRows(IValue array) {
+		return ((ArrayValue) array).rows;
+	}
+
 	/**
 	 * Creates a new {@code IValue} of the specified type. This is intended for
 	 * utility functions that may just want an {@code IValue} instance of a specific
@@ -115,9 +160,9 @@ public final class Values {
 		Objects.requireNonNull(valueType, "A non-null ValueType value is required.");
 		switch (valueType) {
 		case NUMBER:
-			return new NumberValue(BigDecimal.valueOf(0));
+			return new NumberValue(0, 0);
 		case BOOLEAN:
-			return new BooleanValue(false);
+			return FALSE;
 		case DATE:
 			return new DateValue(LocalDate.now());
 		case STRING:
@@ -128,29 +173,245 @@ public final class Values {
 		}
 	}
 
+	/*
+	 * Arithmetic on numbers. Numbers that fit into a long are operated upon as
+	 * fixed-point values, with overflow checks. We fall back to BigDecimal in
+	 * case of an overflow, or if the result can not be represented exactly. The
+	 * results, including their scales, are always the same as that of the
+	 * corresponding BigDecimal operations.
+	 */
+
 	/**
-	 * A private, abstract base class providing a skeletal implementation of the
-	 * {@link IValue} interface. It provides the common, final implementations of
-	 * {@code equals()}, {@code hashCode()}, {@code toString()}, and the default
-	 * "throwing" behavior for incorrect type accessors, ensuring consistency across
-	 * all value types.
+	 *
+	 * @param a non-null number
+	 * @param b non-null number
+	 * @return a + b
 	 */
-	private abstract static class Value<T> implements IValue {
+	static IValue add(IValue a, IValue b) {
+		if (a instanceof NumberValue && b instanceof NumberValue) {
+			final NumberValue x = (NumberValue) a;
+			final NumberValue y = (NumberValue) b;
+			if (x.isCompact() && y.isCompact()) {
+				try {
+					if (x.scale == y.scale) {
+						return newValue(Math.addExact(x.unscaled, y.unscaled), x.scale);
+					}
+					if (x.scale < y.scale) {
+						return newValue(Math.addExact(rescale(x.unscaled, y.scale - x.scale), y.unscaled), y.scale);
+					}
+					return newValue(Math.addExact(x.unscaled, rescale(y.unscaled, x.scale - y.scale)), x.scale);
+				} catch (ArithmeticException e) {
+					// overflow. use BigDecimal
+				}
+			}
+		}
+		return newValue(a.getNumberValue().add(b.getNumberValue()));
+	}
 
-		/** The underlying, non-null value object. */
-		protected final T value;
+	/**
+	 *
+	 * @param a non-null number
+	 * @param b non-null number
+	 * @return a - b
+	 */
+	static IValue subtract(IValue a, IValue b) {
+		if (a instanceof NumberValue && b instanceof NumberValue) {
+			final NumberValue x = (NumberValue) a;
+			final NumberValue y = (NumberValue) b;
+			if (x.isCompact() && y.isCompact()) {
+				try {
+					if (x.scale == y.scale) {
+						return newValue(Math.subtractExact(x.unscaled, y.unscaled), x.scale);
+					}
+					if (x.scale < y.scale) {
+						return newValue(Math.subtractExact(rescale(x.unscaled, y.scale - x.scale), y.unscaled),
+								y.scale);
+					}
+					return newValue(Math.subtractExact(x.unscaled, rescale(y.unscaled, x.scale - y.scale)), x.scale);
+				} catch (ArithmeticException e) {
+					// overflow. use BigDecimal
+				}
+			}
+		}
+		return newValue(a.getNumberValue().subtract(b.getNumberValue()));
+	}
+
+	/**
+	 *
+	 * @param a non-null number
+	 * @param b non-null number
+	 * @return a * b
+	 */
+	static IValue multiply(IValue a, IValue b) {
+		if (a instanceof NumberValue && b instanceof NumberValue) {
+			final NumberValue x = (NumberValue) a;
+			final NumberValue y = (NumberValue) b;
+			if (x.isCompact() && y.isCompact()) {
+				try {
+					return newValue(Math.multiplyExact(x.unscaled, y.unscaled), Math.addExact(x.scale, y.scale));
+				} catch (ArithmeticException e) {
+					// overflow. use BigDecimal
+				}
+			}
+		}
+		return newValue(a.getNumberValue().multiply(b.getNumberValue()));
+	}
+
+	/**
+	 *
+	 * @param a non-null number
+	 * @param b non-null number
+	 * @return a / b
+	 * @throws ArithmeticException if b is zero, or if the quotient has a
+	 *                             non-terminating decimal expansion
+	 */
+	static IValue divide(IValue a, IValue b) {
+		if (a instanceof NumberValue && b instanceof NumberValue) {
+			final NumberValue x = (NumberValue) a;
+			final NumberValue y = (NumberValue) b;
+			/*
+			 * when the divisor divides the unscaled value exactly, the quotient at the
+			 * preferred scale (x.scale - y.scale) is what BigDecimal returns.
+			 */
+			if (x.isCompact() && y.isCompact() && y.unscaled != 0 && x.unscaled % y.unscaled == 0
+					&& !(x.unscaled == Long.MIN_VALUE && y.unscaled == -1)) {
+				try {
+					return newValue(x.unscaled / y.unscaled, Math.subtractExact(x.scale, y.scale));
+				} catch (ArithmeticException e) {
+					// overflow of scale. use BigDecimal
+				}
+			}
+		}
+		return newValue(a.getNumberValue().divide(b.getNumberValue()));
+	}
+
+	/**
+	 *
+	 * @param a non-null number
+	 * @param b non-null number
+	 * @return a % b
+	 * @throws ArithmeticException if b is zero
+	 */
+	static IValue remainder(IValue a, IValue b) {
+		if (a instanceof NumberValue && b instanceof NumberValue) {
+			final NumberValue x = (NumberValue) a;
+			final NumberValue y = (NumberValue) b;
+			if (x.isCompact() && y.isCompact() && x.scale == y.scale && y.unscaled != 0) {
+				return newValue(x.unscaled % y.unscaled, x.scale);
+			}
+		}
+		return newValue(a.getNumberValue().remainder(b.getNumberValue()));
+	}
+
+	/**
+	 *
+	 * @param a non-null number
+	 * @return -a
+	 */
+	static IValue negate(IValue a) {
+		if (a instanceof NumberValue) {
+			final NumberValue x = (NumberValue) a;
+			// -INFLATED can not be compact, and is never one
+			if (x.isCompact()) {
+				return newValue(-x.unscaled, x.scale);
+			}
+		}
+		return newValue(a.getNumberValue().negate());
+	}
+
+	/**
+	 * marks a number that does not fit into the fixed-point form
+	 */
+	static final long NOT_COMPACT = Long.MIN_VALUE;
+
+	/**
+	 *
+	 * @param a non-null number
+	 * @return unscaled value of the number in its fixed-point form, or
+	 *         {@link #NOT_COMPACT} if it does not fit into a long
+	 */
+	static long unscaledValue(IValue a) {
+		if (a instanceof NumberValue) {
+			return ((NumberValue) a).unscaled;
+		}
+		return NOT_COMPACT;
+	}
+
+	/**
+	 *
+	 * @param a non-null number
+	 * @return scale of the number
+	 */
+	static int scale(IValue a) {
+		if (a instanceof NumberValue) {
+			return ((NumberValue) a).scale;
+		}
+		return a.getNumberValue().scale();
+	}
+
+	/**
+	 *
+	 * @param a non-null number
+	 * @param b non-null number
+	 * @return negative, zero or positive integer as a is less than, equal to, or
+	 *         greater than b
+	 */
+	static int compare(IValue a, IValue b) {
+		if (a instanceof NumberValue && b instanceof NumberValue) {
+			final NumberValue x = (NumberValue) a;
+			final NumberValue y = (NumberValue) b;
+			if (x.isCompact() && y.isCompact()) {
+				try {
+					if (x.scale == y.scale) {
+						return Long.compare(x.unscaled, y.unscaled);
+					}
+					if (x.scale < y.scale) {
+						return Long.compare(rescale(x.unscaled, y.scale - x.scale), y.unscaled);
+					}
+					return Long.compare(x.unscaled, rescale(y.unscaled, x.scale - y.scale));
+				} catch (ArithmeticException e) {
+					// overflow. use BigDecimal
+				}
+			}
+		}
+		return a.getNumberValue().compareTo(b.getNumberValue());
+	}
+
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L,
+			10_000_000L, 100_000_000L, 1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L,
+			10_000_000_000_000L, 100_000_000_000_000L, 1_000_000_000_000_000L, 10_000_000_000_000_000L,
+			100_000_000_000_000_000L, 1_000_000_000_000_000_000L };
+
+	/**
+	 *
+	 * @param unscaled
+	 * @param by       positive number of digits
+	 * @return unscaled * 10^by
+	 * @throws ArithmeticException in case of an overflow
+	 */
+	static long rescale(long unscaled, int by) {
+		if (by < 0 || by >= POWERS_OF_TEN.length) {
+			throw new ArithmeticException("overflow");
+		}
+		return Math.multiplyExact(unscaled, POWERS_OF_TEN[by]);
+	}
+
+	/**
+	 * A private, abstract base class providing a skeletal implementation of the
+	 * {@link IValue} interface. It provides the default "throwing" behavior for
+	 * incorrect type accessors, ensuring consistency across all value types.
+	 */
+	private abstract static class BaseValue implements IValue {
 
 		/** The corresponding, non-null value type. */
 		protected final IValueType valueType;
 
 		/**
-		 * Constructs the base Value.
+		 * Constructs the base value.
 		 *
-		 * @param value     The non-null value object.
 		 * @param valueType The non-null type enum.
 		 */
-		Value(T value, IValueType valueType) {
-			this.value = value;
+		BaseValue(IValueType valueType) {
 			this.valueType = valueType;
 		}
 
@@ -159,11 +420,6 @@ public final class Values {
 			return this.valueType;
 		}
 
-		@Override
-		public final Object getValue() {
-			return this.value;
-		}
-
 		@Override
 		public BigDecimal getNumberValue() {
 			throw new IllegalStateException(this.getMessage("number"));
@@ -189,6 +445,59 @@ public final class Values {
 			throw new IllegalStateException(this.getMessage("LocalDate"));
 		}
 
+		@Override
+		public int compareTo(IValue otherValue) {
+			Objects.requireNonNull(otherValue, "A non-null value is required.");
+
+			if (otherValue.getValueType() != this.valueType) {
+				throw new IllegalArgumentException(this.canNotCompare(otherValue.getValueType()));
+			}
+			return this.doCompare(otherValue);
+		}
+
+		/**
+		 * concrete classes should override if the comparison is valid
+		 *
+		 * @param otherValue
+		 * @return
+		 */
+		protected int doCompare(IValue otherValue) {
+			throw new IllegalArgumentException("Values of type '" + this.valueType + "' can not be compared");
+		}
+
+		private String canNotCompare(IValueType type) {
+			return "Value of type " + this.valueType + " can not be campared with another value of type " + type;
+		}
+
+		private String getMessage(String type) {
+			return "Invalid operation: Can not get a " + type + " from a value of type " + this.valueType;
+		}
+	}
+
+	/**
+	 * Skeletal implementation for values that are held as an object.
+	 */
+	private abstract static class Value<T> extends BaseValue {
+
+		/** The underlying, non-null value object. */
+		protected final T value;
+
+		/**
+		 * Constructs the base Value.
+		 *
+		 * @param value     The non-null value object.
+		 * @param valueType The non-null type enum.
+		 */
+		Value(T value, IValueType valueType) {
+			super(valueType);
+			this.value = value;
+		}
+
+		@Override
+		public final Object getValue() {
+			return this.value;
+		}
+
 		@Override
 		public final int hashCode() {
 			return Objects.hash(this.value);
@@ -214,52 +523,94 @@ public final class Values {
 		public String toString() {
 			return this.value.toString();
 		}
+	}
 
-		@Override
-		public int compareTo(IValue otherValue) {
-			Objects.requireNonNull(otherValue, "A non-null value is required.");
+	/**
+	 * An immutable, package-private implementation of IValue for the NUMBER type.
+	 * A number whose unscaled value fits into a long is held in its fixed-point
+	 * form, and the {@link BigDecimal} is created only when it is asked for.
+	 * <p>
+	 * A number has exactly one of the two representations: it is compact if and
+	 * only if its unscaled value fits into a long. Hence equal numbers (as per
+	 * {@link BigDecimal#equals(Object)}) have equal fields.
+	 */
+	private static final class NumberValue extends BaseValue {
+		/**
+		 * marks a number that is not compact
+		 */
+		static final long INFLATED = NOT_COMPACT;
 
-			if (otherValue.getValueType() != this.valueType) {
-				throw new IllegalArgumentException(this.canNotCompare(otherValue.getValueType()));
-			}
-			return this.doCompare(otherValue);
-		}
+		final long unscaled;
+		final int scale;
 
-		/**
-		 * concrete classes should override if the comparison is valid
-		 *
-		 * @param otherValue
-		 * @return
+		/*
+		 * created lazily for a compact number. Racy, but benign since BigDecimal is
+		 * immutable
 		 */
-		protected int doCompare(IValue otherValue) {
-			throw new IllegalArgumentException("Values of type '" + this.valueType + "' can not be compared");
-		}
+		private BigDecimal bigValue;
 
-		private String canNotCompare(IValueType type) {
-			return "Value of type " + this.valueType + " can not be campared with another value of type " + type;
+		protected NumberValue(long unscaled, int scale) {
+			super(ValueTypes.NUMBER);
+			this.unscaled = unscaled;
+			this.scale = scale;
 		}
 
-		private String getMessage(String type) {
-			return "Invalid operation: Can not get a " + type + " from a value of type " + this.valueType;
+		protected NumberValue(BigDecimal value) {
+			super(ValueTypes.NUMBER);
+			this.bigValue = value;
+			this.scale = value.scale();
+			BigInteger u = value.unscaledValue();
+			this.unscaled = u.bitLength() < 64 ? u.longValue() : INFLATED;
 		}
-	}
 
-	/**
-	 * An immutable, package-private implementation of IValue for the NUMBER type.
-	 */
-	private static class NumberValue extends Value<BigDecimal> {
-		protected NumberValue(BigDecimal value) {
-			super(value, ValueTypes.NUMBER);
+		boolean isCompact() {
+			return this.unscaled != INFLATED;
 		}
 
 		@Override
 		public BigDecimal getNumberValue() {
-			return this.value;
+			BigDecimal b = this.bigValue;
+			if (b == null) {
+				b = BigDecimal.valueOf(this.unscaled, this.scale);
+				this.bigValue = b;
+			}
+			return b;
+		}
+
+		@Override
+		public Object getValue() {
+			return this.getNumberValue();
+		}
+
+		@Override
+		public int hashCode() {
+			// same as that of the other values
+			return Objects.hash(this.getNumberValue());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof NumberValue)) {
+				return false;
+			}
+			NumberValue other = (NumberValue) obj;
+			if (this.isCompact()) {
+				return this.unscaled == other.unscaled && this.scale == other.scale;
+			}
+			return !other.isCompact() && this.bigValue.equals(other.bigValue);
+		}
+
+		@Override
+		public String toString() {
+			return this.getNumberValue().toString();
 		}
 
 		@Override
 		protected int doCompare(IValue otherValue) {
-			return this.value.compareTo(otherValue.getNumberValue());
+			return compare(this, otherValue);
 		}
 	}
 
@@ -333,13 +684,52 @@ public final class Values {
 	}
 
 	/**
-	 * An immutable, package-private implementation of IValue for the BOOLEAN type.
+	 * An immutable, package-private implementation of IValue for the ENUM type.
 	 */
 	private static class EnumeratedValue extends Value<String> {
 		protected EnumeratedValue(String enumName, String enumValue) {
-			super(enumValue, ValueTypes.newDataStructureType(enumName));
+			super(enumValue, ValueTypes.newEnumType(enumName));
 		}
 
 		// this valueType can only be checked for equality. No other operation is valid
 	}
-}
\ No newline at end of file
+
+	/**
+	 * An immutable, package-private implementation of IValue for the ARRAY type.
+	 */
+	private static final class ArrayValue extends BaseValue {
+		final IValue[][] rows;
+
+		ArrayValue(String dsName, IValue[][] rows) {
+			super(ValueTypes.newArrayType(dsName));
+			this.rows = rows;
+		}
+
+		@Override
+		public Object getValue() {
+			return this.rows;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.deepHashCode(this.rows);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ArrayValue)) {
+				return false;
+			}
+			final ArrayValue other = (ArrayValue) obj;
+			return this.valueType.equals(other.valueType) && Arrays.deepEquals(this.rows, other.rows);
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.deepToString(this.rows);
+		}
+	}
+}
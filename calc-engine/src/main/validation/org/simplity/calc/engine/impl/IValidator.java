@@ -1,7 +1,5 @@
 package org.simplity.calc.engine.impl;
 
-import org.simplity.calc.engine.api.ICalcContext;
-
 /**
  * Defines the contract for a component that can validate a given value as per
  * validation rules. The component also has the ability to participate in a dry
@@ -17,7 +15,7 @@ public interface IValidator {
 	 *            if the validation fails
 	 * @return true of the validation passes. false otherwise
 	 */
-	boolean validate(ICalcContext ctx);
+	boolean validate(IEvaluationContext ctx);
 
 	/**
 	 * Dryrun this validator to check if it is semantically possible to use the
@@ -17,4 +17,14 @@ public interface IValueParser {
 	 *         error
 	 */
 	IValue parse(String textValue);
+
+	/**
+	 * Whether the result of parsing a text may change with time,
+	 * as for a date that has to be within a range around the current date.
+	 *
+	 * @return true if the same text may be parsed differently at a later time
+	 */
+	default boolean isClockDependent() {
+		return false;
+	}
 }
@@ -0,0 +1,146 @@
+package org.simplity.calc.engine.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.simplity.calc.engine.api.IValue;
+
+/**
+ * Guards that are shared by the validators. A validator that applies only in
+ * some cases starts with a guard, as in <code>!old_regime | deductions &lt;=
+ * 150000</code>, or <code>has_rent &amp; rent &gt; 0</code>. When several
+ * validators start with the same guard, the guard is made an internal variable
+ * of its own, and the validators refer to that variable instead.
+ * <p>
+ * As with any variable, the value of the guard is evaluated once per
+ * calculation, and is cached in the context. Each validator of the group then
+ * only finds the value of the guard in the context, and the rest of it is
+ * skipped when the guard decides the result. The validators themselves are
+ * retained in their order, and hence the errors are reported exactly as before.
+ */
+final class ValidatorGuards {
+	private static final String GUARD_PREFIX = "$guard";
+
+	private ValidatorGuards() {
+		//
+	}
+
+	/**
+	 * replace the guards that are shared by more than one validator with
+	 * references to internal variables that are added to the builder
+	 *
+	 * @param expressions  boolean expressions of the validators. An entry is null
+	 *                     if it is in error.
+	 * @param builder      to which the internal variables are added
+	 * @param compiler     null if the rules are to be interpreted
+	 * @param nbrVariables number of variables in the builder, and hence the slot
+	 *                     of the first internal variable
+	 * @return the expressions, with the shared guards replaced, in the same order
+	 */
+	static IExpression[] shareGuards(IExpression[] expressions, IEngineBuilder builder, RuleCompiler compiler,
+			int nbrVariables) {
+		final String[] keys = new String[expressions.length];
+		final Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < expressions.length; i++) {
+			final IExpression guard = getGuard(expressions[i]);
+			if (guard == null || guard instanceof VariableExpression || guard instanceof LiteralExpression) {
+				// nothing to be gained in sharing a variable or a constant
+				continue;
+			}
+			keys[i] = toKey(guard);
+			if (keys[i] != null) {
+				counts.merge(keys[i], 1, Integer::sum);
+			}
+		}
+
+		final IExpression[] result = expressions.clone();
+		final Map<String, VariableExpression> guards = new HashMap<>();
+		int slot = nbrVariables;
+		for (int i = 0; i < expressions.length; i++) {
+			final String key = keys[i];
+			if (key == null || counts.get(key) < 2) {
+				continue;
+			}
+			VariableExpression ref = guards.get(key);
+			if (ref == null) {
+				final IExpression guard = getGuard(expressions[i]);
+				final String name = GUARD_PREFIX + guards.size();
+				final IVariable variable = Variables.newInternalVariable(name, slot, guard.getValueType(),
+						Calculators.newCalculator(guard, guard.getValueType(), compiler));
+				builder.addVariable(variable);
+				ref = new VariableExpression(name, slot, guard.getValueType());
+				guards.put(key, ref);
+				slot++;
+			}
+			result[i] = replaceGuard(expressions[i], ref);
+		}
+		return result;
+	}
+
+	/**
+	 * the leading operand of a chain of '&amp;' or of '|'
+	 *
+	 * @return null if the expression is not such a chain
+	 */
+	private static IExpression getGuard(IExpression expression) {
+		if (expression instanceof LogicalExpression == false) {
+			return null;
+		}
+		LogicalExpression le = (LogicalExpression) expression;
+		while (le.getLeft() instanceof LogicalExpression && ((LogicalExpression) le.getLeft()).isAnd() == le.isAnd()) {
+			le = (LogicalExpression) le.getLeft();
+		}
+		return le.getLeft();
+	}
+
+	private static IExpression replaceGuard(IExpression expression, IExpression guard) {
+		final LogicalExpression le = (LogicalExpression) expression;
+		final IExpression left = le.getLeft();
+		if (left instanceof LogicalExpression && ((LogicalExpression) left).isAnd() == le.isAnd()) {
+			return new LogicalExpression(le.isAnd(), replaceGuard(left, guard), le.getRight());
+		}
+		return new LogicalExpression(le.isAnd(), guard, le.getRight());
+	}
+
+	/**
+	 * a text that is the same for two expressions if and only if they are made
+	 * of the same operators, functions, variables and constants
+	 *
+	 * @return null if the expression has a part that is not known to be compared
+	 */
+	private static String toKey(IExpression expression) {
+		if (expression instanceof VariableExpression) {
+			return ((VariableExpression) expression).getVariableName();
+		}
+		if (expression instanceof LiteralExpression) {
+			final IValue value = ((LiteralExpression) expression).getValue();
+			return "'" + value.getValueType().getValueTypeName() + ':' + value.getValue() + "'";
+		}
+		if (expression instanceof LogicalExpression) {
+			final LogicalExpression le = (LogicalExpression) expression;
+			final String left = toKey(le.getLeft());
+			final String right = toKey(le.getRight());
+			if (left == null || right == null) {
+				return null;
+			}
+			return (le.isAnd() ? "&(" : "|(") + left + ',' + right + ')';
+		}
+		if (expression instanceof FunctionExpression) {
+			final FunctionExpression fe = (FunctionExpression) expression;
+			if (!fe.getFunction().isPure()) {
+				// its value may differ from one call to the next
+				return null;
+			}
+			final StringBuilder sbf = new StringBuilder(fe.getFunctionName()).append('(');
+			for (IExpression arg : fe.getArguments()) {
+				final String key = toKey(arg);
+				if (key == null) {
+					return null;
+				}
+				sbf.append(key).append(',');
+			}
+			return sbf.append(')').toString();
+		}
+		return null;
+	}
+}
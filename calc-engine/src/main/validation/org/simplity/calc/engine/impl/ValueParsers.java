@@ -4,12 +4,18 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.simplity.calc.engine.api.IValue;
 import org.simplity.calc.engine.api.DataType;
 import org.simplity.calc.engine.config.ValueSchemaDS;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
 /**
  * Utility class to create IValueParser instance from a ValueSchema
  */
@@ -142,15 +148,41 @@ class ValueParsers {
 	 * constraints.
 	 */
 	private static class NumberParser implements IValueParser {
+		/*
+		 * max number of digits that a long can hold, for sure
+		 */
+		private static final int MAX_DIGITS = 18;
+		private static final long NOT_SIMPLE = Long.MIN_VALUE;
+
 		private final int nbrDecimalPlaces;
 		private final RoundingMode roundingMode = RoundingMode.HALF_EVEN;
 		private final BigDecimal min;
 		private final BigDecimal max;
 
+		/*
+		 * if all the valid values fit into a long, the text is parsed directly into
+		 * its fixed-point form, except when it requires rounding
+		 */
+		private final boolean isFixedPoint;
+		private final long minUnscaled;
+		private final long maxUnscaled;
+
 		protected NumberParser(int nbrDecimalPlaces, double min, double max) {
 			this.nbrDecimalPlaces = nbrDecimalPlaces;
 			this.min = BigDecimal.valueOf(min);
 			this.max = BigDecimal.valueOf(max);
+
+			BigDecimal lowest = this.min.setScale(nbrDecimalPlaces, RoundingMode.CEILING);
+			BigDecimal highest = this.max.setScale(nbrDecimalPlaces, RoundingMode.FLOOR);
+			this.isFixedPoint = nbrDecimalPlaces >= 0 && nbrDecimalPlaces <= MAX_DIGITS
+					&& lowest.precision() <= MAX_DIGITS && highest.precision() <= MAX_DIGITS;
+			if (this.isFixedPoint) {
+				this.minUnscaled = lowest.unscaledValue().longValue();
+				this.maxUnscaled = highest.unscaledValue().longValue();
+			} else {
+				this.minUnscaled = 0;
+				this.maxUnscaled = 0;
+			}
 		}
 
 		@Override
@@ -159,6 +191,16 @@ class ValueParsers {
 				return null;
 			}
 
+			if (this.isFixedPoint) {
+				long unscaled = this.toUnscaled(textValue);
+				if (unscaled != NOT_SIMPLE) {
+					if (unscaled < this.minUnscaled || unscaled > this.maxUnscaled) {
+						return null;
+					}
+					return Values.newValue(unscaled, this.nbrDecimalPlaces);
+				}
+			}
+
 			BigDecimal parsedNumber;
 			try {
 				// 1. Parse the string into a BigDecimal.
@@ -178,6 +220,67 @@ class ValueParsers {
 			// Return a NumberValue containing the rounded and validated number.
 			return Values.newValue(roundedNumber);
 		}
+
+		/**
+		 * parse a plain decimal text, like "-1234.5", into its unscaled value at the
+		 * scale of this parser.
+		 *
+		 * @param text
+		 * @return NOT_SIMPLE if the text is not a plain decimal, or it needs
+		 *         rounding, or it has too many digits. Such a text is to be parsed
+		 *         with BigDecimal.
+		 */
+		private long toUnscaled(String text) {
+			final int n = text.length();
+			int i = 0;
+			boolean negative = false;
+			char c = text.charAt(0);
+			if (c == '-' || c == '+') {
+				negative = c == '-';
+				i = 1;
+			}
+
+			long unscaled = 0;
+			int nbrDigits = 0;
+			int nbrDecimals = -1;
+			for (; i < n; i++) {
+				c = text.charAt(i);
+				if (c == '.') {
+					if (nbrDecimals >= 0) {
+						return NOT_SIMPLE;
+					}
+					nbrDecimals = 0;
+					continue;
+				}
+				if (c < '0' || c > '9') {
+					return NOT_SIMPLE;
+				}
+				if (nbrDecimals >= 0) {
+					nbrDecimals++;
+					if (nbrDecimals > this.nbrDecimalPlaces) {
+						// to be rounded
+						return NOT_SIMPLE;
+					}
+				}
+				nbrDigits++;
+				unscaled = unscaled * 10 + (c - '0');
+			}
+
+			if (nbrDigits == 0) {
+				return NOT_SIMPLE;
+			}
+			if (nbrDecimals < 0) {
+				nbrDecimals = 0;
+			}
+			final int shift = this.nbrDecimalPlaces - nbrDecimals;
+			if (nbrDigits + shift > MAX_DIGITS) {
+				return NOT_SIMPLE;
+			}
+			for (int j = 0; j < shift; j++) {
+				unscaled *= 10;
+			}
+			return negative ? -unscaled : unscaled;
+		}
 	}
 
 	private static class DateParser implements IValueParser {
@@ -217,6 +320,78 @@ class ValueParsers {
 
 			return Values.newValue(date);
 		}
+
+		@Override
+		public boolean isClockDependent() {
+			return true;
+		}
 	}
 
+	/**
+	 *
+	 * @param ds data structure of the rows
+	 * @return parser for an array of rows of the data structure
+	 */
+	static IValueParser newArrayParser(DataStructure ds) {
+		return new ArrayParser(ds);
+	}
+
+	/**
+	 * Parses the rows of an array, given as a JSON array of objects, like
+	 * <code>[{"pan":"AAAPA1234A","amount":5000}, ...]</code>. Each object must have
+	 * a value for each member of the data structure. Names of the members are
+	 * case-insensitive, and any other member in the object is ignored.
+	 */
+	private static class ArrayParser implements IValueParser {
+		private final DataStructure ds;
+
+		protected ArrayParser(DataStructure ds) {
+			this.ds = ds;
+		}
+
+		@Override
+		public IValue parse(String textValue) {
+			final JsonArray array;
+			try {
+				final JsonElement json = JsonParser.parseString(textValue);
+				if (!json.isJsonArray()) {
+					return null;
+				}
+				array = json.getAsJsonArray();
+			} catch (JsonParseException e) {
+				return null;
+			}
+
+			final int nbrFields = this.ds.getNbrFields();
+			final IValue[][] rows = new IValue[array.size()][];
+			for (int r = 0; r < rows.length; r++) {
+				final JsonElement element = array.get(r);
+				if (!element.isJsonObject()) {
+					return null;
+				}
+				final IValue[] row = new IValue[nbrFields];
+				for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+					final int field = this.ds.getField(member.getKey());
+					if (field == -1) {
+						continue;
+					}
+					final JsonElement value = member.getValue();
+					if (!value.isJsonPrimitive()) {
+						return null;
+					}
+					row[field] = this.ds.parseField(field, value.getAsString());
+					if (row[field] == null) {
+						return null;
+					}
+				}
+				for (IValue value : row) {
+					if (value == null) {
+						return null;
+					}
+				}
+				rows[r] = row;
+			}
+			return Values.newArrayValue(this.ds.getName(), rows);
+		}
+	}
 }
@@ -0,0 +1,1278 @@
+package org.simplity.calc.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.simplity.calc.engine.api.CacheStatsDS;
+import org.simplity.calc.engine.api.CalcBatchResultDS;
+import org.simplity.calc.engine.api.CalcResultDS;
+import org.simplity.calc.engine.api.ICalcContext;
+import org.simplity.calc.engine.api.ICalcEngine;
+import org.simplity.calc.engine.api.ICalcFunction;
+import org.simplity.calc.engine.api.ICalcRunner;
+import org.simplity.calc.engine.api.ICalcState;
+import org.simplity.calc.engine.api.IEngineShipment;
+import org.simplity.calc.engine.api.IValue;
+import org.simplity.calc.engine.api.IValueType;
+import org.simplity.calc.engine.config.CalcConfigDS;
+import org.simplity.calc.engine.config.CalcStepsDS;
+import org.simplity.calc.engine.config.CalculatorDS;
+import org.simplity.calc.engine.config.DataElementDS;
+import org.simplity.calc.engine.config.EngineOptionsDS;
+import org.simplity.calc.engine.config.RunnerOptionsDS;
+import org.simplity.calc.engine.config.TableDS;
+import org.simplity.calc.engine.config.ValidatorDS;
+import org.simplity.calc.engine.config.ValueSchemaDS;
+
+import com.google.gson.Gson;
+
+public class CalcEngineTest {
+
+	private static ICalcEngine engine;
+
+	@BeforeClass
+	public static void buildEngine() throws Exception {
+		engine = newShipment(new HashMap<>()).getEngine();
+	}
+
+	static CalcConfigDS loadConfig() throws Exception {
+		try (Reader reader = new InputStreamReader(
+				CalcEngineTest.class.getClassLoader().getResourceAsStream("test-config.json"))) {
+			return new Gson().fromJson(reader, CalcConfigDS.class);
+		}
+	}
+
+	static IEngineShipment newShipment(Map<String, ICalcFunction> functions) throws Exception {
+		return newShipment(functions, new EngineOptionsDS());
+	}
+
+	static IEngineShipment newShipment(Map<String, ICalcFunction> functions, EngineOptionsDS options)
+			throws Exception {
+		IEngineShipment shipment = CalcEngines.newEngine(loadConfig(), functions, options);
+		assertTrue("engine should be built without errors", shipment.allOk());
+		return shipment;
+	}
+
+	static void assertSameResults(ICalcEngine expected, ICalcEngine actual, Map<String, String> inputs) {
+		assertSameResult(expected.calculate(inputs), actual.calculate(inputs));
+	}
+
+	static void assertSameResult(CalcResultDS e, CalcResultDS a) {
+		assertEquals(e.allOk, a.allOk);
+		if (e.allOk) {
+			assertEquals(e.outputs, a.outputs);
+		} else {
+			assertEquals(e.errors.length, a.errors.length);
+			for (int i = 0; i < e.errors.length; i++) {
+				assertEquals(e.errors[i].toString(), a.errors[i].toString());
+			}
+		}
+	}
+
+	static Map<String, String>[] sampleInputs() {
+		@SuppressWarnings("unchecked")
+		Map<String, String>[] samples = new Map[] { inputs("base_salary", "200000"),
+				inputs("base_salary", "400000"), inputs("base_salary", "750000.50", "performance_rating", "5"),
+				inputs("base_salary", "1200000", "old_regime", "true", "deductions", "150000"),
+				inputs("base_salary", "900000", "old_regime", "true", "deductions", "150001"),
+				inputs("base_salary", "abc"), inputs() };
+		return samples;
+	}
+
+	static Map<String, String> inputs(String... nameValues) {
+		Map<String, String> map = new HashMap<>();
+		for (int i = 0; i < nameValues.length; i += 2) {
+			map.put(nameValues[i], nameValues[i + 1]);
+		}
+		return map;
+	}
+
+	static void assertNumber(String expected, CalcResultDS result, String name) {
+		assertTrue("result should be ok: " + result, result.allOk);
+		assertEquals(0, new BigDecimal(expected).compareTo(result.outputs.get(name).getNumberValue()));
+	}
+
+	@Test
+	public void testOutputsAreCalculated() {
+		CalcResultDS result = engine.calculate(inputs("base_salary", "400000"));
+		assertNumber("520000", result, "gross_income");
+		assertNumber("16500", result, "tax");
+	}
+
+	@Test
+	public void testOptionalInputsOverrideTheirRules() {
+		CalcResultDS result = engine.calculate(
+				inputs("base_salary", "400000", "performance_rating", "0", "old_regime", "true", "deductions", "150000"));
+		assertNumber("400000", result, "gross_income");
+		assertNumber("0", result, "tax");
+	}
+
+	@Test
+	public void testMissingRequiredInput() {
+		CalcResultDS result = engine.calculate(inputs());
+		assertFalse(result.allOk);
+		assertEquals(1, result.errors.length);
+		assertEquals("base_salary", result.errors[0].dataElementName);
+		assertEquals("Base salary is required", result.errors[0].message);
+	}
+
+	@Test
+	public void testValidatorFailure() {
+		CalcResultDS result = engine
+				.calculate(inputs("base_salary", "400000", "old_regime", "true", "deductions", "200000"));
+		assertFalse(result.allOk);
+		assertEquals(1, result.errors.length);
+		assertEquals("Deductions can not exceed 1,50,000", result.errors[0].message);
+	}
+
+	@Test
+	public void testConditionalSteps() throws Exception {
+		final AtomicInteger nbrCalls = new AtomicInteger();
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("audited", CalcFunctions.newCalcFunction((args, ctx) -> {
+			nbrCalls.incrementAndGet();
+			return args[0];
+		}, ValueTypes.NUMBER, new IValueType[] { ValueTypes.NUMBER }, false));
+
+		CalcConfigDS config = loadConfig();
+		config.dataElements.put("audited_deductions", newElement("calculated", "audited(deductions)"));
+		DataElementDS refund = newElement("output", "0");
+		CalcStepsDS step = new CalcStepsDS();
+		step.when = "old_regime";
+		step.value = "audited_deductions";
+		refund.calculator.calcSteps = new CalcStepsDS[] { step };
+		config.dataElements.put("refund", refund);
+
+		IEngineShipment shipment = CalcEngines.newEngine(config, functions);
+		assertTrue(shipment.allOk());
+		ICalcEngine e = shipment.getEngine();
+
+		assertNumber("0", e.calculate(inputs("base_salary", "400000")), "refund");
+		assertEquals("a step that is not taken is not to be evaluated", 0, nbrCalls.get());
+
+		assertNumber("1000", e.calculate(inputs("base_salary", "400000", "old_regime", "true", "deductions", "1000")),
+				"refund");
+		assertEquals(1, nbrCalls.get());
+	}
+
+	private static DataElementDS newElement(String type, String expression) {
+		DataElementDS element = new DataElementDS();
+		element.type = type;
+		element.dataType = "NUMBER";
+		element.calculator = new CalculatorDS();
+		element.calculator.defaultExpression = expression;
+		return element;
+	}
+
+	@Test
+	public void testCompiledRules() throws Exception {
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.compileRules = true;
+		ICalcEngine compiled = newShipment(new HashMap<>(), options).getEngine();
+		for (Map<String, String> sample : sampleInputs()) {
+			assertSameResults(engine, compiled, sample);
+		}
+
+		// a call with three arguments is made without an array of arguments
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("total", new ICalcFunction() {
+
+			@Override
+			public IValue call(IValue[] args, ICalcContext ctx) {
+				throw new IllegalStateException("call3() is to be used");
+			}
+
+			@Override
+			public IValue call3(IValue arg1, IValue arg2, IValue arg3, ICalcContext ctx) {
+				return Values.newValue(
+						arg1.getNumberValue().add(arg2.getNumberValue()).add(arg3.getNumberValue()));
+			}
+
+			@Override
+			public IValueType getReturnType() {
+				return ValueTypes.NUMBER;
+			}
+
+			@Override
+			public IValueType[] getParameterTypes() {
+				return new IValueType[] { ValueTypes.NUMBER, ValueTypes.NUMBER, ValueTypes.NUMBER };
+			}
+
+			@Override
+			public boolean lastOneIsVararg() {
+				return false;
+			}
+		});
+		CalcConfigDS config = loadConfig();
+		config.dataElements.put("total", newElement("output", "NUMBER", "total(base_salary, deductions, 1)"));
+		compiled = CalcEngines.newEngine(config, functions, options).getEngine();
+		assertNumber("400001", compiled.calculate(inputs("base_salary", "400000")), "total");
+	}
+
+	/**
+	 * compares the time taken by a run of the compiled rules with that of the
+	 * interpreted ones, over a chain of rules that are heavy on the built-in
+	 * operators. It is skipped unless asked for, as in
+	 * <code>mvn -pl calc-engine test -Dtest=CalcEngineTest#benchmarkCompiledRules -Dcalc.benchmark=true</code>
+	 */
+	@Test
+	public void benchmarkCompiledRules() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("calc.benchmark"));
+		CalcConfigDS config = loadConfig();
+		String previous = "base_salary";
+		for (int i = 0; i < 100; i++) {
+			String name = "chained_" + i;
+			DataElementDS element = newElement(i == 99 ? "output" : "calculated", "NUMBER",
+					previous + " * 1.01 + base_salary / 8 - deductions * 0.5");
+			CalcStepsDS step = new CalcStepsDS();
+			step.when = previous + " > 1000000 & !old_regime";
+			step.value = previous + " - 1000";
+			element.calculator.calcSteps = new CalcStepsDS[] { step };
+			config.dataElements.put(name, element);
+			previous = name;
+		}
+		ICalcEngine[] engines = new ICalcEngine[2];
+		for (int i = 0; i < engines.length; i++) {
+			EngineOptionsDS options = new EngineOptionsDS();
+			options.compileRules = i == 1;
+			engines[i] = CalcEngines.newEngine(config, new HashMap<>(), options).getEngine();
+		}
+		Map<String, String>[] samples = sampleInputs();
+		for (Map<String, String> sample : samples) {
+			assertSameResults(engines[0], engines[1], sample);
+		}
+
+		// best of the rounds, after the first ones that warm up the JIT
+		final int nbrRuns = 20000;
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < engines.length; i++) {
+				long start = System.nanoTime();
+				for (int j = 0; j < nbrRuns; j++) {
+					assertTrue(engines[i].calculate(samples[j % 4]).allOk);
+				}
+				long nanos = (System.nanoTime() - start) / nbrRuns;
+				if (round >= 3 && nanos < best[i]) {
+					best[i] = nanos;
+				}
+			}
+		}
+		System.out.println("nanos per run: interpreted " + best[0] + ", compiled " + best[1]);
+	}
+
+	@Test
+	public void testConstantFolding() throws Exception {
+		EngineBuilder builder = new EngineBuilder(loadConfig(), new HashMap<>(), new EngineOptionsDS());
+		assertTrue(builder.build().allOk());
+		ExpressionBuilder exprBuilder = builder.exprBuilder;
+
+		IExpression e = exprBuilder.parse("2 * 3 + 1", "test", null);
+		assertTrue(e instanceof LiteralExpression);
+		assertEquals(new BigDecimal("7"), ((LiteralExpression) e).getValue().getNumberValue());
+
+		e = exprBuilder.parse("base_salary * 0.1 * 12", "test", null);
+		IExpression[] args = ((FunctionExpression) e).getArguments();
+		assertTrue(args[0] instanceof VariableExpression);
+		assertEquals(new BigDecimal("1.2"), ((LiteralExpression) args[1]).getValue().getNumberValue());
+
+		assertTrue(exprBuilder.parse("!!old_regime & true", "test", null) instanceof VariableExpression);
+		assertTrue(exprBuilder.parse("1 * base_salary + 0", "test", null) instanceof VariableExpression);
+
+		// scale of bonus is not known, and division by zero must surface at run time
+		assertTrue(exprBuilder.parse("bonus + 0", "test", null) instanceof FunctionExpression);
+		assertTrue(exprBuilder.parse("1 / 0", "test", null) instanceof FunctionExpression);
+	}
+
+	@Test
+	public void testShortCircuit() throws Exception {
+		final AtomicInteger nbrCalls = new AtomicInteger();
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("audited", CalcFunctions.newCalcFunction((args, ctx) -> {
+			nbrCalls.incrementAndGet();
+			return Values.newValue(true);
+		}, ValueTypes.BOOLEAN, new IValueType[] { ValueTypes.NUMBER }, false));
+
+		CalcConfigDS config = loadConfig();
+		ValidatorDS validator = new ValidatorDS();
+		validator.shouldBe = "!old_regime | audited(deductions)";
+		validator.messageId = "not_audited";
+		config.validators = new ValidatorDS[] { config.validators[0], validator };
+
+		for (boolean compile : new boolean[] { false, true }) {
+			EngineOptionsDS options = new EngineOptionsDS();
+			options.compileRules = compile;
+			IEngineShipment shipment = CalcEngines.newEngine(config, functions, options);
+			assertTrue(shipment.allOk());
+			ICalcEngine e = shipment.getEngine();
+
+			nbrCalls.set(0);
+			assertNumber("16500", e.calculate(inputs("base_salary", "400000")), "tax");
+			assertEquals("right operand is not to be evaluated", 0, nbrCalls.get());
+
+			e.calculate(inputs("base_salary", "400000", "old_regime", "true"));
+			assertEquals(1, nbrCalls.get());
+		}
+	}
+
+	@Test
+	public void testRequestedOutputs() throws Exception {
+		Set<String> requested = Collections.singleton("gross_income");
+		CalcResultDS result = engine.calculate(inputs("base_salary", "400000"), requested);
+		assertNumber("520000", result, "gross_income");
+		assertEquals(1, result.outputs.size());
+
+		// validators are run by default, even if they are not related
+		Map<String, String> invalid = inputs("base_salary", "400000", "old_regime", "true", "deductions", "200000");
+		assertFalse(engine.calculate(invalid, requested).allOk);
+
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.skipUnrelatedValidators = true;
+		ICalcEngine skipping = newShipment(new HashMap<>(), options).getEngine();
+		assertNumber("520000", skipping.calculate(invalid, requested), "gross_income");
+		assertFalse(skipping.calculate(invalid, Collections.singleton("tax")).allOk);
+
+		result = engine.calculate(inputs("base_salary", "400000"), Collections.singleton("bonus"));
+		assertFalse("bonus is not an output", result.allOk);
+		assertEquals(2, engine.calculate(inputs("base_salary", "400000"), null).outputs.size());
+
+		// the default implementation, over an engine that returns cached results
+		options = new EngineOptionsDS();
+		options.resultCacheSize = 32;
+		ICalcEngine cached = newShipment(new HashMap<>(), options).getEngine();
+		ICalcEngine e = calculateOnly(cached);
+		assertNumber("520000", e.calculate(inputs("base_salary", "400000"), requested), "gross_income");
+		assertEquals(1, e.calculate(inputs("base_salary", "400000"), requested).outputs.size());
+		assertEquals(2, cached.calculate(inputs("base_salary", "400000")).outputs.size());
+		assertFalse("bonus is not an output",
+				e.calculate(inputs("base_salary", "400000"), Collections.singleton("bonus")).allOk);
+		assertEquals(2, e.calculate(inputs("base_salary", "400000"), null).outputs.size());
+	}
+
+	@Test
+	public void testRecalculation() {
+		Map<String, String>[] samples = sampleInputs();
+		// the default implementation, as of an engine that only calculates
+		for (ICalcEngine e : new ICalcEngine[] { engine, calculateOnly(engine) }) {
+			for (Map<String, String> from : samples) {
+				ICalcState state = e.calculateWithState(from);
+				assertSameResult(engine.calculate(from), state.getResult());
+				for (Map<String, String> to : samples) {
+					Map<String, String> changes = new HashMap<>(to);
+					for (String name : from.keySet()) {
+						if (!to.containsKey(name)) {
+							changes.put(name, null);
+						}
+					}
+					ICalcState next = e.recalculate(state, changes);
+					assertSameResult(engine.calculate(to), next.getResult());
+					assertEquals(to, next.getInputs());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBatch() {
+		List<Map<String, String>> records = Arrays.asList(sampleInputs());
+		for (ICalcEngine e : new ICalcEngine[] { engine, calculateOnly(engine) }) {
+			CalcBatchResultDS batch = e.calculateBatch(records);
+			assertEquals(records.size(), batch.outputs.length);
+			int nbrFailed = 0;
+			for (int r = 0; r < records.size(); r++) {
+				CalcResultDS expected = engine.calculate(records.get(r));
+				if (expected.allOk) {
+					assertEquals(null, batch.errors[r]);
+					for (int i = 0; i < batch.outputNames.length; i++) {
+						assertEquals(expected.outputs.get(batch.outputNames[i]), batch.outputs[r][i]);
+					}
+					assertEquals(expected.outputs.size(), batch.outputNames.length);
+				} else {
+					nbrFailed++;
+					assertSameResult(expected, new CalcResultDS(batch.errors[r]));
+				}
+			}
+			assertEquals(nbrFailed, batch.nbrFailed);
+		}
+	}
+
+	/**
+	 * an engine that implements only the methods that have no default
+	 */
+	private static ICalcEngine calculateOnly(ICalcEngine delegate) {
+		return new ICalcEngine() {
+
+			@Override
+			public CalcResultDS calculate(Map<String, String> inputs) {
+				return delegate.calculate(inputs);
+			}
+
+			@Override
+			public void shutdown() {
+				//
+			}
+		};
+	}
+
+	@Test
+	public void testColumnarBatch() throws Exception {
+		String[] salaries = { "200000", "400000.5", "750000.50", "1200000", "999999999", "0", "abc", "" };
+		String[] ratings = { null, "5", "0", "2.5", "7" };
+		String[] deductions = { null, "0", "150000", "150000.75", "200000" };
+		List<Map<String, String>> records = new ArrayList<>();
+		Random random = new Random(11);
+		for (int i = 0; i < 3000; i++) {
+			Map<String, String> record = inputs("base_salary", salaries[random.nextInt(salaries.length)]);
+			String rating = ratings[random.nextInt(ratings.length)];
+			if (rating != null) {
+				record.put("performance_rating", rating);
+			}
+			String deduction = deductions[random.nextInt(deductions.length)];
+			if (deduction != null) {
+				record.put("deductions", deduction);
+			}
+			if (random.nextBoolean()) {
+				record.put("old_regime", random.nextBoolean() ? "true" : "false");
+			}
+			records.add(record);
+		}
+
+		for (boolean compileRules : new boolean[] { false, true }) {
+			EngineOptionsDS options = new EngineOptionsDS();
+			options.columnarBatch = true;
+			options.compileRules = compileRules;
+			ICalcEngine columnar = newShipment(new HashMap<>(), options).getEngine();
+			assertTrue("rules should be evaluated in columns", ((CalcEngine) columnar).columnar != null);
+
+			CalcBatchResultDS batch = columnar.calculateBatch(records);
+			for (int r = 0; r < records.size(); r++) {
+				CalcResultDS expected = engine.calculate(records.get(r));
+				if (expected.allOk) {
+					for (int i = 0; i < batch.outputNames.length; i++) {
+						assertEquals(expected.outputs.get(batch.outputNames[i]), batch.outputs[r][i]);
+					}
+				} else {
+					assertSameResult(expected, new CalcResultDS(batch.errors[r]));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testParallelEvaluation() throws Exception {
+		// a branch that is independent of the rest, but for the required input
+		CalcConfigDS config = loadConfig();
+		DataElementDS allowance = new DataElementDS();
+		allowance.type = "output";
+		allowance.dataType = "NUMBER";
+		allowance.calculator = new CalculatorDS();
+		allowance.calculator.defaultExpression = "base_salary * 0.2";
+		config.dataElements.put("allowance", allowance);
+		ValidatorDS validator = new ValidatorDS();
+		validator.shouldBe = "allowance <= 150000";
+		validator.messageId = "allowance_limit";
+		config.validators = new ValidatorDS[] { validator, config.validators[0] };
+
+		ICalcEngine sequential = CalcEngines.newEngine(config, new HashMap<>(), new EngineOptionsDS()).getEngine();
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.evaluateInParallel = true;
+		options.minParallelPartSize = 1;
+		IEngineShipment shipment = CalcEngines.newEngine(config, new HashMap<>(), options);
+		assertTrue(shipment.allOk());
+		ICalcEngine parallel = shipment.getEngine();
+		assertTrue("there should be two parts", ((CalcEngine) parallel).parallelPlan != null);
+		assertEquals(2, ((CalcEngine) parallel).parallelPlan.getParts().length);
+
+		for (Map<String, String> inputs : sampleInputs()) {
+			assertSameResults(sequential, parallel, inputs);
+		}
+		// both the validators fail
+		assertSameResults(sequential, parallel,
+				inputs("base_salary", "900000", "old_regime", "true", "deductions", "150001"));
+		assertEquals(2, parallel
+				.calculate(inputs("base_salary", "900000", "old_regime", "true", "deductions", "150001")).errors.length);
+		assertNumber("80000", parallel.calculate(inputs("base_salary", "400000")), "allowance");
+
+		// small parts are combined
+		options.minParallelPartSize = 64;
+		assertTrue(((CalcEngine) CalcEngines.newEngine(config, new HashMap<>(), options).getEngine()).parallelPlan == null);
+	}
+
+	@Test
+	public void testRunner() {
+		List<Map<String, String>> records = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			records.addAll(Arrays.asList(sampleInputs()));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (boolean ordered : new boolean[] { true, false }) {
+				RunnerOptionsDS options = new RunnerOptionsDS();
+				options.chunkSize = 7;
+				options.maxChunksInProgress = 3;
+				options.ordered = ordered;
+				ICalcRunner runner = CalcRunners.newRunner(engine, pool, options);
+
+				List<Long> firstRecords = new ArrayList<>();
+				long n = runner.run(records.iterator(), (firstRecord, inputs, results) -> {
+					firstRecords.add(firstRecord);
+					for (int i = 0; i < inputs.size(); i++) {
+						assertSame(records.get((int) firstRecord + i), inputs.get(i));
+						CalcResultDS expected = engine.calculate(inputs.get(i));
+						assertEquals(expected.allOk, results.errors[i] == null);
+					}
+				});
+				assertEquals(records.size(), n);
+				assertEquals((records.size() + 6) / 7, firstRecords.size());
+				if (ordered) {
+					for (int i = 0; i < firstRecords.size(); i++) {
+						assertEquals(7L * i, firstRecords.get(i).longValue());
+					}
+				}
+			}
+
+			// a failure in the sink stops the run
+			try {
+				CalcRunners.newRunner(engine, pool, new RunnerOptionsDS()).run(records.spliterator(),
+						(firstRecord, inputs, results) -> {
+							throw new IllegalArgumentException("sink failed");
+						});
+				fail("failure of the sink should be thrown");
+			} catch (IllegalArgumentException e) {
+				assertEquals("sink failed", e.getMessage());
+			}
+
+			// a failure of the reader is thrown only after the chunks in progress
+			RunnerOptionsDS options = new RunnerOptionsDS();
+			options.chunkSize = 7;
+			Iterator<Map<String, String>> failing = new Iterator<Map<String, String>>() {
+				private int nbrRead;
+
+				@Override
+				public boolean hasNext() {
+					if (this.nbrRead == 14) {
+						throw new IllegalStateException("reader failed");
+					}
+					return true;
+				}
+
+				@Override
+				public Map<String, String> next() {
+					return records.get(this.nbrRead++);
+				}
+			};
+			AtomicInteger inSink = new AtomicInteger();
+			AtomicInteger nbrReceived = new AtomicInteger();
+			try {
+				CalcRunners.newRunner(engine, pool, options).run(failing, (firstRecord, inputs, results) -> {
+					inSink.incrementAndGet();
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					nbrReceived.incrementAndGet();
+					inSink.decrementAndGet();
+				});
+				fail("failure of the reader should be thrown");
+			} catch (IllegalStateException e) {
+				assertEquals("reader failed", e.getMessage());
+			}
+			assertEquals("no chunk is with the sink after the run", 0, inSink.get());
+			int received = nbrReceived.get();
+			Thread.sleep(200);
+			assertEquals("sink is not called after the run", received, nbrReceived.get());
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testPooledContexts() throws Exception {
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.poolContexts = true;
+		ICalcEngine pooled = newShipment(new HashMap<>(), options).getEngine();
+		// a run must not see the values or errors of the earlier runs
+		for (int i = 0; i < 3; i++) {
+			for (Map<String, String> inputs : sampleInputs()) {
+				assertSameResults(engine, pooled, inputs);
+			}
+		}
+		List<Map<String, String>> records = Arrays.asList(sampleInputs());
+		assertEquals(engine.calculateBatch(records).nbrFailed, pooled.calculateBatch(records).nbrFailed);
+
+		// the same context is reused by the runs on a thread, and only if pooled
+		final List<ICalcContext> contexts = new ArrayList<>();
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("probe", CalcFunctions.newCalcFunction((args, ctx) -> {
+			contexts.add(ctx);
+			return args[0];
+		}, ValueTypes.NUMBER, new IValueType[] { ValueTypes.NUMBER }, false));
+		CalcConfigDS config = loadConfig();
+		config.dataElements.put("probed", newElement("output", "probe(base_salary)"));
+		for (boolean pool : new boolean[] { false, true }) {
+			options.poolContexts = pool;
+			ICalcEngine e = CalcEngines.newEngine(config, functions, options).getEngine();
+			contexts.clear();
+			for (int i = 0; i < 3; i++) {
+				assertNumber("400000", e.calculate(inputs("base_salary", "400000")), "probed");
+			}
+			assertEquals(3, contexts.size());
+			assertEquals(pool, contexts.get(0) == contexts.get(1) && contexts.get(1) == contexts.get(2));
+		}
+	}
+
+	@Test
+	public void testResultCache() throws Exception {
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.resultCacheSize = 32;
+		ICalcEngine cached = newShipment(new HashMap<>(), options).getEngine();
+		assertEquals(null, engine.getCacheStats());
+
+		for (int i = 0; i < 2; i++) {
+			for (Map<String, String> inputs : sampleInputs()) {
+				assertSameResults(engine, cached, inputs);
+			}
+		}
+		// failures are not cached
+		CacheStatsDS stats = cached.getCacheStats();
+		assertEquals(4, stats.size);
+		assertEquals(4, stats.hits);
+		assertEquals(10, stats.misses);
+
+		// inputs that are not declared, and the surrounding spaces, are ignored
+		CalcResultDS result = cached.calculate(inputs("base_salary", "400000"));
+		assertSame(result, cached.calculate(inputs("base_salary", " 400000 ", "not_an_input", "1")));
+		assertSame(result, cached.calculate(inputs("base_salary", "400000", "deductions", "")));
+		Set<String> requested = Collections.singleton("gross_income");
+		CalcResultDS projected = cached.calculate(inputs("base_salary", "400000"), requested);
+		assertEquals(1, projected.outputs.size());
+		assertSame(projected, cached.calculate(inputs("base_salary", "400000"), requested));
+		try {
+			result.outputs.clear();
+			fail("outputs of a cached result should not be modifiable");
+		} catch (UnsupportedOperationException e) {
+			assertEquals(2, cached.calculate(inputs("base_salary", "400000")).outputs.size());
+		}
+
+		// least recently used ones are evicted
+		for (int i = 0; i < 100; i++) {
+			cached.calculate(inputs("base_salary", "" + (100000 + i)));
+		}
+		stats = cached.getCacheStats();
+		assertTrue(stats.evicted > 0);
+		assertTrue(stats.size <= 32);
+
+		options.resultCacheTtlMillis = 1;
+		ICalcEngine expiring = newShipment(new HashMap<>(), options).getEngine();
+		result = expiring.calculate(inputs("base_salary", "400000"));
+		Thread.sleep(5);
+		assertSameResult(result, expiring.calculate(inputs("base_salary", "400000")));
+		assertEquals(1, expiring.getCacheStats().expired);
+
+		// results of rules that call custom functions are not cached
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("audited", CalcFunctions.newCalcFunction((args, ctx) -> Values.newValue(true),
+				ValueTypes.BOOLEAN, new IValueType[] { ValueTypes.NUMBER }, false));
+		CalcConfigDS config = loadConfig();
+		ValidatorDS validator = new ValidatorDS();
+		validator.shouldBe = "!old_regime | audited(deductions)";
+		validator.messageId = "not_audited";
+		config.validators = new ValidatorDS[] { config.validators[0], validator };
+		assertEquals(null, CalcEngines.newEngine(config, functions, options).getEngine().getCacheStats());
+		// unless they are not used
+		assertTrue(CalcEngines.newEngine(loadConfig(), functions, options).getEngine().getCacheStats() != null);
+	}
+
+	@Test
+	public void testPureFunctions() throws Exception {
+		final AtomicInteger nbrCalls = new AtomicInteger();
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("audited", CalcFunctions.newCalcFunction((args, ctx) -> {
+			nbrCalls.incrementAndGet();
+			return Values.newValue(args[0].getNumberValue().signum() >= 0);
+		}, ValueTypes.BOOLEAN, new IValueType[] { ValueTypes.NUMBER }, false, true));
+
+		CalcConfigDS config = loadConfig();
+		ValidatorDS validator = new ValidatorDS();
+		validator.shouldBe = "!old_regime | audited(deductions)";
+		validator.messageId = "not_audited";
+		config.validators = new ValidatorDS[] { config.validators[0], validator };
+
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.functionCacheSize = 100;
+		options.resultCacheSize = 100;
+		ICalcEngine e = CalcEngines.newEngine(config, functions, options).getEngine();
+		assertTrue("pure functions do not prevent caching of results", e.getCacheStats() != null);
+
+		for (int i = 0; i < 3; i++) {
+			e.calculate(inputs("base_salary", "" + (400000 + i), "old_regime", "true", "deductions", "1000"));
+		}
+		assertEquals("function is to be called once for the same arguments", 1, nbrCalls.get());
+		CacheStatsDS stats = e.getFunctionCacheStats().get("audited");
+		assertEquals(2, stats.hits);
+		assertEquals(1, stats.misses);
+		assertEquals(1, stats.size);
+
+		// impure functions are not cached
+		functions.put("audited", CalcFunctions.newCalcFunction((args, ctx) -> {
+			nbrCalls.incrementAndGet();
+			return Values.newValue(true);
+		}, ValueTypes.BOOLEAN, new IValueType[] { ValueTypes.NUMBER }, false));
+		e = CalcEngines.newEngine(config, functions, options).getEngine();
+		assertTrue(e.getFunctionCacheStats().isEmpty());
+		nbrCalls.set(0);
+		for (int i = 0; i < 3; i++) {
+			e.calculate(inputs("base_salary", "400000", "old_regime", "true", "deductions", "1000"));
+		}
+		assertEquals(3, nbrCalls.get());
+	}
+
+	@Test
+	public void testSharedGuards() throws Exception {
+		final AtomicInteger nbrCalls = new AtomicInteger();
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("is_old", CalcFunctions.newCalcFunction((args, ctx) -> {
+			nbrCalls.incrementAndGet();
+			return args[0];
+		}, ValueTypes.BOOLEAN, new IValueType[] { ValueTypes.BOOLEAN }, false, true));
+
+		CalcConfigDS config = loadConfig();
+		String[][] rules = { { "!is_old(old_regime) | deductions <= 150000", "deductions_limit" },
+				{ "base_salary > 0", "salary_positive" }, { "!is_old(old_regime) | deductions >= 100", "deductions_min" },
+				{ "!is_old(old_regime) | base_salary <= 1000000", "salary_limit" } };
+		config.validators = new ValidatorDS[rules.length];
+		for (int i = 0; i < rules.length; i++) {
+			config.validators[i] = new ValidatorDS();
+			config.validators[i].shouldBe = rules[i][0];
+			config.validators[i].messageId = rules[i][1];
+			config.messages.put(rules[i][1], rules[i][1]);
+		}
+
+		for (boolean compile : new boolean[] { false, true }) {
+			EngineOptionsDS options = new EngineOptionsDS();
+			options.compileRules = compile;
+			IEngineShipment shipment = CalcEngines.newEngine(config, functions, options);
+			assertTrue(shipment.allOk());
+			ICalcEngine e = shipment.getEngine();
+
+			nbrCalls.set(0);
+			assertNumber("16500", e.calculate(inputs("base_salary", "400000", "old_regime", "false")), "tax");
+			assertEquals("guard is to be evaluated once for all the validators", 1, nbrCalls.get());
+
+			nbrCalls.set(0);
+			CalcResultDS result = e.calculate(
+					inputs("base_salary", "2000000", "old_regime", "true", "deductions", "150001"));
+			assertEquals(1, nbrCalls.get());
+			assertFalse(result.allOk);
+			assertEquals(2, result.errors.length);
+			assertEquals("deductions_limit", result.errors[0].message);
+			assertEquals("salary_limit", result.errors[1].message);
+		}
+	}
+
+	@Test
+	public void testPresencePlans() throws Exception {
+		final AtomicInteger nbrCalls = new AtomicInteger();
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("audited", CalcFunctions.newCalcFunction((args, ctx) -> {
+			nbrCalls.incrementAndGet();
+			return Values.newValue(args[0].getNumberValue().signum() >= 0);
+		}, ValueTypes.BOOLEAN, new IValueType[] { ValueTypes.NUMBER }, false, true));
+
+		CalcConfigDS config = loadConfig();
+		ValidatorDS validator = new ValidatorDS();
+		validator.shouldBe = "audited(deductions)";
+		validator.messageId = "not_audited";
+		config.validators = new ValidatorDS[] { config.validators[0], validator };
+
+		ICalcEngine plain = CalcEngines.newEngine(config, functions, new EngineOptionsDS()).getEngine();
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.maxPresenceSignatures = 16;
+		IEngineShipment shipment = CalcEngines.newEngine(config, functions, options);
+		assertTrue(shipment.allOk());
+		ICalcEngine e = shipment.getEngine();
+		assertTrue(((CalcEngine) e).presencePlans != null);
+
+		for (int i = 0; i < 2; i++) {
+			for (Map<String, String> inputs : sampleInputs()) {
+				assertSameResults(plain, e, inputs);
+			}
+		}
+
+		nbrCalls.set(0);
+		for (int i = 0; i < 3; i++) {
+			assertNumber("16500", e.calculate(inputs("base_salary", "400000")), "tax");
+		}
+		assertEquals("validator on absent inputs is not to be run again", 0, nbrCalls.get());
+		for (int i = 0; i < 3; i++) {
+			e.calculate(inputs("base_salary", "400000", "deductions", "" + i));
+		}
+		assertEquals("validator on a provided input is to be run every time", 3, nbrCalls.get());
+		assertTrue(((CalcEngine) e).presencePlans.getStats().hits > 0);
+
+		// a validator that calls an impure function is run every time
+		final AtomicInteger nbrChecks = new AtomicInteger();
+		functions.put("notBlacklisted", CalcFunctions.newCalcFunction(
+				(args, ctx) -> Values.newValue(nbrChecks.incrementAndGet() % 2 == 1), ValueTypes.BOOLEAN,
+				new IValueType[] { ValueTypes.NUMBER }, false, false));
+		validator.shouldBe = "notBlacklisted(deductions)";
+		validator.messageId = "blacklisted";
+		e = CalcEngines.newEngine(config, functions, options).getEngine();
+		assertTrue(e.calculate(inputs("base_salary", "400000")).allOk);
+		assertFalse("the function answers differently now", e.calculate(inputs("base_salary", "400000")).allOk);
+		assertTrue(e.calculate(inputs("base_salary", "400000")).allOk);
+		assertEquals(3, nbrChecks.get());
+	}
+
+	@Test
+	public void testCaseTables() throws Exception {
+		CalcConfigDS config = loadConfig();
+		Map<String, String> categories = new HashMap<>();
+		for (String value : new String[] { "a", "b", "c", "d" }) {
+			categories.put(value, value);
+		}
+		config.enumerations = Collections.singletonMap("Employer", categories);
+		DataElementDS category = newElement("optional_input", "ENUM:employer", "employer.d");
+		category.errorId = "invalid_category";
+		config.dataElements.put("employer_category", category);
+
+		String[][] steps = { { "employer_category = Employer.A", "0.1" }, { "Employer.B = employer_category", "0.2" },
+				{ "employer_category = Employer.C", "0.3" }, { "employer_category = Employer.A", "0.9" },
+				{ "old_regime", "0.15" } };
+		DataElementDS rate = newElement("calculated", "NUMBER", "0.05");
+		rate.calculator.calcSteps = new CalcStepsDS[steps.length];
+		for (int i = 0; i < steps.length; i++) {
+			rate.calculator.calcSteps[i] = new CalcStepsDS();
+			rate.calculator.calcSteps[i].when = steps[i][0];
+			rate.calculator.calcSteps[i].value = steps[i][1];
+		}
+		config.dataElements.put("category_rate", rate);
+		config.dataElements.put("category_bonus", newElement("output", "NUMBER", "base_salary * category_rate"));
+
+		for (boolean compile : new boolean[] { false, true }) {
+			EngineOptionsDS options = new EngineOptionsDS();
+			options.compileRules = compile;
+			IEngineShipment shipment = CalcEngines.newEngine(config, new HashMap<>(), options);
+			assertTrue(shipment.allOk());
+			ICalcEngine e = shipment.getEngine();
+
+			ICalcSteps rule = (ICalcSteps) ((CalcEngine) e).variables.get("category_rate").getRule();
+			assertEquals("leading comparisons are in the table", 4, CaseTable.newTable(rule.getSteps()).getNbrSteps());
+
+			assertNumber("100", e.calculate(inputs("base_salary", "1000", "employer_category", "a")), "category_bonus");
+			assertNumber("200", e.calculate(inputs("base_salary", "1000", "employer_category", "B")), "category_bonus");
+			assertNumber("300", e.calculate(inputs("base_salary", "1000", "employer_category", "c")), "category_bonus");
+			assertNumber("50", e.calculate(inputs("base_salary", "1000")), "category_bonus");
+			assertNumber("150", e.calculate(inputs("base_salary", "1000", "old_regime", "true")), "category_bonus");
+		}
+	}
+
+	@Test
+	public void testRangeTables() throws Exception {
+		String[][] steps = { { "base_salary <= 250000", "0" }, { "base_salary <= 500000", "(base_salary - 250000) * 0.05" },
+				{ "1000000 >= base_salary", "(base_salary - 500000) * 0.2 + 12500" },
+				{ "base_salary < 1500000", "112500 + (base_salary - 1000000) * 0.3" }, { "old_regime", "1" } };
+		CalcConfigDS[] configs = new CalcConfigDS[2];
+		for (int c = 0; c < configs.length; c++) {
+			configs[c] = loadConfig();
+			DataElementDS slab = newElement("output", "NUMBER", "(base_salary - 1500000) * 0.3 + 262500");
+			List<CalcStepsDS> list = new ArrayList<>();
+			if (c == 1) {
+				// a leading step that is not a threshold keeps the chain out of the index
+				CalcStepsDS step = new CalcStepsDS();
+				step.when = "performance_rating = 99";
+				step.value = "0";
+				list.add(step);
+			}
+			for (String[] s : steps) {
+				CalcStepsDS step = new CalcStepsDS();
+				step.when = s[0];
+				step.value = s[1];
+				list.add(step);
+			}
+			slab.calculator.calcSteps = list.toArray(new CalcStepsDS[0]);
+			configs[c].dataElements.put("slab_tax", slab);
+		}
+
+		ICalcEngine linear = CalcEngines.newEngine(configs[1], new HashMap<>()).getEngine();
+		for (boolean compile : new boolean[] { false, true }) {
+			EngineOptionsDS options = new EngineOptionsDS();
+			options.compileRules = compile;
+			IEngineShipment shipment = CalcEngines.newEngine(configs[0], new HashMap<>(), options);
+			assertTrue(shipment.allOk());
+			ICalcEngine e = shipment.getEngine();
+
+			ICalcSteps rule = (ICalcSteps) ((CalcEngine) e).variables.get("slab_tax").getRule();
+			IStepIndex index = IStepIndex.newIndex(rule.getSteps());
+			assertTrue(index instanceof RangeTable);
+			assertEquals(4, index.getNbrSteps());
+			IValue band = index.getValue(1, Values.newValue(new BigDecimal("300000")));
+			assertEquals("a linear value is calculated directly", "2500.00", band.toString());
+
+			for (String salary : new String[] { "100000", "250000", "250000.5", "400000", "500000", "750000.25",
+					"1000000", "1200000", "1499999.99", "1500000", "2000000" }) {
+				assertSameResults(linear, e, inputs("base_salary", salary));
+				assertSameResults(linear, e, inputs("base_salary", salary, "old_regime", "true"));
+			}
+			assertNumber("62500", e.calculate(inputs("base_salary", "750000")), "slab_tax");
+		}
+	}
+
+	@Test
+	public void testLookupTables() throws Exception {
+		CalcConfigDS config = loadConfig();
+		TableDS grades = new TableDS();
+		grades.columnNames = new String[] { "rating", "Grade", "multiplier" };
+		grades.dataTypes = new String[] { "NUMBER", "STRING", "NUMBER" };
+		grades.rows = new String[][] { { "1", "poor", "0" }, { "3", " good ", "1.0" }, { "5.00", "best", "1.5" } };
+		TableDS slabs = new TableDS();
+		slabs.columnNames = new String[] { "rate", "from" };
+		slabs.dataTypes = new String[] { "NUMBER", "NUMBER" };
+		slabs.keyColumn = "from";
+		slabs.rangeKey = true;
+		slabs.rows = new String[][] { { "0.3", "1000000" }, { "0", "0" }, { "0.05", "250000" },
+				{ "0.2", "500000" } };
+		config.tables = new HashMap<>();
+		config.tables.put("Grades", grades);
+		config.tables.put("slabs", slabs);
+		config.dataElements.put("grade",
+				newElement("output", "STRING", "lookup('grades', performance_rating, 'grade')"));
+		config.dataElements.put("slab_rate",
+				newElement("output", "NUMBER", "lookup('SLABS', base_salary, 'rate') * 100"));
+
+		for (boolean compile : new boolean[] { false, true }) {
+			EngineOptionsDS options = new EngineOptionsDS();
+			options.compileRules = compile;
+			IEngineShipment shipment = CalcEngines.newEngine(config, new HashMap<>(), options);
+			assertTrue("tables should be usable: " + Arrays.toString(shipment.getErrors()), shipment.allOk());
+			ICalcEngine e = shipment.getEngine();
+
+			CalcResultDS result = e.calculate(inputs("base_salary", "250000"));
+			assertEquals("the default rating is 3, and text is trimmed", "good",
+					result.outputs.get("grade").getStringValue());
+			assertNumber("5", result, "slab_rate");
+			result = e.calculate(inputs("base_salary", "249999.99", "performance_rating", "5"));
+			assertEquals("the scale of a number does not matter", "best", result.outputs.get("grade").getStringValue());
+			assertNumber("0", result, "slab_rate");
+			assertNumber("30", e.calculate(inputs("base_salary", "5000000")), "slab_rate");
+			assertFalse("there is no row for this key",
+					e.calculate(inputs("base_salary", "400000", "performance_rating", "4")).allOk);
+		}
+
+		// errors in the tables and in their lookups are reported when the engine is built
+		slabs.rows = new String[][] { { "0", "0" }, { "0.05", "0.00" } };
+		assertFalse(CalcEngines.newEngine(config, new HashMap<>()).allOk());
+		slabs.rows = new String[][] { { "0", "0" } };
+		assertTrue(CalcEngines.newEngine(config, new HashMap<>()).allOk());
+		config.dataElements.put("grade", newElement("output", "STRING", "lookup('grades', base_salary, 'band')"));
+		assertFalse(CalcEngines.newEngine(config, new HashMap<>()).allOk());
+		config.dataElements.put("grade", newElement("output", "STRING", "lookup('grades', true, 'grade')"));
+		assertFalse(CalcEngines.newEngine(config, new HashMap<>()).allOk());
+	}
+
+	@Test
+	public void testMappedTables() throws Exception {
+		File dir = Files.createTempDirectory("tables").toFile();
+		File csv = new File(dir, "ratings.csv");
+		Files.write(csv.toPath(), Arrays.asList("Label,rating,Active", "\"low, but ok\",2,true", "top,5.0,true",
+				"\"the \"\"usual\"\"\",3,false", "", "none,0,false"), StandardCharsets.UTF_8);
+		CalcConfigDS config = loadConfig();
+		TableDS ratings = new TableDS();
+		ratings.columnNames = new String[] { "rating", "label", "active" };
+		ratings.dataTypes = new String[] { "NUMBER", "STRING", "BOOLEAN" };
+		ratings.dataFile = csv.getPath();
+		config.tables = Collections.singletonMap("ratings", ratings);
+		config.dataElements.put("rating_label",
+				newElement("output", "STRING", "lookup('ratings', performance_rating, 'label')"));
+		config.dataElements.put("rating_known", newElement("output", "BOOLEAN",
+				"exists('ratings', performance_rating) & lookup('ratings', performance_rating, 'active')"));
+
+		IEngineShipment shipment = CalcEngines.newEngine(config, new HashMap<>());
+		assertTrue("tables should be usable: " + Arrays.toString(shipment.getErrors()), shipment.allOk());
+		File bin = new File(csv.getPath() + ".idx");
+		assertTrue("the rows are converted into a binary file", bin.isFile());
+		long converted = bin.lastModified();
+		ICalcEngine e = shipment.getEngine();
+
+		CalcResultDS result = e.calculate(inputs("base_salary", "100000"));
+		assertEquals("the \"usual\"", result.outputs.get("rating_label").getStringValue());
+		assertFalse(result.outputs.get("rating_known").getBooleanValue());
+		result = e.calculate(inputs("base_salary", "100000", "performance_rating", "5"));
+		assertEquals("top", result.outputs.get("rating_label").getStringValue());
+		assertTrue(result.outputs.get("rating_known").getBooleanValue());
+		assertEquals("low, but ok", e.calculate(inputs("base_salary", "100000", "performance_rating", "2.00")).outputs
+				.get("rating_label").getStringValue());
+		assertFalse("there is no row for this key",
+				e.calculate(inputs("base_salary", "100000", "performance_rating", "4")).allOk);
+
+		// another engine maps the same file, without converting it again
+		Thread.sleep(10);
+		ICalcEngine other = CalcEngines.newEngine(config, new HashMap<>()).getEngine();
+		assertEquals(converted, bin.lastModified());
+		assertSameResults(e, other, inputs("base_salary", "100000", "performance_rating", "2"));
+
+		// a changed file is converted again
+		Files.write(csv.toPath(), Arrays.asList("rating,label,active", "3,average,true", "2,fair,true"),
+				StandardCharsets.UTF_8);
+		csv.setLastModified(converted + 1000);
+		other = CalcEngines.newEngine(config, new HashMap<>()).getEngine();
+		assertEquals("average", other.calculate(inputs("base_salary", "100000")).outputs.get("rating_label")
+				.getStringValue());
+		assertTrue("tables that are in use are not affected",
+				e.calculate(inputs("base_salary", "100000", "performance_rating", "5")).allOk);
+
+		// a file that is written again within the same time is converted again
+		Files.write(csv.toPath(), Arrays.asList("rating,label,active", "3,medium,true", "2,fair,true"),
+				StandardCharsets.UTF_8);
+		csv.setLastModified(converted + 1000);
+		other = CalcEngines.newEngine(config, new HashMap<>()).getEngine();
+		assertEquals("medium", other.calculate(inputs("base_salary", "100000")).outputs.get("rating_label")
+				.getStringValue());
+		assertEquals("no temporary file is left behind", 2, dir.list().length);
+
+		Files.write(csv.toPath(), Arrays.asList("rating,label,active", "3,average,true", "3,again,true"),
+				StandardCharsets.UTF_8);
+		csv.setLastModified(converted + 2000);
+		assertFalse("keys must be unique", CalcEngines.newEngine(config, new HashMap<>()).allOk());
+	}
+
+	@Test
+	public void testArrays() throws Exception {
+		CalcConfigDS config = loadConfig();
+		Map<String, String> donee = new LinkedHashMap<>();
+		donee.put("Name", "STRING");
+		donee.put("amount", "NUMBER");
+		donee.put("paid_on", "DATE");
+		donee.put("approved", "BOOLEAN");
+		config.dataStructures = Collections.singletonMap("Donee", donee);
+		ValueSchemaDS anyDate = new ValueSchemaDS();
+		anyDate.valueType = "DATE";
+		anyDate.daysInPast = 3650;
+		anyDate.daysInFuture = 3650;
+		config.schemas.put("anyDate", anyDate);
+
+		DataElementDS donations = newElement("required_input", "ARRAY:donee", null);
+		donations.errorId = "invalid_donations";
+		config.dataElements.put("donations", donations);
+		DataElementDS fyStart = newElement("required_input", "DATE", null);
+		fyStart.errorId = "invalid_date";
+		fyStart.schemaName = "anyDate";
+		config.dataElements.put("fy_start", fyStart);
+		config.dataElements.put("total_donated", newElement("output", "NUMBER", "sum(donations, amount)"));
+		config.dataElements.put("eligible_donations",
+				newElement("output", "NUMBER", "sum(donations, amount * 0.5, approved & paid_on >= fy_start)"));
+		config.dataElements.put("nbr_donees", newElement("output", "NUMBER", "count(donations)"));
+		config.dataElements.put("nbr_large", newElement("output", "NUMBER", "count(donations, amount > 1000)"));
+		config.dataElements.put("largest", newElement("output", "NUMBER", "max(donations, amount)"));
+		config.dataElements.put("first_paid", newElement("output", "DATE", "min(donations, paid_on)"));
+		config.dataElements.put("any_pending", newElement("output", "BOOLEAN", "any(donations, !approved)"));
+		config.dataElements.put("all_named", newElement("output", "BOOLEAN", "all(donations, name != '')"));
+		config.dataElements.put("larger", newElement("output", "NUMBER", "max(base_salary, 500000)"));
+		Map<String, ICalcFunction> functions = new HashMap<>();
+		functions.put("Max", CalcFunctions.newCalcFunction(
+				(args, ctx) -> Values.newValue(args[0].getNumberValue().max(args[1].getNumberValue())),
+				ValueTypes.NUMBER, new IValueType[] { ValueTypes.NUMBER, ValueTypes.NUMBER }, false));
+
+		IEngineShipment shipment = CalcEngines.newEngine(config, functions);
+		assertTrue("arrays should be usable: " + Arrays.toString(shipment.getErrors()), shipment.allOk());
+		ICalcEngine e = shipment.getEngine();
+
+		String rows = "[{\"name\": \"PM Relief Fund\", \"Amount\": 5000, \"paid_on\": \"2025-03-20\", \"approved\": true},"
+				+ "{\"name\": \"Temple\", \"amount\": \"800.50\", \"paid_on\": \"2025-06-01\", \"approved\": false},"
+				+ "{\"name\": \"School\", \"amount\": 2000, \"paid_on\": \"2025-04-01\", \"approved\": true, \"note\": 1}]";
+		CalcResultDS result = e.calculate(inputs("base_salary", "100000", "donations", rows, "fy_start", "2025-04-01"));
+		assertNumber("7800.50", result, "total_donated");
+		assertNumber("1000", result, "eligible_donations");
+		assertNumber("3", result, "nbr_donees");
+		assertNumber("2", result, "nbr_large");
+		assertNumber("5000", result, "largest");
+		assertEquals(LocalDate.of(2025, 3, 20), result.outputs.get("first_paid").getDateValue());
+		assertTrue(result.outputs.get("any_pending").getBooleanValue());
+		assertTrue(result.outputs.get("all_named").getBooleanValue());
+		assertNumber("500000", result, "larger");
+
+		result = e.calculate(inputs("base_salary", "100000", "donations", "[]", "fy_start", "2025-04-01"));
+		assertFalse("there is no least date for no rows", result.allOk);
+		config.dataElements.remove("first_paid");
+		config.dataElements.remove("largest");
+		config.dataElements.remove("larger");
+		e = CalcEngines.newEngine(config, new HashMap<>()).getEngine();
+		result = e.calculate(inputs("base_salary", "100000", "donations", "[]", "fy_start", "2025-04-01"));
+		assertNumber("0", result, "total_donated");
+		assertNumber("0", result, "nbr_donees");
+		assertFalse(result.outputs.get("any_pending").getBooleanValue());
+		assertTrue(result.outputs.get("all_named").getBooleanValue());
+
+		assertFalse("every member is required", e.calculate(inputs("base_salary", "100000", "donations",
+				"[{\"name\": \"x\", \"amount\": 1}]", "fy_start", "2025-04-01")).allOk);
+		assertFalse("rows must be objects",
+				e.calculate(inputs("base_salary", "100000", "donations", "[1, 2]", "fy_start", "2025-04-01")).allOk);
+		assertFalse("not an array",
+				e.calculate(inputs("base_salary", "100000", "donations", "{", "fy_start", "2025-04-01")).allOk);
+
+		config.dataElements.put("bad", newElement("output", "NUMBER", "sum(donations, name)"));
+		assertFalse("only numbers are added", CalcEngines.newEngine(config, new HashMap<>()).allOk());
+		config.dataElements.put("bad", newElement("output", "NUMBER", "sum(base_salary, amount)"));
+		assertFalse("the first argument must be an array", CalcEngines.newEngine(config, new HashMap<>()).allOk());
+		config.dataElements.put("bad", newElement("output", "NUMBER", "amount"));
+		assertFalse("members are not in scope outside of an aggregate",
+				CalcEngines.newEngine(config, new HashMap<>()).allOk());
+	}
+
+	@Test
+	public void testDistinctKeys() throws Exception {
+		CalcConfigDS config = loadConfig();
+		Map<String, String> sections = new HashMap<>();
+		sections.put("c80", "80C");
+		sections.put("d80", "80D");
+		sections.put("g80", "80G");
+		config.enumerations = Collections.singletonMap("section", sections);
+		Map<String, String> claim = new LinkedHashMap<>();
+		claim.put("pan", "STRING");
+		claim.put("section", "ENUM:section");
+		claim.put("amount", "NUMBER");
+		config.dataStructures = Collections.singletonMap("claim", claim);
+		DataElementDS claims = newElement("required_input", "ARRAY:claim", null);
+		claims.errorId = "invalid_claims";
+		config.dataElements.put("claims", claims);
+		config.dataElements.put("unique_pans", newElement("output", "BOOLEAN", "isDistinct(claims, pan)"));
+		config.dataElements.put("nbr_pans", newElement("output", "NUMBER", "countDistinct(claims, pan)"));
+		config.dataElements.put("repeated_sections",
+				newElement("output", "NUMBER", "duplicates(claims, section, amount > 0)"));
+		ValidatorDS validator = new ValidatorDS();
+		validator.shouldBe = "isDistinct(claims, section)";
+		validator.messageId = "section_repeated";
+		config.validators = new ValidatorDS[] { config.validators[0], validator };
+
+		IEngineShipment shipment = CalcEngines.newEngine(config, new HashMap<>());
+		assertTrue("distinct keys should be usable: " + Arrays.toString(shipment.getErrors()), shipment.allOk());
+		ICalcEngine e = shipment.getEngine();
+
+		String rows = "[{\"pan\": \"AAAPA1234A\", \"section\": \"c80\", \"amount\": 100},"
+				+ "{\"pan\": \"BBBPB1234B\", \"section\": \"d80\", \"amount\": 200},"
+				+ "{\"pan\": \"CCCPC1234C\", \"section\": \"g80\", \"amount\": 0}]";
+		CalcResultDS result = e.calculate(inputs("base_salary", "100000", "claims", rows));
+		assertTrue(result.outputs.get("unique_pans").getBooleanValue());
+		assertNumber("3", result, "nbr_pans");
+		assertNumber("0", result, "repeated_sections");
+		result = e.calculate(inputs("base_salary", "100000", "claims", rows.replace("BBBPB1234B", " AAAPA1234A ")));
+		assertFalse("keys are trimmed", result.outputs.get("unique_pans").getBooleanValue());
+
+		StringBuilder sbf = new StringBuilder("[");
+		for (int i = 0; i < 5000; i++) {
+			sbf.append("{\"pan\": \"P").append(i % 1000).append("\", \"section\": \"")
+					.append(i < 2 ? "c80" : "g80").append("\", \"amount\": ").append(i < 4 ? 1 : 0).append("},");
+		}
+		sbf.setCharAt(sbf.length() - 1, ']');
+		result = e.calculate(inputs("base_salary", "100000", "claims", sbf.toString()));
+		assertFalse("a section is repeated", result.allOk);
+		assertEquals(1, result.errors.length);
+
+		config.validators = new ValidatorDS[] { config.validators[0] };
+		e = CalcEngines.newEngine(config, new HashMap<>()).getEngine();
+		result = e.calculate(inputs("base_salary", "100000", "claims", sbf.toString()));
+		assertFalse(result.outputs.get("unique_pans").getBooleanValue());
+		assertNumber("1000", result, "nbr_pans");
+		assertNumber("2", result, "repeated_sections");
+
+		config.dataElements.put("bad", newElement("output", "NUMBER", "countDistinct(claims, amount)"));
+		assertFalse("keys are strings or enums", CalcEngines.newEngine(config, new HashMap<>()).allOk());
+	}
+
+	private static DataElementDS newElement(String type, String dataType, String defaultExpression) {
+		DataElementDS element = new DataElementDS();
+		element.type = type;
+		element.dataType = dataType;
+		if (defaultExpression != null) {
+			element.calculator = new CalculatorDS();
+			element.calculator.defaultExpression = defaultExpression;
+		}
+		return element;
+	}
+
+	@Test
+	public void testMemoizedSubgraphs() throws Exception {
+		CalcConfigDS config = loadConfig();
+		Map<String, String> categories = new HashMap<>();
+		categories.put("a", "Small");
+		categories.put("b", "Medium");
+		categories.put("C", "Large");
+		config.enumerations = Collections.singletonMap("Employer", categories);
+
+		DataElementDS category = newElement("optional_input", "ENUM:employer", "employer.a");
+		category.errorId = "invalid_category";
+		config.dataElements.put("employer_category", category);
+		DataElementDS rate = newElement("calculated", "NUMBER", "0.1");
+		CalcStepsDS step1 = new CalcStepsDS();
+		step1.when = "employer_category = Employer.B";
+		step1.value = "0.2";
+		CalcStepsDS step2 = new CalcStepsDS();
+		step2.when = "old_regime";
+		step2.value = "0.15";
+		rate.calculator.calcSteps = new CalcStepsDS[] { step1, step2 };
+		config.dataElements.put("category_rate", rate);
+		config.dataElements.put("category_factor", newElement("calculated", "NUMBER", "category_rate * 2"));
+		config.dataElements.put("category_bonus", newElement("output", "NUMBER", "base_salary * category_factor"));
+
+		IEngineShipment shipment = CalcEngines.newEngine(config, new HashMap<>());
+		assertTrue("enums should be usable: " + Arrays.toString(shipment.getErrors()), shipment.allOk());
+		ICalcEngine plain = shipment.getEngine();
+		EngineOptionsDS options = new EngineOptionsDS();
+		options.maxMemoizedCombinations = 100;
+		ICalcEngine memoized = CalcEngines.newEngine(config, new HashMap<>(), options).getEngine();
+
+		CalcEngine impl = (CalcEngine) memoized;
+		assertTrue(impl.memos[impl.variables.get("category_rate").getSlot()] != null);
+		assertTrue(impl.memos[impl.variables.get("category_factor").getSlot()] != null);
+		assertEquals("depends on a number", null, impl.memos[impl.variables.get("category_bonus").getSlot()]);
+
+		String[] values = { null, "a", "B", "c", "d" };
+		String[] regimes = { null, "true", "false" };
+		for (int i = 0; i < 2; i++) {
+			for (String value : values) {
+				for (String regime : regimes) {
+					Map<String, String> inputs = inputs("base_salary", "400000");
+					if (value != null) {
+						inputs.put("employer_category", value);
+					}
+					if (regime != null) {
+						inputs.put("old_regime", regime);
+					}
+					assertSameResults(plain, memoized, inputs);
+				}
+			}
+		}
+		assertNumber("160000", memoized.calculate(inputs("base_salary", "400000", "employer_category", "b")),
+				"category_bonus");
+		assertFalse(memoized.calculate(inputs("base_salary", "400000", "employer_category", "d")).allOk);
+	}
+}
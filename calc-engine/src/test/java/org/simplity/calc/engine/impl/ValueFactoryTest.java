@@ -43,6 +43,16 @@ public class ValueFactoryTest {
 						Values.newValue(new BigDecimal("0")) },
 				{ Values.newValue(new BigDecimal("-12")), DataType.NUMBER, new BigDecimal("-12"),
 						Values.newValue(new BigDecimal("-12")) },
+				{ Values.newValue(12345, 2), DataType.NUMBER, new BigDecimal("123.45"),
+						Values.newValue(new BigDecimal("123.45")) },
+				{ Values.add(Values.newValue(new BigDecimal("0.5")), Values.newValue(new BigDecimal("2.25"))),
+						DataType.NUMBER, new BigDecimal("2.75"), Values.newValue(275, 2) },
+				{ Values.multiply(Values.newValue(Long.MAX_VALUE, 0), Values.newValue(10, 1)), DataType.NUMBER,
+						new BigDecimal("9223372036854775807.0"), Values.newValue(new BigDecimal("9223372036854775807.0")) },
+				{ Values.divide(Values.newValue(100, 2), Values.newValue(5, 1)), DataType.NUMBER,
+						new BigDecimal("2.0"), Values.newValue(new BigDecimal("1.00").divide(new BigDecimal("0.5"))) },
+				{ Values.divide(Values.newValue(1, 0), Values.newValue(4, 0)), DataType.NUMBER, new BigDecimal("0.25"),
+						Values.newValue(25, 2) },
 				{ Values.newValue("hello"), DataType.STRING, "hello", Values.newValue("hello") },
 				{ Values.newValue(""), DataType.STRING, "", Values.newValue("") },
 				{ Values.newValue("!@#$"), DataType.STRING, "!@#$", Values.newValue("!@#$") },
@@ -55,7 +65,7 @@ public class ValueFactoryTest {
 	@Test
 	public void testValueCreationAndAccess() {
 		// 1. Assert that the type is correct
-		assertEquals(this.expectedType, this.valueToTest.getValueType());
+		assertEquals(this.expectedType, this.valueToTest.getValueType().getDataType());
 
 		// 2. assert that getValue() matches
 		assertEquals(this.valueToMatch, this.valueToTest.getValue());
@@ -7,7 +7,9 @@ import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -27,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
 import com.google.gson.reflect.TypeToken;
 
@@ -104,7 +107,12 @@ public class WebServer extends Server {
 	static class EngineHandler extends AbstractHandler {
 		private static final int METHOD_NOT_ALLOWED = 405;
 		private static final int INVALID_DATA = 400;
-		private static final Type MAP_TYPE = new TypeToken<Map<String, String>>() {
+		/*
+		 * reserved request field with comma-separated names of the outputs to be
+		 * calculated. All outputs are calculated if it is not specified.
+		 */
+		private static final String OUTPUTS_FIELD = "_outputs";
+		private static final Type MAP_TYPE = new TypeToken<Map<String, JsonElement>>() {
 			//
 		}.getType();
 		private ICalcEngine engine;
@@ -142,8 +150,27 @@ public class WebServer extends Server {
 			CalcResultDS result = null;
 			Gson gson = new Gson();
 			try (Reader reader = request.getReader()) {
-				Map<String, String> inputs = gson.fromJson(reader, MAP_TYPE);
-				result = this.engine.calculate(inputs);
+				Map<String, JsonElement> fields = gson.fromJson(reader, MAP_TYPE);
+				/*
+				 * an array, like the rows of a schedule, is input as its json text
+				 */
+				Map<String, String> inputs = new HashMap<>();
+				for (Map.Entry<String, JsonElement> entry : fields.entrySet()) {
+					JsonElement value = entry.getValue();
+					if (value != null && !value.isJsonNull()) {
+						inputs.put(entry.getKey(), value.isJsonPrimitive() ? value.getAsString() : value.toString());
+					}
+				}
+				String outputs = inputs.remove(OUTPUTS_FIELD);
+				if (outputs == null || outputs.trim().isEmpty()) {
+					result = this.engine.calculate(inputs);
+				} else {
+					Set<String> requested = new HashSet<>();
+					for (String name : outputs.split(",")) {
+						requested.add(name.trim());
+					}
+					result = this.engine.calculate(inputs, requested);
+				}
 			} catch (Exception e) {
 				CalcErrorDS[] errors = { new CalcErrorDS("", e.getMessage()) };
 				result = new CalcResultDS(errors);